@@ -6,6 +6,7 @@ import com.github.secondbase.consul.ConsulModule;
 import com.github.secondbase.core.SecondBaseException;
 import com.github.secondbase.core.config.SecondBaseModule;
 import com.github.secondbase.flags.Flags;
+import com.github.secondbase.jvm.JvmMetrics;
 import com.github.secondbase.logging.JsonLoggerModule;
 import com.github.secondbase.secrets.SecretHandler;
 import com.github.secondbase.secrets.s3.S3SecretHandler;
@@ -49,6 +50,8 @@ public class SecondBase {
 
         final SecondBaseModule jsonLogger = new JsonLoggerModule();
 
+        // Registers nothing unless --jvm-metrics is given.
+        final SecondBaseModule jvmMetrics = new JvmMetrics();
         final PrometheusWebConsole prometheusWidget = new PrometheusWebConsole();
         final Widget[] widgets = {prometheusWidget};
         final HttpWebConsole webConsole = new HttpWebConsole(widgets);
@@ -60,6 +63,7 @@ public class SecondBase {
         final SecondBaseModule[] modules = {
                 jsonLogger, // Put jsonLogger first, since it can define how the other modules log.
                 consul,
+                jvmMetrics,
                 prometheusWidget,
                 webConsole,
                 registerMetrics};
@@ -0,0 +1,63 @@
+package com.github.secondbase.benchmarks.flags;
+
+import com.github.secondbase.flags.Flag;
+import com.github.secondbase.flags.FlagValue;
+import com.github.secondbase.flags.Flags;
+import com.github.secondbase.flags.IntFlag;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares reading a flag from a plain static field with reading it through {@link IntFlag} and
+ * a boxed {@link FlagValue}, from several threads at once.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class FlagValueReadBenchmark {
+
+    @Flag(name = "field")
+    static int field = 0;
+
+    @Flag(name = "handle")
+    static final IntFlag HANDLE = new IntFlag(0);
+
+    @Flag(name = "boxed")
+    static final FlagValue<Integer> BOXED = new FlagValue<>(Integer.class, 0);
+
+    @Setup
+    public void setup() {
+        new Flags()
+                .loadOpts(FlagValueReadBenchmark.class)
+                .parse(new String[]{"--field", "1", "--handle", "1", "--boxed", "1"});
+    }
+
+    @Benchmark
+    public int staticField() {
+        return field;
+    }
+
+    @Benchmark
+    public int intFlag() {
+        return HANDLE.getInt();
+    }
+
+    @Benchmark
+    public int boxedFlagValue() {
+        return BOXED.get();
+    }
+}
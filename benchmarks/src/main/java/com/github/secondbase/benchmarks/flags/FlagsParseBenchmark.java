@@ -0,0 +1,79 @@
+package com.github.secondbase.benchmarks.flags;
+
+import com.github.secondbase.flags.Flags;
+import com.github.secondbase.secrets.SecretHandler;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link Flags#parse(String[])} for large numbers of flags, given either on the command
+ * line or through a properties file, with a pass-through secret handler installed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FlagsParseBenchmark {
+
+    @Param({"1024", "4096"})
+    public int flagCount;
+
+    private Flags flags;
+    private String[] commandLine;
+    private String[] propertiesArgs;
+    private File propertiesFile;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        ManyFlags.setCount(flagCount);
+        final SecretHandler passThrough = args -> args;
+        flags = new Flags(new SecretHandler[]{passThrough}).loadOpts(ManyFlags.class);
+
+        commandLine = new String[flagCount * 2];
+        final Properties properties = new Properties();
+        for (int i = 0; i < flagCount; i++) {
+            commandLine[2 * i] = "--flag-" + i;
+            commandLine[2 * i + 1] = "value-" + i;
+            properties.setProperty("flag-" + i, "value-" + i);
+        }
+
+        propertiesFile = File.createTempFile("flags-benchmark", ".properties");
+        try (FileOutputStream out = new FileOutputStream(propertiesFile)) {
+            properties.store(out, null);
+        }
+        propertiesArgs = new String[]{"--properties-file", propertiesFile.getAbsolutePath()};
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        propertiesFile.delete();
+    }
+
+    @Benchmark
+    public Flags commandLine() {
+        return flags.parse(commandLine);
+    }
+
+    @Benchmark
+    public Flags propertiesFile() {
+        return flags.parse(propertiesArgs);
+    }
+}
@@ -0,0 +1,39 @@
+package com.github.secondbase.benchmarks.flags;
+
+import com.github.secondbase.flags.Flags;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the cold cost of loading and parsing flags in a fresh JVM through the generated
+ * binder and through reflection. Every fork measures exactly one first call, which is what a
+ * short lived batch job pays at startup.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(20)
+public class FlagsStartupBenchmark {
+
+    @Benchmark
+    public Flags generatedBinder() {
+        return new Flags()
+                .loadOpts(StartupFlags.class)
+                .parse(StartupFlags.args());
+    }
+
+    @Benchmark
+    public Flags reflection() {
+        return new Flags()
+                .setUseGeneratedBinders(false)
+                .loadOpts(StartupFlags.class)
+                .parse(StartupFlags.args());
+    }
+}
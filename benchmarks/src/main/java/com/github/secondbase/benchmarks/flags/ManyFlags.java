@@ -0,0 +1,23 @@
+package com.github.secondbase.benchmarks.flags;
+
+/**
+ * Target class for {@link ManyFlags_FlagsBinder}, which defines a configurable number of string
+ * flags named flag-0, flag-1 and so on.
+ */
+final class ManyFlags {
+
+    static int count = 1024;
+    static String[] values = new String[count];
+
+    private ManyFlags() {
+    }
+
+    /**
+     * Resize the flag set. Must be called before {@link ManyFlags} is loaded into a Flags.
+     * @param count the number of flags
+     */
+    static void setCount(final int count) {
+        ManyFlags.count = count;
+        values = new String[count];
+    }
+}
@@ -0,0 +1,57 @@
+package com.github.secondbase.benchmarks.flags;
+
+import com.github.secondbase.flags.Flag;
+import com.github.secondbase.flags.FlagSpec;
+import com.github.secondbase.flags.FlagsBinder;
+import com.github.secondbase.flags.NoOption;
+
+/**
+ * Hand written binder for {@link ManyFlags}, so that the number of flags can be chosen at run
+ * time instead of declaring thousands of fields.
+ */
+public final class ManyFlags_FlagsBinder implements FlagsBinder {
+
+    @Override
+    public Flag[] flags() {
+        final Flag[] flags = new Flag[ManyFlags.count];
+        for (int i = 0; i < flags.length; i++) {
+            flags[i] = new FlagSpec("flag-" + i, "", false, NoOption.class);
+        }
+        return flags;
+    }
+
+    @Override
+    public Class<?> typeOf(final int index) {
+        return String.class;
+    }
+
+    @Override
+    public String fieldNameOf(final int index) {
+        return ManyFlags.class.getName() + ".values[" + index + "]";
+    }
+
+    @Override
+    public boolean isStatic(final int index) {
+        return true;
+    }
+
+    @Override
+    public boolean isVolatile(final int index) {
+        return false;
+    }
+
+    @Override
+    public Object get(final Object target, final int index) {
+        return ManyFlags.values[index];
+    }
+
+    @Override
+    public void set(final Object target, final int index, final Object value) {
+        ManyFlags.values[index] = (String) value;
+    }
+
+    @Override
+    public void postConstruct(final Object target) {
+        // no post construct methods
+    }
+}
@@ -0,0 +1,141 @@
+package com.github.secondbase.benchmarks.flags;
+
+import com.github.secondbase.flags.Flag;
+
+/**
+ * A typical batch job configuration class. Fields are package private so that flags-processor
+ * generates a binder for it.
+ */
+final class StartupFlags {
+
+    private StartupFlags() {
+    }
+
+    @Flag(name = "host", description = "Benchmark flag host")
+    static String host = "NA";
+
+    @Flag(name = "port", description = "Benchmark flag port")
+    static int port = 0;
+
+    @Flag(name = "timeout-ms", description = "Benchmark flag timeout-ms")
+    static long timeoutMs = 0L;
+
+    @Flag(name = "batch-size", description = "Benchmark flag batch-size")
+    static boolean batchSize = false;
+
+    @Flag(name = "retries", description = "Benchmark flag retries")
+    static Integer retries = 0;
+
+    @Flag(name = "pool-min", description = "Benchmark flag pool-min")
+    static String poolMin = "NA";
+
+    @Flag(name = "pool-max", description = "Benchmark flag pool-max")
+    static int poolMax = 0;
+
+    @Flag(name = "log-level", description = "Benchmark flag log-level")
+    static long logLevel = 0L;
+
+    @Flag(name = "enable-cache", description = "Benchmark flag enable-cache")
+    static boolean enableCache = false;
+
+    @Flag(name = "cache-ttl", description = "Benchmark flag cache-ttl")
+    static Integer cacheTtl = 0;
+
+    @Flag(name = "region", description = "Benchmark flag region")
+    static String region = "NA";
+
+    @Flag(name = "zone", description = "Benchmark flag zone")
+    static int zone = 0;
+
+    @Flag(name = "queue-name", description = "Benchmark flag queue-name")
+    static long queueName = 0L;
+
+    @Flag(name = "queue-depth", description = "Benchmark flag queue-depth")
+    static boolean queueDepth = false;
+
+    @Flag(name = "verbose", description = "Benchmark flag verbose")
+    static Integer verbose = 0;
+
+    @Flag(name = "dry-run", description = "Benchmark flag dry-run")
+    static String dryRun = "NA";
+
+    @Flag(name = "input", description = "Benchmark flag input")
+    static int input = 0;
+
+    @Flag(name = "output", description = "Benchmark flag output")
+    static long output = 0L;
+
+    @Flag(name = "threads", description = "Benchmark flag threads")
+    static boolean threads = false;
+
+    @Flag(name = "max-memory", description = "Benchmark flag max-memory")
+    static Integer maxMemory = 0;
+
+    @Flag(name = "checkpoint", description = "Benchmark flag checkpoint")
+    static String checkpoint = "NA";
+
+    @Flag(name = "checkpoint-interval", description = "Benchmark flag checkpoint-interval")
+    static int checkpointInterval = 0;
+
+    @Flag(name = "user", description = "Benchmark flag user")
+    static long user = 0L;
+
+    @Flag(name = "compress", description = "Benchmark flag compress")
+    static boolean compress = false;
+
+    @Flag(name = "window", description = "Benchmark flag window")
+    static Integer window = 0;
+
+    @Flag(name = "offset", description = "Benchmark flag offset")
+    static String offset = "NA";
+
+    @Flag(name = "limit", description = "Benchmark flag limit")
+    static int limit = 0;
+
+    @Flag(name = "sort", description = "Benchmark flag sort")
+    static long sort = 0L;
+
+    @Flag(name = "format", description = "Benchmark flag format")
+    static boolean format = false;
+
+    @Flag(name = "trace", description = "Benchmark flag trace")
+    static Integer trace = 0;
+
+    /**
+     * Arguments setting every flag.
+     */
+    static String[] args() {
+        return new String[]{
+                "--host", "value0",
+                "--port", "1",
+                "--timeout-ms", "2000",
+                "--batch-size", "true",
+                "--retries", "4",
+                "--pool-min", "value5",
+                "--pool-max", "6",
+                "--log-level", "7000",
+                "--enable-cache", "true",
+                "--cache-ttl", "9",
+                "--region", "value10",
+                "--zone", "11",
+                "--queue-name", "12000",
+                "--queue-depth", "true",
+                "--verbose", "14",
+                "--dry-run", "value15",
+                "--input", "16",
+                "--output", "17000",
+                "--threads", "true",
+                "--max-memory", "19",
+                "--checkpoint", "value20",
+                "--checkpoint-interval", "21",
+                "--user", "22000",
+                "--compress", "true",
+                "--window", "24",
+                "--offset", "value25",
+                "--limit", "26",
+                "--sort", "27000",
+                "--format", "true",
+                "--trace", "29",
+        };
+    }
+}
@@ -0,0 +1,74 @@
+package com.github.secondbase.benchmarks.secrets;
+
+import com.github.secondbase.secrets.SecretReference;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares finding secret references in a large argument list with {@link SecretReference}
+ * against matching every argument with the regular expressions the S3 and Vault handlers used
+ * before. One argument in a hundred holds a reference.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SecretScanBenchmark {
+
+    private static final Pattern S3 = Pattern.compile(".*(secret:s3:(.+):(.+)).*");
+    private static final Pattern VAULT = Pattern.compile("(secret:vault:(.*):(.*))");
+
+    @Param({"10000"})
+    public int argumentCount;
+
+    @Param({"32", "1024"})
+    public int argumentLength;
+
+    private String[] args;
+
+    @Setup
+    public void setup() {
+        final char[] filler = new char[argumentLength];
+        Arrays.fill(filler, 'x');
+        args = new String[argumentCount];
+        for (int i = 0; i < argumentCount; i++) {
+            if (i % 200 == 0) {
+                args[i] = "--s3=secret:s3:bucket:" + new String(filler);
+            } else if (i % 200 == 100) {
+                args[i] = "secret:vault:secret/" + new String(filler) + ":key";
+            } else {
+                args[i] = "--flag-" + i + "=" + new String(filler);
+            }
+        }
+    }
+
+    @Benchmark
+    public void regexPerHandler(final Blackhole blackhole) {
+        for (final String arg : args) {
+            blackhole.consume(S3.matcher(arg).matches());
+            blackhole.consume(VAULT.matcher(arg).matches());
+        }
+    }
+
+    @Benchmark
+    public void singleScan(final Blackhole blackhole) {
+        for (final String arg : args) {
+            blackhole.consume(SecretReference.find(arg));
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.github.secondbase.benchmarks.webconsole;
+
+import com.github.secondbase.webconsole.PrometheusWebConsole;
+import com.github.secondbase.webconsole.PrometheusWebConsoleConfiguration;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpPrincipal;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Counter;
+import io.prometheus.client.exporter.common.TextFormat;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares a scrape of the default registry rendered into a fresh 1 MiB buffer, as the servlet
+ * used to do, against the streaming and fixed-length modes of {@link PrometheusWebConsole}, which
+ * reuse their buffers. Run with -prof gc to see the bytes allocated per scrape.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetricsExpositionBenchmark {
+
+    @Param({"10", "1000"})
+    public int seriesCount;
+
+    private HttpHandler servlet;
+
+    @Setup
+    public void setup() {
+        CollectorRegistry.defaultRegistry.clear();
+        final Counter counter = Counter.build("requests_total", "Requests handled.")
+                .labelNames("path", "status")
+                .register();
+        for (int i = 0; i < seriesCount; i++) {
+            counter.labels("/path/" + i, "200").inc(i);
+        }
+        servlet = new PrometheusWebConsole().getServlet();
+    }
+
+    @Benchmark
+    public long perScrapeBuffer() throws IOException {
+        final DiscardingExchange exchange = new DiscardingExchange();
+        final ByteArrayOutputStream response = new ByteArrayOutputStream(1 << 20);
+        final OutputStreamWriter osw = new OutputStreamWriter(response);
+        TextFormat.write004(osw, CollectorRegistry.defaultRegistry.metricFamilySamples());
+        osw.close();
+        exchange.sendResponseHeaders(200, response.size());
+        response.writeTo(exchange.getResponseBody());
+        exchange.close();
+        return exchange.written;
+    }
+
+    @Benchmark
+    public long streaming() throws IOException {
+        PrometheusWebConsoleConfiguration.fixedLength = false;
+        final DiscardingExchange exchange = new DiscardingExchange();
+        servlet.handle(exchange);
+        return exchange.written;
+    }
+
+    @Benchmark
+    public long fixedLength() throws IOException {
+        PrometheusWebConsoleConfiguration.fixedLength = true;
+        final DiscardingExchange exchange = new DiscardingExchange();
+        servlet.handle(exchange);
+        return exchange.written;
+    }
+
+    /**
+     * An exchange counting and discarding the response.
+     */
+    private static final class DiscardingExchange extends HttpExchange {
+        private final Headers responseHeaders = new Headers();
+        private long written;
+        private final OutputStream body = new OutputStream() {
+            @Override
+            public void write(final int b) {
+                written++;
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) {
+                written += len;
+            }
+        };
+
+        @Override
+        public Headers getRequestHeaders() {
+            return new Headers();
+        }
+
+        @Override
+        public Headers getResponseHeaders() {
+            return responseHeaders;
+        }
+
+        @Override
+        public URI getRequestURI() {
+            return URI.create("/metrics");
+        }
+
+        @Override
+        public String getRequestMethod() {
+            return "GET";
+        }
+
+        @Override
+        public HttpContext getHttpContext() {
+            return null;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public InputStream getRequestBody() {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        @Override
+        public OutputStream getResponseBody() {
+            return body;
+        }
+
+        @Override
+        public void sendResponseHeaders(final int code, final long length) {
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddress() {
+            return null;
+        }
+
+        @Override
+        public int getResponseCode() {
+            return 200;
+        }
+
+        @Override
+        public InetSocketAddress getLocalAddress() {
+            return null;
+        }
+
+        @Override
+        public String getProtocol() {
+            return "HTTP/1.1";
+        }
+
+        @Override
+        public Object getAttribute(final String name) {
+            return null;
+        }
+
+        @Override
+        public void setAttribute(final String name, final Object value) {
+        }
+
+        @Override
+        public void setStreams(final InputStream in, final OutputStream out) {
+        }
+
+        @Override
+        public HttpPrincipal getPrincipal() {
+            return null;
+        }
+    }
+}
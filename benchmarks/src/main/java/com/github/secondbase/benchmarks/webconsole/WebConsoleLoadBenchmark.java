@@ -0,0 +1,120 @@
+package com.github.secondbase.benchmarks.webconsole;
+
+import com.github.secondbase.webconsole.HttpWebConsole;
+import com.github.secondbase.webconsole.WebConsoleConfiguration;
+import com.github.secondbase.webconsole.widget.Widget;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures /healthz while other clients scrape a slow metrics endpoint, with requests handled
+ * on the dispatcher thread (threads = 0) and on a pool. Sampling gives the throughput and the
+ * latency percentiles of each endpoint; with no pool, health checks wait behind every scrape.
+ * Nagle's algorithm is turned off in the server so small responses are not held back by
+ * delayed acknowledgements, which would otherwise add 40 ms to every health check.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dsun.net.httpserver.nodelay=true")
+@State(Scope.Benchmark)
+public class WebConsoleLoadBenchmark {
+
+    private static final long SCRAPE_MILLIS = 20;
+    private static final byte[] METRICS = new byte[64 * 1024];
+
+    @Param({"0", "8"})
+    public int threads;
+
+    private HttpWebConsole console;
+    private URL healthz;
+    private URL metrics;
+
+    @Setup
+    public void setup() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            WebConsoleConfiguration.port = socket.getLocalPort();
+        }
+        WebConsoleConfiguration.threads = threads;
+        console = new HttpWebConsole(new Widget[]{new SlowMetrics()});
+        console.start();
+        healthz = new URL("http://127.0.0.1:" + WebConsoleConfiguration.port + "/healthz");
+        metrics = new URL("http://127.0.0.1:" + WebConsoleConfiguration.port + "/metrics");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        console.shutdown();
+    }
+
+    @Benchmark
+    @Group("scrapeAndHealthCheck")
+    @GroupThreads(4)
+    public int scrape() throws IOException {
+        return get(metrics);
+    }
+
+    @Benchmark
+    @Group("scrapeAndHealthCheck")
+    @GroupThreads(2)
+    public int healthCheck() throws IOException {
+        return get(healthz);
+    }
+
+    private static int get(final URL url) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        int read = 0;
+        try (InputStream in = connection.getInputStream()) {
+            final byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                read += n;
+            }
+        }
+        return read;
+    }
+
+    /**
+     * A metrics endpoint taking a while to collect its samples.
+     */
+    private static final class SlowMetrics implements Widget {
+        @Override
+        public String getPath() {
+            return "/metrics";
+        }
+
+        @Override
+        public HttpHandler getServlet() {
+            return exchange -> {
+                try {
+                    Thread.sleep(SCRAPE_MILLIS);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                exchange.sendResponseHeaders(200, METRICS.length);
+                exchange.getResponseBody().write(METRICS);
+                exchange.close();
+            };
+        }
+    }
+}
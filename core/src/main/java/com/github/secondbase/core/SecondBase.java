@@ -3,6 +3,8 @@ package com.github.secondbase.core;
 import com.github.secondbase.core.config.SecondBaseModule;
 import com.github.secondbase.flags.Flag;
 import com.github.secondbase.flags.Flags;
+import com.github.secondbase.flags.PropertiesFileWatcher;
+import java.io.IOException;
 
 /**
  * Coordination class for SecondBase modules. Handles Flags parsing and cooperation between modules.
@@ -21,6 +23,12 @@ public class SecondBase {
     )
     public static String environment = "testing";
 
+    @Flag(
+            name = "watch-properties-files",
+            description = "Reload flags when the properties files change"
+    )
+    public static boolean watchPropertiesFiles = false;
+
     private Flags flags;
 
     /**
@@ -45,6 +53,8 @@ public class SecondBase {
             final Flags flags)
             throws SecondBaseException {
         this.flags = flags;
+        // Fetch secrets while the modules load their options.
+        flags.prefetchSecrets(args);
         flags.loadOpts(SecondBase.class);
         for(final SecondBaseModule module : modules) {
             module.load(this);
@@ -59,6 +69,13 @@ public class SecondBase {
             flags.printVersion(System.out);
             System.exit(0);
         }
+        if (watchPropertiesFiles) {
+            try {
+                new PropertiesFileWatcher(flags).start();
+            } catch (final IOException e) {
+                throw new SecondBaseException("Could not watch properties files", e);
+            }
+        }
 
         for (final SecondBaseModule module : modules) {
             module.init();
@@ -0,0 +1,377 @@
+package com.github.secondbase.flags.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import com.github.secondbase.flags.Flag;
+import com.github.secondbase.flags.FlagSpec;
+import com.github.secondbase.flags.FlagHandle;
+import com.github.secondbase.flags.FlagsBinder;
+
+/**
+ * Generates a {@link FlagsBinder} for every class declaring Flag annotated fields, so that
+ * Flags can bind them without reflection.
+ *
+ * No binder is generated when the binder could not access the class directly: local and
+ * anonymous classes, private classes, private or final flagged fields, inaccessible field types
+ * and private or parameterised PostConstruct methods. Such classes are still handled by Flags
+ * through reflection.
+ */
+public final class FlagsBinderProcessor extends AbstractProcessor {
+
+    private static final String FLAG = Flag.class.getCanonicalName();
+    private static final String POST_CONSTRUCT = "javax.annotation.PostConstruct";
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(FLAG);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(
+            final Set<? extends TypeElement> annotations,
+            final RoundEnvironment roundEnv) {
+        final Set<TypeElement> types = new LinkedHashSet<>();
+        for (final Element element : roundEnv.getElementsAnnotatedWith(Flag.class)) {
+            if (element.getKind() == ElementKind.FIELD) {
+                types.add((TypeElement) element.getEnclosingElement());
+            }
+        }
+        for (final TypeElement type : types) {
+            final List<VariableElement> fields = new ArrayList<>();
+            final List<ExecutableElement> postConstructs = new ArrayList<>();
+            for (final Element member : type.getEnclosedElements()) {
+                if (member.getKind() == ElementKind.FIELD && getAnnotation(member, FLAG) != null) {
+                    fields.add((VariableElement) member);
+                }
+                if (member.getKind() == ElementKind.METHOD
+                        && getAnnotation(member, POST_CONSTRUCT) != null) {
+                    postConstructs.add((ExecutableElement) member);
+                }
+            }
+            final String reason = unsupportedReason(type, fields, postConstructs);
+            if (reason != null) {
+                processingEnv.getMessager().printMessage(
+                        Diagnostic.Kind.NOTE,
+                        "No flags binder generated, reflection will be used: " + reason,
+                        type);
+                continue;
+            }
+            try {
+                writeBinder(type, fields, postConstructs);
+            } catch (final IOException e) {
+                processingEnv.getMessager().printMessage(
+                        Diagnostic.Kind.ERROR,
+                        "Could not write flags binder: " + e.getMessage(),
+                        type);
+            }
+        }
+        // Leave Flag unclaimed so other processors can see it.
+        return false;
+    }
+
+    /**
+     * @return why no binder can be generated for the type, or null if it can
+     */
+    private String unsupportedReason(
+            final TypeElement type,
+            final List<VariableElement> fields,
+            final List<ExecutableElement> postConstructs) {
+        if (type.getNestingKind() == NestingKind.LOCAL
+                || type.getNestingKind() == NestingKind.ANONYMOUS) {
+            return type + " is a local or anonymous class";
+        }
+        final PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+        if (!isAccessible(type, pkg)) {
+            return type + " is private";
+        }
+        for (final VariableElement field : fields) {
+            if (field.getModifiers().contains(Modifier.PRIVATE)) {
+                return "field " + field.getSimpleName() + " is private";
+            }
+            if (field.getModifiers().contains(Modifier.FINAL) && !isHandle(field)) {
+                return "field " + field.getSimpleName() + " is final";
+            }
+            if (!isAccessible(erasure(field.asType()), pkg)
+                    || !isAccessible(options(field), pkg)) {
+                return "the type of field " + field.getSimpleName() + " is not accessible";
+            }
+        }
+        for (final ExecutableElement method : postConstructs) {
+            if (method.getModifiers().contains(Modifier.PRIVATE)) {
+                return "post construct method " + method.getSimpleName() + " is private";
+            }
+            if (!method.getParameters().isEmpty()) {
+                return "post construct method " + method.getSimpleName() + " has parameters";
+            }
+        }
+        return null;
+    }
+
+    private boolean isAccessible(final TypeMirror type, final PackageElement pkg) {
+        if (type.getKind() == TypeKind.ARRAY) {
+            return isAccessible(((ArrayType) type).getComponentType(), pkg);
+        }
+        if (type.getKind() != TypeKind.DECLARED) {
+            return true;
+        }
+        return isAccessible((TypeElement) ((DeclaredType) type).asElement(), pkg);
+    }
+
+    private boolean isAccessible(final TypeElement type, final PackageElement pkg) {
+        final boolean samePackage = processingEnv.getElementUtils().getPackageOf(type).equals(pkg);
+        Element e = type;
+        while (e instanceof TypeElement) {
+            final Set<Modifier> modifiers = e.getModifiers();
+            if (modifiers.contains(Modifier.PRIVATE)
+                    || (!samePackage && !modifiers.contains(Modifier.PUBLIC))) {
+                return false;
+            }
+            e = e.getEnclosingElement();
+        }
+        return true;
+    }
+
+    private void writeBinder(
+            final TypeElement type,
+            final List<VariableElement> fields,
+            final List<ExecutableElement> postConstructs) throws IOException {
+        final String pkg = processingEnv.getElementUtils().getPackageOf(type)
+                .getQualifiedName().toString();
+        final String binderName = flatName(type) + FlagsBinder.SUFFIX;
+        final String target = type.getQualifiedName().toString();
+        final String binder = FlagsBinder.class.getCanonicalName();
+        final String flag = Flag.class.getCanonicalName();
+
+        final StringBuilder b = new StringBuilder();
+        if (!pkg.isEmpty()) {
+            b.append("package ").append(pkg).append(";\n\n");
+        }
+        b.append("/**\n * Flags binder for {@link ").append(target).append("}. Generated by ")
+                .append(getClass().getSimpleName()).append(", do not edit.\n */\n")
+                .append("public final class ").append(binderName).append(" implements ")
+                .append(binder).append(" {\n\n");
+
+        b.append("    private static final ").append(flag).append("[] FLAGS = {\n");
+        for (final VariableElement field : fields) {
+            final Map<? extends ExecutableElement, ? extends AnnotationValue> values
+                    = processingEnv.getElementUtils().getElementValuesWithDefaults(
+                            getAnnotation(field, FLAG));
+            b.append("        new ").append(FlagSpec.class.getCanonicalName()).append("(")
+                    .append(literal(value(values, "name"))).append(", ")
+                    .append(literal(value(values, "description"))).append(", ")
+                    .append(value(values, "required")).append(", ")
+                    .append(options(field)).append(".class),\n");
+        }
+        b.append("    };\n\n");
+
+        b.append("    @Override\n    public ").append(flag).append("[] flags() {\n")
+                .append("        return FLAGS.clone();\n    }\n\n");
+
+        b.append("    @Override\n    public Class<?> typeOf(final int index) {\n");
+        openSwitch(b);
+        for (int i = 0; i < fields.size(); i++) {
+            b.append("            case ").append(i).append(": return ")
+                    .append(erasure(fields.get(i).asType())).append(".class;\n");
+        }
+        closeSwitch(b);
+
+        b.append("    @Override\n    public String fieldNameOf(final int index) {\n");
+        openSwitch(b);
+        for (int i = 0; i < fields.size(); i++) {
+            b.append("            case ").append(i).append(": return ")
+                    .append(literal(target + "." + fields.get(i).getSimpleName())).append(";\n");
+        }
+        closeSwitch(b);
+
+        b.append("    @Override\n    public boolean isStatic(final int index) {\n");
+        openSwitch(b);
+        for (int i = 0; i < fields.size(); i++) {
+            b.append("            case ").append(i).append(": return ")
+                    .append(isStatic(fields.get(i))).append(";\n");
+        }
+        closeSwitch(b);
+
+        b.append("    @Override\n    public boolean isVolatile(final int index) {\n");
+        openSwitch(b);
+        for (int i = 0; i < fields.size(); i++) {
+            b.append("            case ").append(i).append(": return ")
+                    .append(fields.get(i).getModifiers().contains(Modifier.VOLATILE))
+                    .append(";\n");
+        }
+        closeSwitch(b);
+
+        b.append("    @Override\n    public Object get(final Object target, final int index) {\n");
+        openSwitch(b);
+        for (int i = 0; i < fields.size(); i++) {
+            b.append("            case ").append(i).append(": return ")
+                    .append(fieldRef(target, fields.get(i))).append(";\n");
+        }
+        closeSwitch(b);
+
+        b.append("    @Override\n")
+                .append("    public void set(final Object target, final int index, ")
+                .append("final Object value) {\n");
+        openSwitch(b);
+        for (int i = 0; i < fields.size(); i++) {
+            final VariableElement field = fields.get(i);
+            b.append("            case ").append(i).append(": ");
+            if (field.getModifiers().contains(Modifier.FINAL)) {
+                // Final handles are set through the handle, never replaced.
+                b.append("throw new UnsupportedOperationException(")
+                        .append(literal(field.getSimpleName() + " is final")).append(");\n");
+            } else {
+                if (field.asType().getKind().isPrimitive()) {
+                    // As reflection does, when an optional argument flag is given no value.
+                    b.append("if (value == null) { throw new IllegalArgumentException(")
+                            .append(literal("Can not set " + field.asType() + " field "
+                                    + target + "." + field.getSimpleName() + " to null value"))
+                            .append("); } ");
+                }
+                b.append(fieldRef(target, field)).append(" = (")
+                        .append(boxed(field.asType())).append(") value; return;\n");
+            }
+        }
+        closeSwitch(b);
+
+        b.append("    @Override\n")
+                .append("    public void postConstruct(final Object target) throws Exception {\n")
+                .append("        if (target == null) {\n");
+        for (final ExecutableElement method : postConstructs) {
+            if (isStatic(method)) {
+                b.append("            ").append(target).append(".")
+                        .append(method.getSimpleName()).append("();\n");
+            }
+        }
+        b.append("            return;\n        }\n");
+        for (final ExecutableElement method : postConstructs) {
+            if (!isStatic(method)) {
+                b.append("        ((").append(target).append(") target).")
+                        .append(method.getSimpleName()).append("();\n");
+            }
+        }
+        b.append("    }\n}\n");
+
+        final String qualifiedName = pkg.isEmpty() ? binderName : pkg + "." + binderName;
+        try (Writer writer = processingEnv.getFiler()
+                .createSourceFile(qualifiedName, type).openWriter()) {
+            writer.write(b.toString());
+        }
+    }
+
+    private static void openSwitch(final StringBuilder b) {
+        b.append("        switch (index) {\n");
+    }
+
+    private static void closeSwitch(final StringBuilder b) {
+        b.append("            default: throw new IndexOutOfBoundsException(")
+                .append("String.valueOf(index));\n        }\n    }\n\n");
+    }
+
+    /**
+     * Flattened name of a nested class, the binary class name without its package, as Flags
+     * looks the binder up by. Nested classes are separated by '$', which the JLS leaves to
+     * generated code, so the name can not clash with a hand-written class.
+     */
+    private static String flatName(final TypeElement type) {
+        String name = type.getSimpleName().toString();
+        Element e = type.getEnclosingElement();
+        while (e instanceof TypeElement) {
+            name = e.getSimpleName() + "$" + name;
+            e = e.getEnclosingElement();
+        }
+        return name;
+    }
+
+    private static String fieldRef(final String target, final VariableElement field) {
+        if (isStatic(field)) {
+            return target + "." + field.getSimpleName();
+        }
+        return "((" + target + ") target)." + field.getSimpleName();
+    }
+
+    private static boolean isStatic(final Element element) {
+        return element.getModifiers().contains(Modifier.STATIC);
+    }
+
+    private boolean isHandle(final VariableElement field) {
+        final TypeElement handle = processingEnv.getElementUtils()
+                .getTypeElement(FlagHandle.class.getCanonicalName());
+        return processingEnv.getTypeUtils().isAssignable(
+                erasure(field.asType()), erasure(handle.asType()));
+    }
+
+    private TypeMirror erasure(final TypeMirror type) {
+        return processingEnv.getTypeUtils().erasure(type);
+    }
+
+    private String boxed(final TypeMirror type) {
+        if (type.getKind().isPrimitive()) {
+            return processingEnv.getTypeUtils().boxedClass((PrimitiveType) type)
+                    .getQualifiedName().toString();
+        }
+        return erasure(type).toString();
+    }
+
+    private TypeMirror options(final VariableElement field) {
+        return (TypeMirror) value(
+                processingEnv.getElementUtils().getElementValuesWithDefaults(
+                        getAnnotation(field, FLAG)),
+                "options");
+    }
+
+    private String literal(final Object value) {
+        return processingEnv.getElementUtils().getConstantExpression(value);
+    }
+
+    private static Object value(
+            final Map<? extends ExecutableElement, ? extends AnnotationValue> values,
+            final String name) {
+        for (final Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+                : values.entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals(name)) {
+                return entry.getValue().getValue();
+            }
+        }
+        throw new IllegalStateException("Flag has no member " + name);
+    }
+
+    private static AnnotationMirror getAnnotation(final Element element, final String name) {
+        for (final AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            final TypeElement annotation = (TypeElement) mirror.getAnnotationType().asElement();
+            if (annotation.getQualifiedName().contentEquals(name)) {
+                return mirror;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,33 @@
+package com.github.secondbase.flags.processor;
+
+import com.github.secondbase.flags.Flag;
+import javax.annotation.PostConstruct;
+
+/**
+ * Static flags which flags-processor generates a binder for.
+ */
+public final class BoundFlags {
+    @Flag(name="bound-string", description="String \"test\"")
+    static String string = "NA";
+
+    @Flag(name="bound-int")
+    static volatile int integer = 1;
+
+    @Flag(name="bound-boolean")
+    public static boolean bool = false;
+
+    @Flag(name="bound-long", required = true)
+    static Long longNum = 1L;
+
+    public enum SimpleEnum {OPTION1, OPTION2}
+
+    @Flag(name="bound-option", options=SimpleEnum.class)
+    static SimpleEnum option = SimpleEnum.OPTION1;
+
+    static int postConstructCalls;
+
+    @PostConstruct
+    static void init() {
+        postConstructCalls++;
+    }
+}
@@ -0,0 +1,16 @@
+package com.github.secondbase.flags.processor;
+
+import com.github.secondbase.flags.Flag;
+import com.github.secondbase.flags.FlagValue;
+import com.github.secondbase.flags.IntFlag;
+
+/**
+ * Final FlagValue handles which flags-processor generates a binder for.
+ */
+public final class BoundHandleFlags {
+    @Flag(name="handle-string")
+    static final FlagValue<String> string = new FlagValue<>(String.class, "NA");
+
+    @Flag(name="handle-int")
+    static final IntFlag integer = new IntFlag(1);
+}
@@ -0,0 +1,24 @@
+package com.github.secondbase.flags.processor;
+
+import com.github.secondbase.flags.Flag;
+import javax.annotation.PostConstruct;
+
+/**
+ * Instance flags in a nested class which flags-processor generates a binder for.
+ */
+public final class BoundInstanceFlags {
+    static final class Nested {
+        @Flag(name="instance-string")
+        String string = "NA";
+
+        @Flag(name="instance-long")
+        long longNum = 1L;
+
+        int postConstructCalls;
+
+        @PostConstruct
+        void init() {
+            postConstructCalls++;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.github.secondbase.flags.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.github.secondbase.flags.Flag;
+import com.github.secondbase.flags.Flags;
+import com.github.secondbase.flags.FlagsBinder;
+import java.io.ByteArrayOutputStream;
+import org.junit.Test;
+
+/**
+ * Test binders generated by {@link FlagsBinderProcessor} while compiling the test sources.
+ */
+public class FlagsBinderProcessorTest {
+
+    @Test
+    public void generatesBinderForStaticFlags() throws Exception {
+        final FlagsBinder binder = (FlagsBinder) Class.forName(
+                BoundFlags.class.getName() + FlagsBinder.SUFFIX).newInstance();
+
+        final Flag[] flags = binder.flags();
+        assertEquals(5, flags.length);
+        assertEquals("bound-string", flags[0].name());
+        assertEquals("String \"test\"", flags[0].description());
+        assertEquals(int.class, binder.typeOf(1));
+        assertTrue(binder.isVolatile(1));
+        assertFalse(binder.isVolatile(0));
+        assertTrue(flags[3].required());
+        assertEquals(BoundFlags.SimpleEnum.class, flags[4].options());
+        assertEquals(BoundFlags.class.getDeclaredField("string").getAnnotation(Flag.class),
+                flags[0]);
+        assertEquals(flags[0],
+                BoundFlags.class.getDeclaredField("string").getAnnotation(Flag.class));
+    }
+
+    @Test
+    public void bindsStaticFlags() {
+        final int calls = BoundFlags.postConstructCalls;
+        final Flags flags = new Flags()
+                .loadOpts(BoundFlags.class)
+                .parse(new String[]{
+                        "--bound-string", "stringtest",
+                        "--bound-int", "10",
+                        "--bound-boolean",
+                        "--bound-long", "30",
+                        "--bound-option", "OPTION2"});
+
+        assertEquals("stringtest", BoundFlags.string);
+        assertEquals(10, BoundFlags.integer);
+        assertTrue(BoundFlags.bool);
+        assertEquals(Long.valueOf(30), BoundFlags.longNum);
+        assertEquals(BoundFlags.SimpleEnum.OPTION2, BoundFlags.option);
+        assertEquals(calls + 1, BoundFlags.postConstructCalls);
+
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        flags.printHelp(baos);
+        assertTrue(baos.toString().contains("default: stringtest"));
+    }
+
+    @Test
+    public void bindsFinalFlagValueHandles() throws Exception {
+        Class.forName(BoundHandleFlags.class.getName() + FlagsBinder.SUFFIX);
+        new Flags()
+                .loadOpts(BoundHandleFlags.class)
+                .parse(new String[]{"--handle-string", "a", "--handle-int", "2"});
+        assertEquals("a", BoundHandleFlags.string.get());
+        assertEquals(2, BoundHandleFlags.integer.getInt());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void requiredFlagWithBinder() {
+        new Flags().loadOpts(BoundFlags.class).parse(new String[]{});
+    }
+
+    @Test
+    public void bindsInstanceFlagsOfNestedClass() throws Exception {
+        Class.forName(BoundInstanceFlags.Nested.class.getName() + FlagsBinder.SUFFIX);
+        final BoundInstanceFlags.Nested nested = new BoundInstanceFlags.Nested();
+        new Flags()
+                .loadOpts(nested)
+                .parse(new String[]{"--instance-string", "a", "--instance-long", "2"});
+
+        assertEquals("a", nested.string);
+        assertEquals(2L, nested.longNum);
+        assertEquals(1, nested.postConstructCalls);
+    }
+
+    @Test
+    public void primitiveFlagWithoutValue() {
+        try {
+            new Flags()
+                    .loadOpts(BoundFlags.class)
+                    .parse(new String[]{"--bound-long", "30", "--bound-int"});
+            fail("Expected an int flag without a value to be rejected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("null value"));
+        }
+    }
+
+    @Test(expected = ClassNotFoundException.class)
+    public void noBinderForPrivateField() throws Exception {
+        Class.forName(ReflectedFlags.class.getName() + FlagsBinder.SUFFIX);
+    }
+
+    @Test
+    public void fallsBackToReflection() {
+        new Flags()
+                .loadOpts(ReflectedFlags.class)
+                .parse(new String[]{"--reflected-string", "a"});
+        assertEquals("a", ReflectedFlags.getString());
+    }
+
+    @Test
+    public void bindersCanBeDisabled() {
+        final BoundInstanceFlags.Nested nested = new BoundInstanceFlags.Nested();
+        new Flags()
+                .setUseGeneratedBinders(false)
+                .loadOpts(nested)
+                .parse(new String[]{"--instance-string", "b"});
+        assertEquals("b", nested.string);
+        assertEquals(1, nested.postConstructCalls);
+    }
+}
@@ -0,0 +1,15 @@
+package com.github.secondbase.flags.processor;
+
+import com.github.secondbase.flags.Flag;
+
+/**
+ * Flags with a private field, which is left to reflection.
+ */
+public final class ReflectedFlags {
+    @Flag(name="reflected-string")
+    private static String string = "NA";
+
+    static String getString() {
+        return string;
+    }
+}
@@ -0,0 +1,37 @@
+package com.github.secondbase.flags;
+
+/**
+ * {@link FlagHandle} holding a boolean, read without boxing through {@link #getBoolean()}.
+ *
+ * @author acidmoose
+ *
+ */
+public final class BooleanFlag extends FlagHandle<Boolean> {
+    private volatile boolean value;
+
+    /**
+     * Create a handle holding a default value.
+     * @param defaultValue the value until the flag is given
+     */
+    public BooleanFlag(final boolean defaultValue) {
+        super(Boolean.class);
+        this.value = defaultValue;
+    }
+
+    /**
+     * @return the current value
+     */
+    public boolean getBoolean() {
+        return value;
+    }
+
+    @Override
+    public Boolean get() {
+        return value;
+    }
+
+    @Override
+    void set(final Boolean value) {
+        this.value = requirePrimitive(value);
+    }
+}
@@ -0,0 +1,15 @@
+package com.github.secondbase.flags;
+
+/**
+ * Notified when {@link Flags#reload()} sets a flag to a new value.
+ */
+public interface FlagChangeListener {
+
+    /**
+     * Called after the field of a changed flag has been set.
+     * @param flag the flag that changed
+     * @param oldValue the value before the reload
+     * @param newValue the value after the reload
+     */
+    void flagChanged(Flag flag, Object oldValue, Object newValue);
+}
@@ -0,0 +1,56 @@
+package com.github.secondbase.flags;
+
+/**
+ * Handle for a flag value, set by Flags instead of the final field holding it. Each kind of
+ * handle keeps the value in its own volatile field: {@link FlagValue} for any supported type,
+ * and {@link IntFlag}, {@link LongFlag} and {@link BooleanFlag} for primitives without boxing.
+ *
+ * @param <T> the type of the value, one of the types supported for flagged fields
+ *
+ * @author acidmoose
+ *
+ */
+public abstract class FlagHandle<T> {
+    private final Class<T> type;
+
+    FlagHandle(final Class<T> type) {
+        this.type = type;
+    }
+
+    /**
+     * @return the current value
+     */
+    public abstract T get();
+
+    /**
+     * @return the type of the value
+     */
+    public final Class<T> type() {
+        return type;
+    }
+
+    /**
+     * Publish a new value. Only Flags sets values.
+     * @param value the new value
+     */
+    abstract void set(T value);
+
+    /**
+     * @param value a value for a primitive handle
+     * @return the value
+     * @throws IllegalArgumentException if the value is null
+     */
+    final T requirePrimitive(final T value) {
+        if (value == null) {
+            throw new IllegalArgumentException(
+                getClass().getSimpleName() + " can not hold null, a " + type.getSimpleName()
+                + " value is required.");
+        }
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(get());
+    }
+}
@@ -0,0 +1,96 @@
+package com.github.secondbase.flags;
+
+import java.lang.annotation.Annotation;
+
+/**
+ * Plain implementation of the {@link Flag} annotation. Used by generated {@link FlagsBinder}
+ * classes so that flag definitions can be handed to {@link Flags} without reading annotations
+ * through reflection.
+ *
+ * @author acidmoose
+ *
+ */
+public final class FlagSpec implements Flag {
+    private final String name;
+    private final String description;
+    private final boolean required;
+    private final Class<? extends Enum<?>> options;
+
+    /**
+     * Create a flag definition.
+     * @param name the name used in command line arguments
+     * @param description of the flag
+     * @param required true if the flag must be given
+     * @param options the enum class of valid options, or {@link NoOption}
+     */
+    public FlagSpec(
+            final String name,
+            final String description,
+            final boolean required,
+            final Class<? extends Enum<?>> options) {
+        this.name = name;
+        this.description = description;
+        this.required = required;
+        this.options = options;
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public String description() {
+        return description;
+    }
+
+    @Override
+    public boolean required() {
+        return required;
+    }
+
+    @Override
+    public Class<? extends Enum<?>> options() {
+        return options;
+    }
+
+    @Override
+    public Class<? extends Annotation> annotationType() {
+        return Flag.class;
+    }
+
+    /**
+     * Equal to any {@link Flag} with the same member values, as defined by {@link Annotation}.
+     */
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Flag)) {
+            return false;
+        }
+        final Flag other = (Flag) o;
+        return name.equals(other.name())
+                && description.equals(other.description())
+                && required == other.required()
+                && options.equals(other.options());
+    }
+
+    /**
+     * Hash code as defined by {@link Annotation#hashCode()}.
+     */
+    @Override
+    public int hashCode() {
+        return ((127 * "name".hashCode()) ^ name.hashCode())
+                + ((127 * "description".hashCode()) ^ description.hashCode())
+                + ((127 * "required".hashCode()) ^ Boolean.valueOf(required).hashCode())
+                + ((127 * "options".hashCode()) ^ options.hashCode());
+    }
+
+    @Override
+    public String toString() {
+        return "@" + Flag.class.getName() + "(name=" + name + ", description=" + description
+                + ", required=" + required + ", options=" + options.getName() + ")";
+    }
+}
@@ -0,0 +1,43 @@
+package com.github.secondbase.flags;
+
+/**
+ * Handle for a flag value, as an alternative to a mutable flagged field. Declare it final and
+ * annotate it with Flag:
+ *
+ * \@Flag(name="host")
+ * public static final FlagValue&lt;String&gt; host
+ *         = new FlagValue&lt;&gt;(String.class, "localhost");
+ *
+ * Flags sets the value of the handle instead of the field. Reading it is a single volatile read
+ * without locking, so the latest parsed or reloaded value is always seen. Use {@link IntFlag},
+ * {@link LongFlag} and {@link BooleanFlag} to read primitives without boxing; like this class,
+ * they are {@link FlagHandle}s.
+ *
+ * @param <T> the type of the value, one of the types supported for flagged fields
+ *
+ * @author acidmoose
+ *
+ */
+public class FlagValue<T> extends FlagHandle<T> {
+    private volatile T value;
+
+    /**
+     * Create a handle holding a default value.
+     * @param type the type of the value
+     * @param defaultValue the value until the flag is given
+     */
+    public FlagValue(final Class<T> type, final T defaultValue) {
+        super(type);
+        this.value = defaultValue;
+    }
+
+    @Override
+    public T get() {
+        return value;
+    }
+
+    @Override
+    void set(final T value) {
+        this.value = value;
+    }
+}
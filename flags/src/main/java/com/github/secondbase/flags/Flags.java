@@ -4,32 +4,60 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.Properties;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import javax.annotation.PostConstruct;
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 import joptsimple.OptionSpec;
+import joptsimple.ValueConversionException;
+import joptsimple.ValueConverter;
 import com.github.secondbase.secrets.SecretHandler;
+import com.github.secondbase.secrets.SecretHandlerException;
+import com.github.secondbase.secrets.SecretReference;
+import com.github.secondbase.secrets.SecretValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 
 /**
  * This class can load command line arguments based of Flag annotations.
  *
  * Fields must be static, and public, and defined as a String, Long, long, Integer,
- * int, Boolean or boolean.
+ * int, Boolean or boolean. Fields may also hold a {@link FlagHandle} of one of these
+ * types, which is then set instead of the field.
  *
  * Typical use:
  *
@@ -48,18 +76,29 @@ import com.github.secondbase.secrets.SecretHandler;
  * If the class type contains methods annotated with @PostConstruct annotation they will be
  * automatically called after parsing the arguments.
  *
+ * Classes are inspected through reflection unless the flags-processor annotation processor has
+ * generated a {@link FlagsBinder} for them, in which case the binder is used instead.
+ *
  * @author acidmoose
  *
  */
 public final class Flags {
 
+    private static final Logger LOG = LoggerFactory.getLogger(Flags.class);
+
+    private static final ThreadFactory SECRET_FETCH_THREADS = r -> {
+        final Thread thread = new Thread(r, "flags-secret-fetch");
+        thread.setDaemon(true);
+        return thread;
+    };
+
     /**
      * The supported field types. Determined in fieldTypeOf(Field field).
      *
      * @author acidmoose
      *
      */
-    private enum FieldType {ENUM, STRING, INTEGER, LONG, BOOLEAN, UNKNOWN}
+    private enum FieldType {ENUM, STRING, INTEGER, LONG, BOOLEAN, SECRET, UNKNOWN}
 
     //The option set builder.
     private final OptionParser optionParser = new OptionParser();
@@ -89,14 +128,40 @@ public final class Flags {
 
     private List<?> nonOptionArguments;
 
+    private boolean helpFlagged;
+    private boolean versionFlagged;
+
+    private final List<FlagChangeListener> changeListeners = new CopyOnWriteArrayList<>();
+
+    // Values of the latest parse or reload, replaced as a whole.
+    private volatile FlagsSnapshot snapshot = FlagsSnapshot.EMPTY;
+    // The SecretValues converted by Flags, by the number of published snapshots holding each.
+    // A secret is closed once no snapshot holding it can be read any more. Guarded by this.
+    private final Map<SecretValue, Integer> secretHolders = new IdentityHashMap<>();
+    // Snapshots holding secrets, enqueued once unreachable. Guarded by this.
+    private final Set<SnapshotSecrets> snapshotSecrets = new HashSet<>();
+    private final ReferenceQueue<FlagsSnapshot> unreachableSnapshots = new ReferenceQueue<>();
+
     // Helper map to store enum options.
     private final Map<Class<? extends Enum<?>>, List<String>> enumOptions = new HashMap<>();
 
     private final List<Object> objects = new ArrayList<>();
     private final List<Class<?>> classes = new ArrayList<>();
 
+    // Binders generated by flags-processor, by flagged class.
+    private final Map<Class<?>, FlagsBinder> binders = new HashMap<>();
+
+    private boolean useGeneratedBinders = true;
+
     private SecretHandler[] secretHandlers;
 
+    private int secretFetchParallelism = 1;
+    private long secretFetchTimeoutNanos;
+
+    // Secrets fetched by prefetchSecrets, by the argument referring to them. Used by the next
+    // parse only.
+    private volatile CompletableFuture<Map<String, String>> prefetchedSecrets;
+
     /**
      * Standard constructor initialising a flags object without secret handlers.
      */
@@ -135,154 +200,148 @@ public final class Flags {
     }
 
     private Flags loadOpts(final Object o, final boolean instanced) {
-        final Field[] declaredFields;
-        Class<?> c = null;
-        if (instanced) {
-            declaredFields = o.getClass().getDeclaredFields();
-        } else {
-            c = ((Class<?>)o);
-            declaredFields = c.getDeclaredFields();
+        final Class<?> c = instanced ? o.getClass() : (Class<?>) o;
+        final Object target = instanced ? o : null;
+
+        // Prefer a binder generated by flags-processor over reflection.
+        final FlagsBinder binder = findBinder(c);
+        if (binder != null) {
+            binders.put(c, binder);
+            final Flag[] flags = binder.flags();
+            for (int i = 0; i < flags.length; i++) {
+                final Accessor accessor = new BinderAccessor(binder, i, target);
+                if (!instanced && !binder.isStatic(i)) {
+                    throw notStatic(accessor);
+                }
+                addFlag(flags[i], binder.typeOf(i), accessor, o, instanced);
+            }
+            return this;
         }
 
-        for (final Field field : declaredFields) {
+        for (final Field field : c.getDeclaredFields()) {
             final Flag flag = field.getAnnotation(Flag.class);
             // Check if we found a flag annotation for this field.
             if (null == flag) {
                 continue;
             }
 
+            final Accessor accessor = new FieldAccessor(field, target);
+
             // Flag fields must be static if you are initializing the flags through a Class
             // instance.
             if (!instanced && !Modifier.isStatic(field.getModifiers())) {
-                throw new IllegalArgumentException(
-                    "Field " + field.toGenericString() + " is not static. Flag fields "
-                    + "must be static when initializing through a Class instance.");
+                throw notStatic(accessor);
             }
 
-            final String name = flag.name();
-            final String description = flag.description();
-
-            // Determine the type of field
-            final FieldType type = fieldTypeOf(field, flag);
-
-            switch (type) {
+            addFlag(flag, field.getType(), accessor, o, instanced);
+        }
+        return this;
+    }
 
-            case INTEGER:
-                final OptionSpec<Integer> intOption;
-                if (flag.required()) {
-                    intOption = optionParser
-                            .accepts(name, description)
-                            .withRequiredArg()
-                            .ofType(Integer.class);
-                } else {
-                    intOption = optionParser
-                            .accepts(name, description)
-                            .withOptionalArg()
-                            .ofType(Integer.class);
-                }
-                if (instanced) {
-                    addInstancedOption(type, flag, field, intOption, o);
-                } else {
-                    addOption(type, flag, field, intOption, c);
-                }
-                break;
+    private static IllegalArgumentException notStatic(final Accessor accessor) {
+        return new IllegalArgumentException(
+            "Field " + accessor.describe() + " is not static. Flag fields "
+            + "must be static when initializing through a Class instance.");
+    }
 
-            case STRING:
-                final OptionSpec<String> stringOption;
-                if (flag.required()) {
-                    stringOption = optionParser
-                            .accepts(name, description)
-                            .withRequiredArg()
-                            .ofType(String.class);
-                } else {
-                    stringOption = optionParser
-                            .accepts(name, description)
-                            .withOptionalArg()
-                            .ofType(String.class);
-                }
-                if (instanced) {
-                    addInstancedOption(type, flag, field, stringOption, o);
-                } else {
-                    addOption(type, flag, field, stringOption, c);
-                }
-                break;
+    /**
+     * Create the option for a single flagged field.
+     *
+     * @param flag the flag definition
+     * @param fieldType the declared type of the field
+     * @param accessor reads and writes the field
+     * @param o the class or instance the field belongs to
+     * @param instanced true if o is an instance
+     */
+    private void addFlag(
+            final Flag flag,
+            final Class<?> fieldType,
+            final Accessor accessor,
+            final Object o,
+            final boolean instanced) {
+        // Handles are bound by setting the handle, never the field holding it.
+        if (FlagHandle.class.isAssignableFrom(fieldType)) {
+            final FlagHandle<?> handle = (FlagHandle<?>) accessor.get();
+            if (handle == null) {
+                throw new IllegalArgumentException(
+                    "Field " + accessor.describe() + " must hold a FlagValue.");
+            }
+            addFlag(flag, handle.type(), new HandleAccessor(handle, accessor), o, instanced);
+            return;
+        }
 
-            case BOOLEAN:
-                final OptionSpec<Boolean> booleanOption;
-                if (flag.required()) {
-                    booleanOption = optionParser
-                            .accepts(name, description)
-                            .withOptionalArg()
-                            .ofType(Boolean.class);
-                } else {
-                    booleanOption = optionParser
-                            .accepts(name, description)
-                            .withOptionalArg()
-                            .ofType(Boolean.class);
-                }
-                if (instanced) {
-                    addInstancedOption(type, flag, field, booleanOption, o);
-                } else {
-                    addOption(type, flag, field, booleanOption, c);
-                }
-                break;
+        final Class<?> c = instanced ? null : (Class<?>) o;
+        final String name = flag.name();
+        final String description = flag.description();
 
-            case LONG:
-                final OptionSpec<Long> longOption;
-                if (flag.required()) {
-                    longOption = optionParser
-                            .accepts(name, description)
-                            .withRequiredArg()
-                            .ofType(Long.class);
-                } else {
-                    longOption = optionParser
-                            .accepts(name, description)
-                            .withOptionalArg()
-                            .ofType(Long.class);
-                }
-                if (instanced) {
-                    addInstancedOption(type, flag, field, longOption, o);
-                } else {
-                    addOption(type, flag, field, longOption, c);
-                }
-                break;
+        // Determine the type of field
+        final FieldType type = fieldTypeOf(fieldType, flag);
 
-            case ENUM:
-                final Class<? extends Enum<?>> enumClass = flag.options();
-                final Object[] enumConstants = enumClass.getEnumConstants();
-                if (enumConstants == null) {
-                    throw new IllegalArgumentException(
-                        "Field " + field.toGenericString() + " is not an enum type.");
-                }
-                for (final Object object : enumConstants) {
-                    addEnumOption(enumClass, object.toString());
-                }
-                final OptionSpec<?> enumOption;
-                if (flag.required()) {
-                    enumOption = optionParser
-                            .accepts(name, description)
-                            .withRequiredArg()
-                            .ofType(enumClass);
-                } else {
-                    enumOption = optionParser
-                            .accepts(name, description)
-                            .withOptionalArg()
-                            .ofType(enumClass);
-                }
-                if (instanced) {
-                    addInstancedOption(type, flag, field, enumOption, o);
-                } else {
-                    addOption(type, flag, field, enumOption, c);
-                }
-                break;
+        switch (type) {
+        case UNKNOWN:
+            throw new IllegalArgumentException(
+                "Field " + accessor.describe() + " is not of a supported type.");
 
-            case UNKNOWN:
-            default:
+        case ENUM:
+            final Object[] enumConstants = flag.options().getEnumConstants();
+            if (enumConstants == null) {
                 throw new IllegalArgumentException(
-                    "Field " + field.toGenericString() + " is not of a supported type.");
+                    "Field " + accessor.describe() + " is not an enum type.");
+            }
+            for (final Object object : enumConstants) {
+                addEnumOption(flag.options(), object.toString());
             }
+            break;
+
+        default:
+            break;
+        }
+
+        // Values are kept as strings until secrets are resolved. The converter still rejects
+        // arguments of the wrong type, so jopt only takes an optional argument when it fits.
+        final RawValueConverter converter = new RawValueConverter(
+                type, flag.options(), secretHandlers.length > 0);
+        final OptionSpec<String> option;
+        if (flag.required() && type != FieldType.BOOLEAN) {
+            option = optionParser
+                    .accepts(name, description)
+                    .withRequiredArg()
+                    .withValuesConvertedBy(converter);
+        } else {
+            option = optionParser
+                    .accepts(name, description)
+                    .withOptionalArg()
+                    .withValuesConvertedBy(converter);
+        }
+        if (instanced) {
+            addInstancedOption(type, flag, accessor, option, o);
+        } else {
+            addOption(type, flag, accessor, option, c);
+        }
+    }
+
+    /**
+     * Look up the binder generated by flags-processor for a class.
+     *
+     * @param c the flagged class
+     * @return the binder, or null if none was generated or binders are disabled
+     */
+    private FlagsBinder findBinder(final Class<?> c) {
+        if (!useGeneratedBinders) {
+            return null;
+        }
+        final String binderName = c.getName() + FlagsBinder.SUFFIX;
+        final Class<?> binderClass;
+        try {
+            binderClass = Class.forName(binderName, true, c.getClassLoader());
+        } catch (final ClassNotFoundException e) {
+            return null;
+        }
+        try {
+            return (FlagsBinder) binderClass.newInstance();
+        } catch (final InstantiationException | IllegalAccessException e) {
+            throw new RuntimeException("Could not create flags binder " + binderName, e);
         }
-        return this;
     }
 
     /**
@@ -295,6 +354,17 @@ public final class Flags {
         return this;
     }
 
+    /**
+     * Choose whether binders generated by flags-processor are used when present. When disabled,
+     * all classes are loaded through reflection. Must be set before loading options.
+     * @param useGeneratedBinders false to always use reflection
+     * @return Flags this instance of Flags
+     */
+    public Flags setUseGeneratedBinders(final boolean useGeneratedBinders) {
+        this.useGeneratedBinders = useGeneratedBinders;
+        return this;
+    }
+
     /**
      * Returns all arguments given to parse() that are not Flagged arguments.
      * @return List - list of all arguments given to parse() that are not Flagged arguments
@@ -324,7 +394,7 @@ public final class Flags {
      *
      * @param type
      * @param flag
-     * @param field
+     * @param accessor
      * @param option
      * @param c
      * @throws IllegalArgumentException
@@ -332,15 +402,15 @@ public final class Flags {
     private void addOption(
             final FieldType type,
             final Flag flag,
-            final Field field,
-            final OptionSpec<?> option,
+            final Accessor accessor,
+            final OptionSpec<String> option,
             final Class<?> c)
             throws IllegalArgumentException {
         if (options.containsKey(flag.name())) {
             throw new IllegalArgumentException(
                 "Flag named " + flag.name() + " is defined more than once.");
         }
-        options.put(flag.name(), new OptionHolder(type, flag, field, option, c));
+        options.put(flag.name(), new OptionHolder(type, flag, accessor, option, c));
     }
 
     /**
@@ -349,7 +419,7 @@ public final class Flags {
      *
      * @param type
      * @param flag
-     * @param field
+     * @param accessor
      * @param option
      * @param c
      * @throws IllegalArgumentException
@@ -357,23 +427,38 @@ public final class Flags {
     private void addInstancedOption(
             final FieldType type,
             final Flag flag,
-            final Field field,
-            final OptionSpec<?> option,
+            final Accessor accessor,
+            final OptionSpec<String> option,
             final Object c)
             throws IllegalArgumentException {
         if (options.containsKey(flag.name())) {
             throw new IllegalArgumentException(
                 "Flag named " + flag.name() + " is defined more than once.");
         }
-        options.put(flag.name(), new OptionHolder(type, flag, field, option, c));
+        options.put(flag.name(), new OptionHolder(type, flag, accessor, option, c));
     }
 
     /**
      * Pass args through secret handling.
+     *
+     * By default the secret handlers are called one after another on the whole argument list.
+     * If a parallelism above one or a timeout is set, the distinct arguments referring to secrets
+     * are instead grouped by scheme, and each group is passed through the handlers as one list so
+     * they can batch it. Up to parallelism groups are fetched at once, and all of them must be
+     * fetched before the timeout.
+     *
      * @param args - Arguments passed from main method
      * @return this
+     * @throws SecretHandlerException if a secret could not be fetched in time
      */
     public String[] fetchSecrets(final String[] args) {
+        if (secretFetchParallelism > 1 || secretFetchTimeoutNanos > 0) {
+            return fetchSecretsConcurrently(args);
+        }
+        return fetchSecretsSequentially(args);
+    }
+
+    private String[] fetchSecretsSequentially(final String[] args) {
         String[] ret = args;
         for (final SecretHandler secretHandler : secretHandlers) {
             ret = secretHandler.fetch(ret);
@@ -381,13 +466,176 @@ public final class Flags {
         return ret;
     }
 
+    private String[] fetchSecretsConcurrently(final String[] args) {
+        // Find all references first, so each distinct one is only fetched once.
+        final Map<String, List<String>> groups = new LinkedHashMap<>();
+        final Map<String, String> schemes = new HashMap<>();
+        final Map<String, Integer> indexes = new HashMap<>();
+        for (final String arg : args) {
+            final Optional<SecretReference> reference = arg == null
+                    ? Optional.empty() : SecretReference.find(arg);
+            if (reference.isPresent() && !schemes.containsKey(arg)) {
+                final List<String> group = groups.computeIfAbsent(
+                        reference.get().scheme(), scheme -> new ArrayList<>());
+                schemes.put(arg, reference.get().scheme());
+                indexes.put(arg, group.size());
+                group.add(arg);
+            }
+        }
+        if (groups.isEmpty() || secretHandlers.length == 0) {
+            return args;
+        }
+
+        final long deadline = System.nanoTime() + secretFetchTimeoutNanos;
+        final ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(secretFetchParallelism, groups.size()), SECRET_FETCH_THREADS);
+        try {
+            final Map<String, Future<String[]>> fetches = new HashMap<>();
+            for (final Map.Entry<String, List<String>> group : groups.entrySet()) {
+                final String[] batch = group.getValue().toArray(new String[0]);
+                fetches.put(group.getKey(), executor.submit(() -> {
+                    final String[] fetched = fetchSecretsSequentially(batch);
+                    if (fetched.length != batch.length) {
+                        throw new IllegalStateException(
+                            "Secret handlers must return one argument for each argument given.");
+                    }
+                    return fetched;
+                }));
+            }
+            final Map<String, String[]> fetched = new HashMap<>();
+            for (final Map.Entry<String, Future<String[]>> fetch : fetches.entrySet()) {
+                fetched.put(fetch.getKey(), awaitSecrets(fetch.getValue(), deadline));
+            }
+            final String[] ret = new String[args.length];
+            for (int i = 0; i < args.length; i++) {
+                final String scheme = args[i] == null ? null : schemes.get(args[i]);
+                ret[i] = scheme == null ? args[i] : fetched.get(scheme)[indexes.get(args[i])];
+            }
+            return ret;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private String[] awaitSecrets(final Future<String[]> fetch, final long deadline) {
+        try {
+            if (secretFetchTimeoutNanos <= 0) {
+                return fetch.get();
+            }
+            return fetch.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (final TimeoutException e) {
+            throw new SecretHandlerException("Secrets were not fetched within "
+                    + TimeUnit.NANOSECONDS.toMillis(secretFetchTimeoutNanos) + " ms", e);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SecretHandlerException("Interrupted while fetching secrets", e);
+        } catch (final ExecutionException e) {
+            // Rethrow what the handler threw, as the sequential mode does.
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new SecretHandlerException("Could not fetch secret", e);
+        }
+    }
+
+    /**
+     * Start fetching the secrets referred to by the arguments on a background thread, so the
+     * fetches overlap with loading options. The next {@link #parse(String[])} uses the secrets
+     * fetched, waiting for them if needed, and fetches any others itself. If prefetching fails,
+     * parse fetches all secrets itself and reports any error then.
+     *
+     * @param args - Arguments passed from main method
+     * @return this
+     */
+    public Flags prefetchSecrets(final String[] args) {
+        if (secretHandlers.length == 0) {
+            return this;
+        }
+        final String[] given = args.clone();
+        prefetchedSecrets = CompletableFuture.supplyAsync(() -> {
+            // Handlers may substitute in place, so they are given their own copy.
+            final String[] fetched = fetchSecrets(given.clone());
+            final Map<String, String> secrets = new HashMap<>();
+            for (int i = 0; i < given.length; i++) {
+                final Optional<SecretReference> reference = given[i] == null
+                        ? Optional.empty() : SecretReference.find(given[i]);
+                if (!reference.isPresent() || given[i].equals(fetched[i])) {
+                    continue;
+                }
+                secrets.put(given[i], fetched[i]);
+                // For --name=secret:... the parsed value is the part after the name.
+                final int start = reference.get().start();
+                if (fetched[i].startsWith(given[i].substring(0, start))) {
+                    secrets.put(given[i].substring(start), fetched[i].substring(start));
+                }
+            }
+            return secrets;
+        }, r -> SECRET_FETCH_THREADS.newThread(r).start());
+        return this;
+    }
+
+    /**
+     * Take the secrets fetched by {@link #prefetchSecrets(String[])}, waiting for them if needed.
+     * @return fetched secrets by the argument referring to them, empty if none were prefetched
+     */
+    private Map<String, String> takePrefetchedSecrets() {
+        final CompletableFuture<Map<String, String>> prefetched = prefetchedSecrets;
+        prefetchedSecrets = null;
+        if (prefetched == null) {
+            return Collections.emptyMap();
+        }
+        try {
+            return prefetched.join();
+        } catch (final CompletionException e) {
+            LOG.debug("Could not prefetch secrets, fetching them while parsing", e.getCause());
+            return Collections.emptyMap();
+        }
+    }
+
+    /**
+     * Fetch secrets with up to the given number of schemes in flight at once. Each handler is
+     * given all distinct references of a scheme in one call, so it can batch them, and must be
+     * thread safe, as the S3 and Vault handlers are. To fetch the secrets of one scheme
+     * concurrently, register an {@link com.github.secondbase.secrets.AsyncSecretResolver} for
+     * it in a {@link com.github.secondbase.secrets.SecretHandlerRegistry}.
+     * @param parallelism the maximum number of concurrent fetches, 1 to fetch sequentially
+     * @return Flags this instance of Flags
+     */
+    public Flags setSecretFetchParallelism(final int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        }
+        this.secretFetchParallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Fail parsing with a {@link SecretHandlerException} unless all secrets are fetched within
+     * the timeout. Fetches still in progress at the deadline are interrupted.
+     * @param timeout the time allowed for fetching all secrets, 0 to wait indefinitely
+     * @param unit the unit of the timeout
+     * @return Flags this instance of Flags
+     */
+    public Flags setSecretFetchTimeout(final long timeout, final TimeUnit unit) {
+        this.secretFetchTimeoutNanos = unit.toNanos(timeout);
+        return this;
+    }
+
     /**
      * Try to set the arguments from main method on the fields loaded.
      *
+     * Arguments are tokenized once. Values are then gathered from the command line and the
+     * properties files, passed through the secret handlers in a single batch together with the
+     * non-option arguments, and finally converted and set on the flagged fields.
+     *
      * @param args - Arguments passed from main method
      * @return this
      */
-    public Flags parse(final String[] args) {
+    public synchronized Flags parse(final String[] args) {
         optionSet = optionParser.parse(args);
 
         //Store non option arguments
@@ -395,6 +643,8 @@ public final class Flags {
         if (nonOptionArguments == null) {
             nonOptionArguments = new ArrayList<String>();
         }
+        helpFlagged = optionSet.has(help);
+        versionFlagged = optionSet.has(version);
 
         //do not parse options if "help" is a part of the arguments given
         if (helpFlagged()) {
@@ -403,124 +653,52 @@ public final class Flags {
         if (versionFlagged()) {
             return this;
         }
-        final String[] allArgs;
-        if (propertiesFlagged()) {
-            final List<String> files = optionSet.valuesOf(propertiesFile);
-            final ArrayList<String> newArgs = new ArrayList<>();
-            for (final String filename : files) {
-                final Properties props = new Properties();
-                try {
-                    final FileInputStream stream = new FileInputStream(filename);
-                    props.load(stream);
-                    for (
-                        final Enumeration<?> keys = props.propertyNames();
-                        keys.hasMoreElements();) {
-                        final String flagName = (String) keys.nextElement();
-                        if (optionSet.hasArgument(flagName)) {
-                            //Properties contains something already set by commandline argument
-                            //Command line argument takes precedence over properties file
-                            continue;
-                        }
-                        newArgs.add("--" + flagName);
-                        final String value = props.getProperty(flagName);
-                        if (value != null && !value.isEmpty()) {
-                            newArgs.add(value);
-                        }
-                    }
 
-                    stream.close();
-                } catch (final IOException e) {
-                    throw new RuntimeException("Could not parse property-file", e);
-                }
-            }
-            Collections.addAll(newArgs, args);
-            allArgs = newArgs.toArray(new String[newArgs.size()]);
+        final Map<String, String> properties;
+        if (propertiesFlagged()) {
+            properties = readProperties(getPropertiesFiles());
+            helpFlagged = properties.containsKey(help.options().get(0));
+            versionFlagged = properties.containsKey(version.options().get(0));
         } else {
-            allArgs = args;
+            properties = Collections.emptyMap();
         }
 
-        final String[] allArgsWithSecrets = fetchSecrets(allArgs);
-        optionSet = optionParser.parse(allArgsWithSecrets);
-
+        // Gather the raw value of every flag given. Command line arguments take precedence over
+        // properties files.
+        final List<OptionHolder> given = new ArrayList<>(options.size());
+        final List<String> values = new ArrayList<>(options.size());
         for (final OptionHolder holder : options.values()) {
-            try {
-                final OptionSpec<?> optionSpec = holder.getOptionSpec();
-
-                // Deal with the flags that were given on the command line.
-                if (optionSet.has(optionSpec)) {
-                    Object value = optionSet.valueOf(optionSpec);
-                    switch(holder.getType()) {
-                        case INTEGER:
-                            if (holder.isInstanced()) {
-                                holder.getField().set(holder.getObjectSource(), value);
-                            } else {
-                                holder.getField().set(holder.getField().getClass(), value);
-                            }
-                            break;
-
-                        case LONG:
-                            if (holder.isInstanced()) {
-                                holder.getField().set(holder.getObjectSource(), value);
-                            } else {
-                                holder.getField().set(holder.getField().getClass(), value);
-                            }
-                            break;
-
-                        case STRING:
-                            if (holder.isInstanced()) {
-                                holder.getField().set(holder.getObjectSource(), value);
-                            } else {
-                                holder.getField().set(holder.getField().getClass(), value);
-                            }
-                            break;
-
-                        case BOOLEAN:
-                            if (holder.isInstanced()) {
-                                holder.getField().set(holder.getObjectSource(),
-                                        (value == null) ? true : value);
-                            } else {
-                                holder.getField().set(holder.getField().getClass(),
-                                        (value == null) ? true : value);
-                            }
-                            break;
-
-                        case ENUM:
-                            if (holder.isInstanced()) {
-                                try {
-                                    holder.getField().set(holder.getObjectSource(), value);
-                                } catch (final Exception e) {
-                                    throw new IllegalArgumentException(
-                                        "Option given is not a valid option. Valid options are: "
-                                        + enumOptions.get(holder.flag.options()).toString()+".");
-                                }
-                            } else {
-                                try {
-                                    holder.getField().set(holder.getField().getClass(), value);
-                                } catch (final Exception e) {
-                                    throw new IllegalArgumentException(
-                                        "Option given is not a valid option. Valid options are: "
-                                        + enumOptions.get(holder.flag.options()).toString()+".");
-                                }
-                            }
-                            break;
-                    default:
-                      break;
-                    }
-
-                    // No further action needed for this field.
-                    continue;
-                }
-
+            final OptionSpec<String> optionSpec = holder.getOptionSpec();
+            final String name = holder.getFlag().name();
+            if (optionSet.hasArgument(optionSpec)) {
+                given.add(holder);
+                values.add(optionSet.valueOf(optionSpec));
+            } else if (properties.containsKey(name)) {
+                given.add(holder);
+                values.add(properties.get(name));
+            } else if (optionSet.has(optionSpec)) {
+                given.add(holder);
+                values.add(null);
+            } else if (holder.getFlag().required()) {
                 // Check if flag that does not occur in command line was required.
-                if (holder.getFlag().required()) {
-                    throw new IllegalArgumentException(
-                        "Required argument missing: " + holder.getFlag().name());
-                }
-            } catch (final IllegalAccessException e) {
-                throw new RuntimeException(
-                    "Programming error, illegal access for " + holder.getField().toGenericString());
+                throw new IllegalArgumentException(
+                    "Required argument missing: " + holder.getFlag().name());
+            } else {
+                holder.setRawValue(null, false);
             }
         }
+
+        final List<String> arguments = new ArrayList<>(nonOptionArguments.size());
+        for (final Object argument : nonOptionArguments) {
+            arguments.add(String.valueOf(argument));
+        }
+        final Object[] converted = convertAll(given, resolveSecrets(given, values, arguments));
+        nonOptionArguments = arguments;
+        for (int i = 0; i < given.size(); i++) {
+            given.get(i).set(converted[i]);
+            given.get(i).setRawValue(values.get(i), true);
+        }
+
         try {
             callPostConstructMethods();
         } catch (final InvocationTargetException e) {
@@ -531,9 +709,321 @@ public final class Flags {
                     "Programming error, illegal access to a post construct method",
                     e);
         }
+        publishSnapshot();
+        return this;
+    }
+
+    /**
+     * Read the properties files given to the last {@link #parse(String[])} again, and set the
+     * flags whose values have changed since. Flags given on the command line keep their value,
+     * and so do flags removed from the files.
+     *
+     * All changed values are converted before any field is set, so an invalid file changes
+     * nothing. Secrets are only fetched for changed values. Registered
+     * {@link FlagChangeListener}s are notified once the fields are set. Fields set by a reload
+     * should be volatile for other threads to be guaranteed to see the new value.
+     *
+     * {@link SecretValue}s replaced stay open while a snapshot holding them can still be read,
+     * and are closed by a later parse or reload once the garbage collector has found all such
+     * snapshots unreachable. Listeners must copy what they need from the old value before
+     * returning.
+     *
+     * @return this
+     */
+    public synchronized Flags reload() {
+        if (optionSet == null) {
+            throw new IllegalStateException("Flags must be parsed before they can be reloaded.");
+        }
+        if (!propertiesFlagged()) {
+            return this;
+        }
+        final Map<String, String> properties = readProperties(getPropertiesFiles());
+
+        final List<OptionHolder> changed = new ArrayList<>();
+        final List<String> values = new ArrayList<>();
+        for (final OptionHolder holder : options.values()) {
+            final String name = holder.getFlag().name();
+            if (optionSet.hasArgument(holder.getOptionSpec()) || !properties.containsKey(name)) {
+                continue;
+            }
+            final String value = properties.get(name);
+            if (holder.isBound() && Objects.equals(value, holder.getRawValue())) {
+                continue;
+            }
+            changed.add(holder);
+            values.add(value);
+        }
+        if (changed.isEmpty()) {
+            return this;
+        }
+
+        final Object[] converted = convertAll(
+                changed, resolveSecrets(changed, values, new ArrayList<>()));
+        final Object[] previous = new Object[converted.length];
+        for (int i = 0; i < converted.length; i++) {
+            final OptionHolder holder = changed.get(i);
+            if (!holder.getAccessor().isVolatile()) {
+                LOG.warn("Reloading flag " + holder.getFlag().name() + " into non-volatile field "
+                        + holder.getAccessor().describe() + ". Other threads may not see it.");
+            }
+            previous[i] = holder.get();
+            holder.set(converted[i]);
+            holder.setRawValue(values.get(i), true);
+        }
+        publishSnapshot();
+        LOG.info("Reloaded " + changed.size() + " flags from properties files.");
+        for (final FlagChangeListener listener : changeListeners) {
+            for (int i = 0; i < converted.length; i++) {
+                listener.flagChanged(changed.get(i).getFlag(), previous[i], converted[i]);
+            }
+        }
         return this;
     }
 
+    /**
+     * Get the values of all flags as set by the latest parse or reload. The snapshot never
+     * changes, so it can be used to read related flags consistently while a reload sets them.
+     * @return the latest snapshot, empty before parsing
+     */
+    public FlagsSnapshot snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Copy the current flag values into a new snapshot and publish it. Called once all fields of
+     * a parse or reload are set.
+     */
+    private void publishSnapshot() {
+        final Map<String, Object> values = new HashMap<>();
+        final List<SecretValue> secrets = new ArrayList<>();
+        for (final OptionHolder holder : options.values()) {
+            final Object value = holder.get();
+            values.put(holder.getFlag().name(), value);
+            if (value instanceof SecretValue && secretHolders.containsKey(value)) {
+                secrets.add((SecretValue) value);
+            }
+        }
+        snapshot = new FlagsSnapshot(snapshot.generation() + 1, values);
+        for (final SecretValue secret : secrets) {
+            secretHolders.merge(secret, 1, Integer::sum);
+        }
+        if (!secrets.isEmpty()) {
+            snapshotSecrets.add(new SnapshotSecrets(snapshot, secrets, unreachableSnapshots));
+        }
+        closeUnreadableSecrets();
+    }
+
+    /**
+     * Close the {@link SecretValue}s converted by Flags which are neither held by a snapshot that
+     * can still be read, nor by the latest snapshot, wiping them from memory.
+     */
+    private void closeUnreadableSecrets() {
+        Reference<? extends FlagsSnapshot> unreachable;
+        while ((unreachable = unreachableSnapshots.poll()) != null) {
+            snapshotSecrets.remove(unreachable);
+            for (final SecretValue secret : ((SnapshotSecrets) unreachable).secrets) {
+                secretHolders.merge(secret, -1, Integer::sum);
+            }
+        }
+        final Iterator<Map.Entry<SecretValue, Integer>> holders
+                = secretHolders.entrySet().iterator();
+        while (holders.hasNext()) {
+            final Map.Entry<SecretValue, Integer> holder = holders.next();
+            if (holder.getValue() == 0) {
+                holder.getKey().close();
+                holders.remove();
+            }
+        }
+    }
+
+    /**
+     * The converted secrets a published snapshot holds, released once it is unreachable.
+     */
+    private static final class SnapshotSecrets extends PhantomReference<FlagsSnapshot> {
+        private final List<SecretValue> secrets;
+
+        SnapshotSecrets(
+                final FlagsSnapshot snapshot,
+                final List<SecretValue> secrets,
+                final ReferenceQueue<FlagsSnapshot> queue) {
+            super(snapshot, queue);
+            this.secrets = secrets;
+        }
+    }
+
+    /**
+     * Register a listener to be notified of flags changed by {@link #reload()}.
+     * @param listener the listener
+     * @return this
+     */
+    public Flags addChangeListener(final FlagChangeListener listener) {
+        changeListeners.add(listener);
+        return this;
+    }
+
+    /**
+     * @return the properties files given on the command line, empty if none or not yet parsed
+     */
+    public List<String> getPropertiesFiles() {
+        if (optionSet == null) {
+            return Collections.emptyList();
+        }
+        return optionSet.valuesOf(propertiesFile);
+    }
+
+    /**
+     * Read the flags given in properties files. Values in later files override earlier ones.
+     * "help" and "version" are kept for the caller to honour like on the command line.
+     *
+     * @param files the properties files to read
+     * @return raw flag values by flag name, null for keys without a value
+     */
+    private Map<String, String> readProperties(final List<String> files) {
+        final Map<String, String> values = new HashMap<>();
+        for (final String filename : files) {
+            final Properties props = new Properties();
+            try (FileInputStream stream = new FileInputStream(filename)) {
+                props.load(stream);
+            } catch (final IOException e) {
+                throw new RuntimeException("Could not parse property-file", e);
+            }
+            for (final String flagName : props.stringPropertyNames()) {
+                if (help.options().contains(flagName) || version.options().contains(flagName)) {
+                    values.put(flagName, null);
+                    continue;
+                } else if (propertiesFile.options().contains(flagName)) {
+                    // Properties files are only read from the command line.
+                    continue;
+                } else if (!options.containsKey(flagName)) {
+                    // Let the parser reject the flag with an OptionException, as it does when
+                    // the flag is given on the command line.
+                    optionParser.parse("--" + flagName);
+                    throw new IllegalArgumentException(
+                        "Properties file " + filename + " sets unknown flag " + flagName);
+                }
+                final String value = props.getProperty(flagName);
+                values.put(flagName, value.isEmpty() ? null : value);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Pass the gathered flag values through the secret handlers as one argument list on the
+     * form --name value, followed by the non-option arguments. Values whose secrets were
+     * prefetched are taken from the prefetch.
+     *
+     * @param given the flags given
+     * @param values the raw value for each given flag
+     * @param arguments the non-option arguments, replaced by their fetched values
+     * @return the values with secrets fetched, in the same order
+     */
+    private String[] resolveSecrets(
+            final List<OptionHolder> given,
+            final List<String> values,
+            final List<String> arguments) {
+        if (secretHandlers.length == 0) {
+            return values.toArray(new String[values.size()]);
+        }
+        final Map<String, String> prefetched = takePrefetchedSecrets();
+        final String[] resolved = new String[given.size()];
+        final List<Integer> pending = new ArrayList<>(given.size());
+        for (int i = 0; i < resolved.length; i++) {
+            if (values.get(i) == null) {
+                // Flags given without a value are kept out of the handlers' arguments.
+                continue;
+            }
+            final String secret = prefetched.get(values.get(i));
+            if (secret != null) {
+                resolved[i] = secret;
+            } else {
+                pending.add(i);
+            }
+        }
+        final List<Integer> pendingArguments = new ArrayList<>(arguments.size());
+        for (int i = 0; i < arguments.size(); i++) {
+            final String secret = prefetched.get(arguments.get(i));
+            if (secret != null) {
+                arguments.set(i, secret);
+            } else {
+                pendingArguments.add(i);
+            }
+        }
+        if (pending.isEmpty() && pendingArguments.isEmpty()) {
+            return resolved;
+        }
+        final int flagArgs = pending.size() * 2;
+        final String[] args = new String[flagArgs + pendingArguments.size()];
+        for (int i = 0; i < pending.size(); i++) {
+            args[2 * i] = "--" + given.get(pending.get(i)).getFlag().name();
+            args[2 * i + 1] = values.get(pending.get(i));
+        }
+        for (int i = 0; i < pendingArguments.size(); i++) {
+            args[flagArgs + i] = arguments.get(pendingArguments.get(i));
+        }
+        final String[] fetched = fetchSecrets(args);
+        if (fetched.length != args.length) {
+            throw new IllegalStateException(
+                "Secret handlers must return one argument for each argument given.");
+        }
+        for (int i = 0; i < pending.size(); i++) {
+            resolved[pending.get(i)] = fetched[2 * i + 1];
+        }
+        for (int i = 0; i < pendingArguments.size(); i++) {
+            arguments.set(pendingArguments.get(i), fetched[flagArgs + i]);
+        }
+        return resolved;
+    }
+
+    /**
+     * Convert raw values to the types of their flagged fields. Nothing is set, so a single
+     * invalid value leaves all fields untouched.
+     *
+     * @param holders the options to convert values for
+     * @param values the raw values, null where a flag was given without a value
+     * @return the converted values, in the same order
+     */
+    private Object[] convertAll(final List<OptionHolder> holders, final String[] values) {
+        final Object[] converted = new Object[values.length];
+        try {
+            for (int i = 0; i < values.length; i++) {
+                converted[i] = convert(holders.get(i), values[i]);
+            }
+        } catch (final RuntimeException e) {
+            for (final Object value : converted) {
+                if (value instanceof SecretValue) {
+                    ((SecretValue) value).close();
+                }
+            }
+            throw e;
+        }
+        for (final Object value : converted) {
+            if (value instanceof SecretValue) {
+                secretHolders.putIfAbsent((SecretValue) value, 0);
+            }
+        }
+        return converted;
+    }
+
+    private Object convert(final OptionHolder holder, final String value) {
+        if (holder.getType() == FieldType.BOOLEAN && value == null) {
+            return true;
+        }
+        try {
+            return convertValue(holder.getType(), holder.getFlag(), value);
+        } catch (final IllegalArgumentException e) {
+            if (holder.getType() == FieldType.ENUM) {
+                throw new IllegalArgumentException(
+                    "Option given is not a valid option. Valid options are: "
+                    + enumOptions.get(holder.flag.options()).toString()+".");
+            }
+            // The value may be a fetched secret, so it is left out of the message.
+            throw new IllegalArgumentException(
+                "Value given for " + holder.getFlag().name() + " is not of type "
+                + holder.getType());
+        }
+    }
+
     /**
      * Call all the methods annotated with the @PostConstruct annotation and have no parameters.
      * For the flagged objects all the instance methods are called (including private).
@@ -547,17 +1037,37 @@ public final class Flags {
     private void callPostConstructMethods()
         throws InvocationTargetException, IllegalAccessException {
         for (final Object o : objects) {
+            final FlagsBinder binder = binders.get(o.getClass());
+            if (binder != null) {
+                callBinderPostConstruct(binder, o);
+                continue;
+            }
             for (final Method method : findPostConstructMethod(o.getClass(), true)) {
                 method.invoke(o);
             }
         }
         for (final Class<?> cls : classes) {
+            final FlagsBinder binder = binders.get(cls);
+            if (binder != null) {
+                callBinderPostConstruct(binder, null);
+                continue;
+            }
             for (final Method method : findPostConstructMethod(cls, false)) {
                 method.invoke(false);
             }
         }
     }
 
+    private static void callBinderPostConstruct(final FlagsBinder binder, final Object target)
+        throws InvocationTargetException {
+        try {
+            binder.postConstruct(target);
+        } catch (final Exception e) {
+            // Same contract as Method.invoke.
+            throw new InvocationTargetException(e);
+        }
+    }
+
     private List<Method> findPostConstructMethod(final Class<?> type, final boolean instanced) {
         final List<Method> result = new ArrayList<>();
         for (final Method method : type.getDeclaredMethods()) {
@@ -639,15 +1149,8 @@ public final class Flags {
                 // Mark required flags with a "*"
                 buff.append(holder.getFlag().required() ? "* " : "  ");
 
-                String s;
-                try {
-                    s = "  --" + holder.getFlag().name() + " <" + holder.getType() + "> default: "
-                            + (holder.isInstanced()
-                                ? holder.getField().get(holder.getObjectSource())
-                                : holder.getField().get(holder.getClassSource()));
-                } catch (final IllegalAccessException e) {
-                    throw new RuntimeException(e);
-                }
+                String s = "  --" + holder.getFlag().name() + " <" + holder.getType()
+                        + "> default: " + holder.get();
 
                 //TODO: handle enum options
                 if (holder.getFlag().options() != NoOption.class) {
@@ -679,17 +1182,19 @@ public final class Flags {
     }
 
     /**
-     * @return {@code true} if a "--help" flag was passed on the command line
+     * @return {@code true} if a "--help" flag was passed on the command line or in a properties
+     * file
      */
     public boolean helpFlagged() {
-        return optionSet.has(help);
+        return helpFlagged;
     }
 
     /**
-     * @return {@code true} if a "--version" flag was passed on the command line
+     * @return {@code true} if a "--version" flag was passed on the command line or in a
+     * properties file
      */
     public boolean versionFlagged() {
-        return optionSet.has(version);
+        return versionFlagged;
     }
 
     /**
@@ -704,48 +1209,46 @@ public final class Flags {
      * Debugging method. Prints the Flags found and the corresponding Fields.
      */
     public void printFlags() {
-        try {
-            for (final OptionHolder holder : options.values()) {
-                System.out.println("Field: " + holder.getField().toGenericString()
-                        + "\nFlag: name:" + holder.getFlag().name()
-                        +", description:"+holder.getFlag().description()+", type:"+holder.getType()
-                        +", default:"+(holder.isInstanced()
-                            ? holder.getField().get(holder.getObjectSource())
-                            : holder.getField().get(holder.getClassSource())));
-            }
-        } catch (final IllegalAccessException e) {
-            throw new RuntimeException(e);
+        for (final OptionHolder holder : options.values()) {
+            System.out.println("Field: " + holder.getAccessor().describe()
+                    + "\nFlag: name:" + holder.getFlag().name()
+                    +", description:"+holder.getFlag().description()+", type:"+holder.getType()
+                    +", default:"+holder.get());
         }
     }
 
     /**
-     * Get the field type of a Field instance.
+     * Get the field type of a declared field type.
      *
-     * @param field the field instance we want the type for
-     * @return the type of the {@code field} in question
+     * @param fieldType the declared type of the field we want the type for
+     * @return the type of the field in question
      */
-    private static FieldType fieldTypeOf(final Field field, final Flag flag) {
-        if (field.getType().isAssignableFrom(Long.TYPE)
-                || field.getType().isAssignableFrom(Long.class)) {
+    private static FieldType fieldTypeOf(final Class<?> fieldType, final Flag flag) {
+        if (fieldType.isAssignableFrom(Long.TYPE)
+                || fieldType.isAssignableFrom(Long.class)) {
             return FieldType.LONG;
         }
 
-        if (field.getType().isAssignableFrom(Boolean.TYPE)
-                || field.getType().isAssignableFrom(Boolean.class)) {
+        if (fieldType.isAssignableFrom(Boolean.TYPE)
+                || fieldType.isAssignableFrom(Boolean.class)) {
             return FieldType.BOOLEAN;
         }
 
-        if (field.getType().isAssignableFrom(String.class)) {
+        if (fieldType.isAssignableFrom(String.class)) {
             return FieldType.STRING;
         }
 
-        if (field.getType().isAssignableFrom(Integer.TYPE)
-                || field.getType().isAssignableFrom(Integer.class)) {
+        if (fieldType.isAssignableFrom(SecretValue.class)) {
+            return FieldType.SECRET;
+        }
+
+        if (fieldType.isAssignableFrom(Integer.TYPE)
+                || fieldType.isAssignableFrom(Integer.class)) {
             return FieldType.INTEGER;
         }
 
         if (flag.options() != NoOption.class
-                && field.getType().isAssignableFrom(flag.options())) {
+                && fieldType.isAssignableFrom(flag.options())) {
             return FieldType.ENUM;
         }
 
@@ -765,28 +1268,240 @@ public final class Flags {
     }
 
     /**
-     * Internal class that holds an option's corresponding FieldType, Field, Flag and OptionSpec.
+     * Convert a raw value to the type of a flagged field.
+     *
+     * @param type the field type
+     * @param flag the flag definition, giving the enum class for ENUM fields
+     * @param value the raw value, or null
+     * @return the converted value, or null if value is null
+     * @throws IllegalArgumentException if the value can not be converted
+     */
+    private static Object convertValue(final FieldType type, final Flag flag, final String value) {
+        if (value == null) {
+            return null;
+        }
+        switch (type) {
+            case INTEGER:
+                return Integer.valueOf(value);
+            case LONG:
+                return Long.valueOf(value);
+            case BOOLEAN:
+                return Boolean.valueOf(value);
+            case SECRET:
+                return SecretValue.of(value);
+            case ENUM:
+                for (final Enum<?> constant : flag.options().getEnumConstants()) {
+                    if (constant.name().equals(value)) {
+                        return constant;
+                    }
+                }
+                throw new IllegalArgumentException(
+                    value + " is not one of " + Arrays.toString(flag.options().getEnumConstants()));
+            case STRING:
+            default:
+                return value;
+        }
+    }
+
+    /**
+     * Keeps option arguments as strings, while rejecting arguments which could not be converted
+     * to the type of the flagged field. Secret references are accepted as is when secret
+     * handlers are installed, since they are only resolved after parsing.
+     */
+    private static final class RawValueConverter implements ValueConverter<String> {
+        private final FieldType type;
+        private final Flag flag;
+        private final boolean acceptSecrets;
+
+        RawValueConverter(
+                final FieldType type,
+                final Class<? extends Enum<?>> options,
+                final boolean acceptSecrets) {
+            this.type = type;
+            this.flag = new FlagSpec("", "", false, options);
+            this.acceptSecrets = acceptSecrets;
+        }
+
+        @Override
+        public String convert(final String value) {
+            if (type == FieldType.SECRET
+                    || acceptSecrets && SecretReference.find(value).isPresent()) {
+                return value;
+            }
+            try {
+                convertValue(type, flag, value);
+            } catch (final IllegalArgumentException e) {
+                throw new ValueConversionException(e.getMessage(), e);
+            }
+            return value;
+        }
+
+        @Override
+        public Class<? extends String> valueType() {
+            return String.class;
+        }
+
+        @Override
+        public String valuePattern() {
+            return null;
+        }
+    }
+
+    /**
+     * Reads and writes the value of a single flagged field.
+     */
+    private interface Accessor {
+        Object get();
+        void set(Object value);
+        String describe();
+        boolean isVolatile();
+    }
+
+    /**
+     * Accessor backed by reflection.
+     */
+    private static final class FieldAccessor implements Accessor {
+        private final Field field;
+        private final Object target;
+
+        FieldAccessor(final Field field, final Object target) {
+            this.field = field;
+            this.target = target;
+        }
+
+        private Field getField() {
+            // To support private variables we simply make the field accessible.
+            if (!field.isAccessible()) {
+                field.setAccessible(true);
+            }
+            return field;
+        }
+
+        @Override
+        public Object get() {
+            try {
+                return getField().get(target);
+            } catch (final IllegalAccessException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void set(final Object value) {
+            try {
+                getField().set(target, value);
+            } catch (final IllegalAccessException e) {
+                throw new RuntimeException(
+                    "Programming error, illegal access for " + describe());
+            }
+        }
+
+        @Override
+        public String describe() {
+            return field.toGenericString();
+        }
+
+        @Override
+        public boolean isVolatile() {
+            return Modifier.isVolatile(field.getModifiers());
+        }
+    }
+
+    /**
+     * Accessor backed by a generated {@link FlagsBinder}.
+     */
+    private static final class BinderAccessor implements Accessor {
+        private final FlagsBinder binder;
+        private final int index;
+        private final Object target;
+
+        BinderAccessor(final FlagsBinder binder, final int index, final Object target) {
+            this.binder = binder;
+            this.index = index;
+            this.target = target;
+        }
+
+        @Override
+        public Object get() {
+            return binder.get(target, index);
+        }
+
+        @Override
+        public void set(final Object value) {
+            binder.set(target, index, value);
+        }
+
+        @Override
+        public String describe() {
+            return binder.fieldNameOf(index);
+        }
+
+        @Override
+        public boolean isVolatile() {
+            return binder.isVolatile(index);
+        }
+    }
+
+    /**
+     * Accessor for the value of a {@link FlagHandle}.
+     */
+    private static final class HandleAccessor implements Accessor {
+        private final FlagHandle<Object> handle;
+        private final Accessor field;
+
+        @SuppressWarnings("unchecked")
+        HandleAccessor(final FlagHandle<?> handle, final Accessor field) {
+            this.handle = (FlagHandle<Object>) handle;
+            this.field = field;
+        }
+
+        @Override
+        public Object get() {
+            return handle.get();
+        }
+
+        @Override
+        public void set(final Object value) {
+            handle.set(value);
+        }
+
+        @Override
+        public String describe() {
+            return field.describe();
+        }
+
+        @Override
+        public boolean isVolatile() {
+            return true;
+        }
+    }
+
+    /**
+     * Internal class that holds an option's corresponding FieldType, Accessor, Flag and OptionSpec.
      *
      * @author acidmoose
      *
      */
     private static class OptionHolder {
         private final Flag flag;
-        private final Field field;
-        private final OptionSpec<?> optionSpec;
+        private final Accessor accessor;
+        private final OptionSpec<String> optionSpec;
         private final FieldType type;
         private final Class<?> classSource;
         private final Object objectSource;
+        // The value last set, before secrets were fetched. Used to detect changes on reload.
+        private String rawValue;
+        private boolean bound;
 
         OptionHolder(
                 final FieldType type,
                 final Flag flag,
-                final Field field,
-                final OptionSpec<?> optionSpec,
+                final Accessor accessor,
+                final OptionSpec<String> optionSpec,
                 final Class<?> classSource) {
             this.type = type;
             this.flag = flag;
-            this.field = field;
+            this.accessor = accessor;
             this.optionSpec = optionSpec;
             this.classSource = classSource;
             objectSource = null;
@@ -795,12 +1510,12 @@ public final class Flags {
         OptionHolder(
                 final FieldType type,
                 final Flag flag,
-                final Field field,
-                final OptionSpec<?> optionSpec,
+                final Accessor accessor,
+                final OptionSpec<String> optionSpec,
                 final Object objectSource) {
             this.type = type;
             this.flag = flag;
-            this.field = field;
+            this.accessor = accessor;
             this.optionSpec = optionSpec;
             this.objectSource = objectSource;
             classSource = null;
@@ -814,15 +1529,32 @@ public final class Flags {
             return flag;
         }
 
-        public Field getField() {
-            // To support private variables we simply make the field accessible.
-            if (!field.isAccessible()) {
-                field.setAccessible(true);
-            }
-            return field;
+        public Accessor getAccessor() {
+            return accessor;
+        }
+
+        public Object get() {
+            return accessor.get();
+        }
+
+        public void set(final Object value) {
+            accessor.set(value);
+        }
+
+        public String getRawValue() {
+            return rawValue;
+        }
+
+        public boolean isBound() {
+            return bound;
+        }
+
+        public void setRawValue(final String rawValue, final boolean bound) {
+            this.rawValue = rawValue;
+            this.bound = bound;
         }
 
-        public OptionSpec<?> getOptionSpec() {
+        public OptionSpec<String> getOptionSpec() {
             return optionSpec;
         }
 
@@ -0,0 +1,73 @@
+package com.github.secondbase.flags;
+
+/**
+ * Accessor for the Flag annotated fields of a single class, generated at compile time by the
+ * flags-processor module. When a binder exists for a loaded class, {@link Flags} uses it instead
+ * of reflecting over declared fields and methods.
+ *
+ * A binder for the class com.example.Outer.Inner is named com.example.Outer$Inner_FlagsBinder,
+ * its binary name followed by {@link #SUFFIX}.
+ *
+ * Fields are addressed by their index in {@link #flags()}. The target is the flagged instance, or
+ * null for static fields and methods.
+ */
+public interface FlagsBinder {
+
+    /**
+     * Suffix appended to the binary class name to get the binder class name.
+     */
+    String SUFFIX = "_FlagsBinder";
+
+    /**
+     * @return the Flag definitions of the class, in declaration order
+     */
+    Flag[] flags();
+
+    /**
+     * @param index of the flag
+     * @return the declared type of the field backing the flag
+     */
+    Class<?> typeOf(int index);
+
+    /**
+     * @param index of the flag
+     * @return the name of the field backing the flag, used in error messages
+     */
+    String fieldNameOf(int index);
+
+    /**
+     * @param index of the flag
+     * @return {@code true} if the field backing the flag is static
+     */
+    boolean isStatic(int index);
+
+    /**
+     * @param index of the flag
+     * @return {@code true} if the field backing the flag is volatile
+     */
+    boolean isVolatile(int index);
+
+    /**
+     * Read the current value of a flagged field.
+     * @param target the flagged instance, or null for static fields
+     * @param index of the flag
+     * @return the value of the field
+     */
+    Object get(Object target, int index);
+
+    /**
+     * Write a value to a flagged field.
+     * @param target the flagged instance, or null for static fields
+     * @param index of the flag
+     * @param value the value to set
+     */
+    void set(Object target, int index, Object value);
+
+    /**
+     * Call the PostConstruct annotated methods declared by the class. Static methods are called
+     * when target is null, instance methods otherwise.
+     * @param target the flagged instance, or null
+     * @throws Exception whatever the post construct methods throw
+     */
+    void postConstruct(Object target) throws Exception;
+}
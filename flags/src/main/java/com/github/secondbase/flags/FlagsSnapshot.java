@@ -0,0 +1,115 @@
+package com.github.secondbase.flags;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable view of all flag values at the end of one {@link Flags#parse(String[])} or
+ * {@link Flags#reload()}. Flags publishes a new snapshot once all fields of a parse or reload
+ * are set, so values read from one snapshot always belong together, for example a host and a
+ * port changed by the same reload.
+ *
+ * Getting the current snapshot is a single volatile read, so a snapshot can be pinned for the
+ * duration of each request:
+ *
+ * final FlagsSnapshot snapshot = flags.snapshot();
+ * connect(snapshot.getString("host"), snapshot.getInt("port"));
+ *
+ * {@link com.github.secondbase.secrets.SecretValue}s set by Flags are not closed while a
+ * snapshot holding them can still be read, even once a reload has replaced them.
+ *
+ * @author acidmoose
+ *
+ */
+public final class FlagsSnapshot {
+    static final FlagsSnapshot EMPTY = new FlagsSnapshot(0, Collections.emptyMap());
+
+    private final long generation;
+    private final Map<String, Object> values;
+
+    /**
+     * @param generation number of the parse or reload the values come from
+     * @param values flag values by flag name, not copied and never modified after this
+     */
+    FlagsSnapshot(final long generation, final Map<String, Object> values) {
+        this.generation = generation;
+        this.values = values;
+    }
+
+    /**
+     * @return the number of the parse or reload the snapshot was taken after, counting from 1
+     */
+    public long generation() {
+        return generation;
+    }
+
+    /**
+     * @return the names of all flags in the snapshot
+     */
+    public Set<String> names() {
+        return Collections.unmodifiableSet(values.keySet());
+    }
+
+    /**
+     * @param name of the flag
+     * @return the value of the flag, may be null
+     * @throws IllegalArgumentException if there is no flag with the name
+     */
+    public Object get(final String name) {
+        final Object value = values.get(name);
+        if (value == null && !values.containsKey(name)) {
+            throw new IllegalArgumentException("No flag named " + name);
+        }
+        return value;
+    }
+
+    /**
+     * @param name of the flag
+     * @param type the type of the flag
+     * @param <T> the type of the flag
+     * @return the value of the flag, may be null
+     * @throws IllegalArgumentException if there is no flag with the name
+     * @throws ClassCastException if the flag is not of the type
+     */
+    public <T> T get(final String name, final Class<T> type) {
+        return type.cast(get(name));
+    }
+
+    /**
+     * @param name of a String flag
+     * @return the value of the flag, may be null
+     */
+    public String getString(final String name) {
+        return get(name, String.class);
+    }
+
+    /**
+     * @param name of an int or Integer flag
+     * @return the value of the flag
+     */
+    public int getInt(final String name) {
+        return get(name, Integer.class);
+    }
+
+    /**
+     * @param name of a long or Long flag
+     * @return the value of the flag
+     */
+    public long getLong(final String name) {
+        return get(name, Long.class);
+    }
+
+    /**
+     * @param name of a boolean or Boolean flag
+     * @return the value of the flag
+     */
+    public boolean getBoolean(final String name) {
+        return get(name, Boolean.class);
+    }
+
+    @Override
+    public String toString() {
+        return "FlagsSnapshot(generation=" + generation + ", flags=" + values.size() + ")";
+    }
+}
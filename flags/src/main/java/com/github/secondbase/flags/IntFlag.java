@@ -0,0 +1,37 @@
+package com.github.secondbase.flags;
+
+/**
+ * {@link FlagHandle} holding an int, read without boxing through {@link #getInt()}.
+ *
+ * @author acidmoose
+ *
+ */
+public final class IntFlag extends FlagHandle<Integer> {
+    private volatile int value;
+
+    /**
+     * Create a handle holding a default value.
+     * @param defaultValue the value until the flag is given
+     */
+    public IntFlag(final int defaultValue) {
+        super(Integer.class);
+        this.value = defaultValue;
+    }
+
+    /**
+     * @return the current value
+     */
+    public int getInt() {
+        return value;
+    }
+
+    @Override
+    public Integer get() {
+        return value;
+    }
+
+    @Override
+    void set(final Integer value) {
+        this.value = requirePrimitive(value);
+    }
+}
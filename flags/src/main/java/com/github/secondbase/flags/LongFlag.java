@@ -0,0 +1,37 @@
+package com.github.secondbase.flags;
+
+/**
+ * {@link FlagHandle} holding a long, read without boxing through {@link #getLong()}.
+ *
+ * @author acidmoose
+ *
+ */
+public final class LongFlag extends FlagHandle<Long> {
+    private volatile long value;
+
+    /**
+     * Create a handle holding a default value.
+     * @param defaultValue the value until the flag is given
+     */
+    public LongFlag(final long defaultValue) {
+        super(Long.class);
+        this.value = defaultValue;
+    }
+
+    /**
+     * @return the current value
+     */
+    public long getLong() {
+        return value;
+    }
+
+    @Override
+    public Long get() {
+        return value;
+    }
+
+    @Override
+    void set(final Long value) {
+        this.value = requirePrimitive(value);
+    }
+}
@@ -0,0 +1,125 @@
+package com.github.secondbase.flags;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches the properties files given to {@link Flags} and calls {@link Flags#reload()} when
+ * they change.
+ *
+ * Events are gathered until the directories have been quiet for a short while, so a file written
+ * in several steps is reloaded once. Files replaced by swapping a "..data" symlink, as done for
+ * mounted Kubernetes ConfigMaps and Secrets, are picked up as well. A failed reload is logged
+ * and the current flag values are kept.
+ *
+ * @author acidmoose
+ *
+ */
+public final class PropertiesFileWatcher implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(PropertiesFileWatcher.class);
+    private static final long SETTLE_MILLIS = 100;
+
+    private final Flags flags;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    private final Set<Path> files = new HashSet<>();
+    private final Thread thread;
+
+    /**
+     * Register watches for the properties files of parsed flags. Call {@link #start()} to start
+     * reloading.
+     * @param flags parsed flags
+     * @throws IOException if the directories of the properties files can not be watched
+     */
+    public PropertiesFileWatcher(final Flags flags) throws IOException {
+        this.flags = flags;
+        watchService = FileSystems.getDefault().newWatchService();
+        for (final String file : flags.getPropertiesFiles()) {
+            final Path path = Paths.get(file).toAbsolutePath().normalize();
+            files.add(path);
+            if (!directories.containsValue(path.getParent())) {
+                directories.put(
+                        path.getParent().register(watchService, ENTRY_CREATE, ENTRY_MODIFY),
+                        path.getParent());
+            }
+        }
+        thread = new Thread(this::watch, "properties-file-watcher");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Start watching on a daemon thread.
+     * @return this
+     */
+    public PropertiesFileWatcher start() {
+        thread.start();
+        return this;
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                boolean changed = isChanged(watchService.take());
+                WatchKey key;
+                while ((key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    changed |= isChanged(key);
+                }
+                if (changed) {
+                    reload();
+                }
+            }
+        } catch (final InterruptedException | ClosedWatchServiceException e) {
+            LOG.debug("Stopped watching properties files.");
+        }
+    }
+
+    private boolean isChanged(final WatchKey key) {
+        final Path directory = directories.get(key);
+        boolean changed = false;
+        for (final WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                changed = true;
+                continue;
+            }
+            final Path name = (Path) event.context();
+            changed |= name.toString().startsWith("..") || files.contains(directory.resolve(name));
+        }
+        key.reset();
+        return changed;
+    }
+
+    private void reload() {
+        try {
+            flags.reload();
+        } catch (final RuntimeException e) {
+            LOG.error("Could not reload properties files, keeping current flag values.", e);
+        }
+    }
+
+    /**
+     * Stop watching. A reload in progress is allowed to finish.
+     * @throws IOException if the watch service could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+}
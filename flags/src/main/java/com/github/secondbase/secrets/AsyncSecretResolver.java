@@ -0,0 +1,35 @@
+package com.github.secondbase.secrets;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Fetches single secrets without blocking the caller, so fetches from several resolvers, or
+ * fetches and other start up work, can overlap. Registered by scheme in a
+ * {@link SecretHandlerRegistry} like a {@link SecretResolver}.
+ *
+ * The registry closes every {@link SecretValue} returned, but it substitutes secrets into
+ * argument Strings, so each secret is still copied onto the heap once. Only code reading the
+ * SecretValue itself keeps the secret off the heap entirely.
+ */
+@FunctionalInterface
+public interface AsyncSecretResolver {
+    /**
+     * Start fetching a secret.
+     * @param reference the reference to the secret
+     * @return the secret once fetched, owned by the caller, or a future completed exceptionally
+     * with a SecretHandlerException when the secret could not be understood or fetched
+     */
+    CompletableFuture<SecretValue> resolveAsync(SecretReference reference);
+
+    /**
+     * Adapt a blocking resolver by fetching each secret on an executor.
+     * @param resolver the resolver to fetch secrets with
+     * @param executor runs the fetches
+     * @return a resolver fetching on the executor
+     */
+    static AsyncSecretResolver of(final SecretResolver resolver, final Executor executor) {
+        return reference -> CompletableFuture.supplyAsync(
+                () -> SecretValue.of(resolver.resolve(reference)), executor);
+    }
+}
@@ -0,0 +1,244 @@
+package com.github.secondbase.secrets;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches the secrets fetched by another resolver.
+ *
+ * Every entry expires after its own time to live. Concurrent requests for the same reference
+ * while it is being fetched share one fetch. Once an entry has lived past the refresh ratio of
+ * its time to live, the next request returns the cached secret at once and starts fetching a new
+ * one in the background, so rotated secrets are picked up without blocking callers. A failed
+ * refresh keeps the cached secret until it expires. Failed fetches are not cached. Hits, misses
+ * and refreshes are reported to the installed {@link SecretFetchObserver}.
+ *
+ * new SecretHandlerRegistry()
+ *     .register(S3SecretHandler.SCHEME,
+ *         new CachingSecretResolver(new S3SecretHandler(), Duration.ofMinutes(10)));
+ */
+public final class CachingSecretResolver implements SecretResolver {
+    private static final Logger LOG = LoggerFactory.getLogger(CachingSecretResolver.class);
+    private static final double DEFAULT_REFRESH_RATIO = 0.8;
+
+    private final SecretResolver delegate;
+    private final Function<SecretReference, Duration> timeToLive;
+    private final double refreshRatio;
+    private final Executor refreshExecutor;
+    private final LongSupplier nanoClock;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Cache all secrets for the same time.
+     * @param delegate the resolver to fetch secrets with
+     * @param timeToLive how long a fetched secret may be used
+     */
+    public CachingSecretResolver(final SecretResolver delegate, final Duration timeToLive) {
+        this(delegate, reference -> timeToLive);
+    }
+
+    /**
+     * Cache each secret for a time depending on its reference.
+     * @param delegate the resolver to fetch secrets with
+     * @param timeToLive how long the secret of a reference may be used
+     */
+    public CachingSecretResolver(
+            final SecretResolver delegate,
+            final Function<SecretReference, Duration> timeToLive) {
+        this(delegate, timeToLive, DEFAULT_REFRESH_RATIO, newRefreshExecutor(), System::nanoTime);
+    }
+
+    CachingSecretResolver(
+            final SecretResolver delegate,
+            final Function<SecretReference, Duration> timeToLive,
+            final double refreshRatio,
+            final Executor refreshExecutor,
+            final LongSupplier nanoClock) {
+        this.delegate = delegate;
+        this.timeToLive = timeToLive;
+        this.refreshRatio = refreshRatio;
+        this.refreshExecutor = refreshExecutor;
+        this.nanoClock = nanoClock;
+    }
+
+    private static ExecutorService newRefreshExecutor() {
+        return Executors.newCachedThreadPool(r -> {
+            final Thread thread = new Thread(r, "secret-cache-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public String resolve(final SecretReference reference) {
+        return resolveAll(Collections.singletonList(reference)).get(0);
+    }
+
+    /**
+     * Return the cached secrets, and fetch the others with one call to the delegate.
+     */
+    @Override
+    public List<String> resolveAll(final List<SecretReference> references) {
+        final long now = nanoClock.getAsLong();
+        final List<CompletableFuture<String>> secrets = new ArrayList<>(references.size());
+        final List<SecretReference> missing = new ArrayList<>();
+        final List<Entry> fetching = new ArrayList<>();
+        for (final SecretReference reference : references) {
+            final String key = reference.toString();
+            final Entry cached = entries.get(key);
+            if (cached != null && cached.isUsable(now)) {
+                SecretFetchObserver.installed().cacheHit(reference.scheme());
+                if (cached.shouldRefresh(now)) {
+                    refresh(key, reference, cached);
+                }
+                secrets.add(cached.secret);
+                continue;
+            }
+            final Entry created = new Entry(key);
+            final Entry current = entries.compute(key, (k, existing) ->
+                    existing != null && existing.isUsable(now) ? existing : created);
+            if (current == created) {
+                SecretFetchObserver.installed().cacheMiss(reference.scheme());
+                missing.add(reference);
+                fetching.add(created);
+            }
+            secrets.add(current.secret);
+        }
+        if (!missing.isEmpty()) {
+            fetch(missing, fetching);
+        }
+
+        final List<String> ret = new ArrayList<>(secrets.size());
+        for (final CompletableFuture<String> secret : secrets) {
+            ret.add(await(secret));
+        }
+        return ret;
+    }
+
+    /**
+     * Remove all cached secrets, so they are fetched again when next requested.
+     */
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    /**
+     * Fetch the secrets of the given entries. If the delegate fails in any way, every entry not
+     * yet completed is failed and removed, so no caller waits for it forever.
+     */
+    private void fetch(final List<SecretReference> references, final List<Entry> fetching) {
+        try {
+            final List<String> secrets = delegate.resolveAll(references);
+            if (secrets.size() != references.size()) {
+                throw new SecretHandlerException("Resolver returned " + secrets.size()
+                        + " secrets for " + references.size() + " references");
+            }
+            for (int i = 0; i < fetching.size(); i++) {
+                fetching.get(i).complete(secrets.get(i), expiryOf(references.get(i)));
+            }
+        } catch (final Throwable e) {
+            for (final Entry entry : fetching) {
+                if (!entry.secret.isDone()) {
+                    entries.remove(entry.key, entry);
+                    entry.secret.completeExceptionally(e);
+                }
+            }
+            throw e;
+        }
+    }
+
+    private void refresh(final String key, final SecretReference reference, final Entry cached) {
+        if (!cached.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        CompletableFuture.runAsync(() -> {
+            try {
+                final Entry refreshed = new Entry(key);
+                refreshed.complete(delegate.resolve(reference), expiryOf(reference));
+                entries.replace(key, cached, refreshed);
+                SecretFetchObserver.installed().refreshed(
+                        reference.scheme(), nanoClock.getAsLong() - cached.expiry.refreshAt);
+            } catch (final RuntimeException e) {
+                LOG.warn("Could not refresh secret " + reference + ", using cached secret", e);
+                cached.refreshing.set(false);
+            }
+        }, refreshExecutor);
+    }
+
+    private Expiry expiryOf(final SecretReference reference) {
+        final long fetched = nanoClock.getAsLong();
+        final long ttl = timeToLive.apply(reference).toNanos();
+        return new Expiry(fetched + (long) (ttl * refreshRatio), fetched + ttl);
+    }
+
+    private static String await(final CompletableFuture<String> secret) {
+        try {
+            return secret.join();
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * When a cached secret should be refreshed and when it may no longer be used.
+     */
+    private static final class Expiry {
+        private final long refreshAt;
+        private final long expiresAt;
+
+        Expiry(final long refreshAt, final long expiresAt) {
+            this.refreshAt = refreshAt;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * A secret being fetched, or fetched with its expiry.
+     */
+    private static final class Entry {
+        private final String key;
+        private final CompletableFuture<String> secret = new CompletableFuture<>();
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+        private volatile Expiry expiry;
+
+        Entry(final String key) {
+            this.key = key;
+        }
+
+        void complete(final String value, final Expiry valueExpiry) {
+            expiry = valueExpiry;
+            secret.complete(value);
+        }
+
+        boolean isUsable(final long now) {
+            final Expiry current = expiry;
+            // Still being fetched, or fetched and not expired.
+            return current == null ? !secret.isDone() : now - current.expiresAt < 0;
+        }
+
+        boolean shouldRefresh(final long now) {
+            final Expiry current = expiry;
+            return current != null && now - current.refreshAt >= 0;
+        }
+    }
+}
@@ -0,0 +1,492 @@
+package com.github.secondbase.secrets;
+
+import java.nio.charset.CharacterCodingException;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Guards the fetches of another resolver against slow and failing secret stores.
+ *
+ * Each attempt is given a time limit. Attempts failing in a way worth retrying, see
+ * {@link #setRetryOn(Predicate)}, are retried after an exponential backoff with full jitter.
+ * With hedging enabled, an attempt still running after the 95th percentile of recent fetch
+ * times is raced by a second, identical attempt, and the first to succeed is used.
+ * After a number of consecutive fetches failing that way the circuit opens: for a while the
+ * delegate is not called at all, and the secrets last fetched are returned instead. A single
+ * trial fetch is let through once the circuit has been open for long enough. Other failures,
+ * such as an invalid reference or a missing secret, are thrown at once and do not count.
+ *
+ * Cancelling an attempt does not stop store clients which ignore interrupts, so attempts run on
+ * a bounded pool, and further attempts wait for a thread. The time limit of an attempt starts
+ * when it starts running; an attempt which finds no free thread within the limit fails without
+ * counting toward the circuit. No hedge is started while an abandoned attempt is still running.
+ *
+ * new SecretHandlerRegistry()
+ *     .register(S3SecretHandler.SCHEME, new ResilientSecretResolver(new S3SecretHandler())
+ *         .setAttemptTimeout(2, TimeUnit.SECONDS)
+ *         .setHedgeDelay(200, TimeUnit.MILLISECONDS));
+ */
+public final class ResilientSecretResolver implements SecretResolver {
+    private static final Logger LOG = LoggerFactory.getLogger(ResilientSecretResolver.class);
+    private static final int LATENCY_SAMPLES = 128;
+    private static final int MIN_LATENCY_SAMPLES = 20;
+    private static final int DEFAULT_MAX_CONCURRENT_ATTEMPTS = 8;
+
+    private enum Circuit {CLOSED, OPEN, HALF_OPEN}
+
+    private final SecretResolver delegate;
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            DEFAULT_MAX_CONCURRENT_ATTEMPTS, DEFAULT_MAX_CONCURRENT_ATTEMPTS,
+            60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+            r -> {
+                final Thread thread = new Thread(r, "secret-fetch-attempt");
+                thread.setDaemon(true);
+                return thread;
+            });
+    // Attempts given up on which are still running.
+    private final AtomicInteger abandonedAttempts = new AtomicInteger();
+    // The secrets last fetched, by reference, served while the circuit is open.
+    private final ConcurrentMap<String, String> lastFetched = new ConcurrentHashMap<>();
+
+    private volatile long attemptTimeoutNanos = TimeUnit.SECONDS.toNanos(5);
+    private volatile int maxAttempts = 3;
+    private volatile long initialBackoffNanos = TimeUnit.MILLISECONDS.toNanos(100);
+    private volatile long maxBackoffNanos = TimeUnit.SECONDS.toNanos(2);
+    private volatile long hedgeDelayNanos;
+    private volatile int failureThreshold = 5;
+    private volatile long openNanos = TimeUnit.SECONDS.toNanos(30);
+    private volatile Predicate<? super RuntimeException> retryOn
+            = ResilientSecretResolver::isTransient;
+
+    // Durations of recent successful attempts, in a ring. Guarded by this.
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private int latencyCount;
+    // Circuit breaker state. Guarded by this.
+    private Circuit circuit = Circuit.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+
+    /**
+     * Guard a resolver with the default policy: 3 attempts of at most 5 seconds, backing off
+     * from 100 ms up to 2 seconds, no hedging, and a circuit opening for 30 seconds after 5
+     * consecutive failed fetches.
+     * @param delegate the resolver to fetch secrets with
+     */
+    public ResilientSecretResolver(final SecretResolver delegate) {
+        this.delegate = delegate;
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @param timeout the time allowed for each attempt, including its hedge
+     * @param unit the unit of the timeout
+     * @return this
+     */
+    public ResilientSecretResolver setAttemptTimeout(final long timeout, final TimeUnit unit) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("Attempt timeout must be positive: " + timeout);
+        }
+        this.attemptTimeoutNanos = unit.toNanos(timeout);
+        return this;
+    }
+
+    /**
+     * @param attempts the number of attempts per fetch, 1 to not retry
+     * @param initialBackoff the longest wait before the first retry, doubled for each retry
+     * @param maxBackoff the longest wait before any retry
+     * @param unit the unit of the backoffs
+     * @return this
+     */
+    public ResilientSecretResolver setRetries(
+            final int attempts,
+            final long initialBackoff,
+            final long maxBackoff,
+            final TimeUnit unit) {
+        if (attempts < 1) {
+            throw new IllegalArgumentException("At least one attempt is needed: " + attempts);
+        }
+        this.maxAttempts = attempts;
+        this.initialBackoffNanos = unit.toNanos(initialBackoff);
+        this.maxBackoffNanos = unit.toNanos(maxBackoff);
+        return this;
+    }
+
+    /**
+     * Race attempts which are slower than usual with a second attempt. Until enough fetches
+     * have been timed the given delay is used, and after that the 95th percentile of recent
+     * fetch times, but never less than the given delay. Only enable hedging for stores where
+     * reading a secret twice is harmless, which is not the case for dynamic secrets.
+     * @param minDelay the shortest time to wait before hedging, 0 to disable hedging
+     * @param unit the unit of the delay
+     * @return this
+     */
+    public ResilientSecretResolver setHedgeDelay(final long minDelay, final TimeUnit unit) {
+        this.hedgeDelayNanos = unit.toNanos(minDelay);
+        return this;
+    }
+
+    /**
+     * @param attempts the most attempts running at once, including those given up on which
+     * have not returned yet, 8 by default. Further attempts wait for one of them to return.
+     * @return this
+     */
+    public synchronized ResilientSecretResolver setMaxConcurrentAttempts(final int attempts) {
+        if (attempts < 1) {
+            throw new IllegalArgumentException("At least one attempt is needed: " + attempts);
+        }
+        if (attempts > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(attempts);
+            executor.setCorePoolSize(attempts);
+        } else {
+            executor.setCorePoolSize(attempts);
+            executor.setMaximumPoolSize(attempts);
+        }
+        return this;
+    }
+
+    /**
+     * Choose the failures worth retrying, which are also the ones counted toward opening the
+     * circuit. By default every failure is, except IllegalArgumentExceptions, and
+     * SecretHandlerExceptions without a cause, which resolvers throw for invalid references and
+     * missing secrets, or caused by an interrupt, a secret not in UTF-8 or a missing file.
+     * @param retryOn whether a failure of the delegate or a timed out attempt is transient
+     * @return this
+     */
+    public ResilientSecretResolver setRetryOn(final Predicate<? super RuntimeException> retryOn) {
+        this.retryOn = retryOn;
+        return this;
+    }
+
+    private static boolean isTransient(final RuntimeException e) {
+        if (e instanceof IllegalArgumentException) {
+            return false;
+        }
+        if (e instanceof SecretHandlerException) {
+            final Throwable cause = e.getCause();
+            return cause != null
+                    && !(cause instanceof InterruptedException)
+                    && !(cause instanceof CharacterCodingException)
+                    && !(cause instanceof NoSuchFileException);
+        }
+        return true;
+    }
+
+    /**
+     * @param threshold the number of consecutive failed fetches opening the circuit
+     * @param openFor how long the circuit stays open before a trial fetch is let through
+     * @param unit the unit of openFor
+     * @return this
+     */
+    public ResilientSecretResolver setCircuitBreaker(
+            final int threshold,
+            final long openFor,
+            final TimeUnit unit) {
+        if (threshold < 1) {
+            throw new IllegalArgumentException("Threshold must be at least 1: " + threshold);
+        }
+        this.failureThreshold = threshold;
+        this.openNanos = unit.toNanos(openFor);
+        return this;
+    }
+
+    @Override
+    public String resolve(final SecretReference reference) {
+        return resolveAll(Collections.singletonList(reference)).get(0);
+    }
+
+    @Override
+    public List<String> resolveAll(final List<SecretReference> references) {
+        if (!allowRequest()) {
+            return fallback(references, new SecretHandlerException(
+                    "Circuit open after " + failureThreshold + " failed fetches"));
+        }
+        final List<String> secrets;
+        try {
+            secrets = fetchWithRetries(references);
+        } catch (final StoreFailure e) {
+            onFailure();
+            return fallback(references, e.failure);
+        } catch (final RuntimeException e) {
+            onInconclusive();
+            throw e;
+        }
+        onSuccess();
+        for (int i = 0; i < references.size(); i++) {
+            lastFetched.put(references.get(i).toString(), secrets.get(i));
+        }
+        return secrets;
+    }
+
+    private List<String> fallback(
+            final List<SecretReference> references,
+            final RuntimeException cause) {
+        final List<String> secrets = new ArrayList<>(references.size());
+        for (final SecretReference reference : references) {
+            final String secret = lastFetched.get(reference.toString());
+            if (secret == null) {
+                throw cause;
+            }
+            secrets.add(secret);
+        }
+        LOG.warn("Could not fetch secrets, using the secrets last fetched: " + cause.getMessage());
+        return secrets;
+    }
+
+    /**
+     * @throws StoreFailure if the last attempt failed in a way worth retrying
+     */
+    private List<String> fetchWithRetries(final List<SecretReference> references) {
+        RuntimeException failure = null;
+        for (int attempt = 0; attempt < maxAttempts; attempt++) {
+            if (attempt > 0) {
+                backOff(attempt);
+            }
+            try {
+                return hedgedAttempt(references);
+            } catch (final NotStarted e) {
+                throw new SecretHandlerException(e.getMessage());
+            } catch (final RuntimeException e) {
+                if (!retryOn.test(e)) {
+                    throw e;
+                }
+                LOG.debug("Attempt " + (attempt + 1) + " to fetch secrets failed", e);
+                failure = e;
+            }
+        }
+        throw new StoreFailure(failure);
+    }
+
+    private void backOff(final int retry) {
+        final long ceiling
+                = Math.min(maxBackoffNanos, initialBackoffNanos << Math.min(retry - 1, 30));
+        final long nanos = ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SecretHandlerException("Interrupted while fetching secrets", e);
+        }
+    }
+
+    /**
+     * Run one attempt, raced by a hedge if it is slow, and wait for the first to succeed.
+     */
+    private List<String> hedgedAttempt(final List<SecretReference> references) {
+        final Attempt first = new Attempt(references);
+        Attempt hedge = null;
+        try {
+            final long start = first.awaitStart();
+            final long deadline = start + attemptTimeoutNanos;
+            final long hedgeDelay = hedgeDelay();
+            if (hedgeDelay <= 0 || hedgeDelay >= attemptTimeoutNanos) {
+                return first.result.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            }
+            try {
+                return first.result.get(
+                        start + hedgeDelay - System.nanoTime(), TimeUnit.NANOSECONDS);
+            } catch (final TimeoutException e) {
+                // A store which left an earlier attempt stuck would only get stuck again.
+                if (abandonedAttempts.get() > 0) {
+                    LOG.debug("Fetching secrets is slow, not hedging while attempts are stuck");
+                } else {
+                    LOG.debug("Fetching secrets is slow, hedging");
+                    hedge = new Attempt(references);
+                }
+            }
+            if (hedge == null) {
+                return first.result.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            }
+            return firstSuccess(first, hedge)
+                    .get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (final TimeoutException e) {
+            throw new SecretHandlerException("Secrets were not fetched within "
+                    + TimeUnit.NANOSECONDS.toMillis(attemptTimeoutNanos) + " ms", e);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SecretHandlerException("Interrupted while fetching secrets", e);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new SecretHandlerException("Could not fetch secrets", e);
+        } finally {
+            first.cancel();
+            if (hedge != null) {
+                hedge.cancel();
+            }
+        }
+    }
+
+    private static CompletableFuture<List<String>> firstSuccess(
+            final Attempt first,
+            final Attempt second) {
+        final CompletableFuture<List<String>> either = new CompletableFuture<>();
+        final AtomicInteger failures = new AtomicInteger();
+        for (final Attempt attempt : Arrays.asList(first, second)) {
+            attempt.result.whenComplete((secrets, failure) -> {
+                if (failure == null) {
+                    either.complete(secrets);
+                } else if (failures.incrementAndGet() == 2) {
+                    either.completeExceptionally(failure);
+                }
+            });
+        }
+        return either;
+    }
+
+    private synchronized long hedgeDelay() {
+        if (hedgeDelayNanos <= 0 || latencyCount < MIN_LATENCY_SAMPLES) {
+            return hedgeDelayNanos;
+        }
+        final long[] sorted = Arrays.copyOf(latencies, Math.min(latencyCount, LATENCY_SAMPLES));
+        Arrays.sort(sorted);
+        return Math.max(hedgeDelayNanos, sorted[(int) Math.ceil(sorted.length * 0.95) - 1]);
+    }
+
+    private synchronized void recordLatency(final long nanos) {
+        latencies[latencyCount % LATENCY_SAMPLES] = nanos;
+        latencyCount++;
+    }
+
+    private synchronized boolean allowRequest() {
+        if (circuit == Circuit.CLOSED) {
+            return true;
+        }
+        if (circuit == Circuit.OPEN && System.nanoTime() - openedAt >= openNanos) {
+            LOG.info("Letting a trial fetch through the open circuit");
+            circuit = Circuit.HALF_OPEN;
+            return true;
+        }
+        return false;
+    }
+
+    private synchronized void onSuccess() {
+        if (circuit != Circuit.CLOSED) {
+            LOG.info("Secrets fetched again, closing the circuit");
+        }
+        circuit = Circuit.CLOSED;
+        consecutiveFailures = 0;
+    }
+
+    /**
+     * A fetch failed without telling whether the store works, so a trial fetch is let through
+     * again by the next request.
+     */
+    private synchronized void onInconclusive() {
+        if (circuit == Circuit.HALF_OPEN) {
+            circuit = Circuit.OPEN;
+        }
+    }
+
+    private synchronized void onFailure() {
+        consecutiveFailures++;
+        if (circuit == Circuit.HALF_OPEN
+                || circuit == Circuit.CLOSED && consecutiveFailures >= failureThreshold) {
+            LOG.warn("Opening the circuit after " + consecutiveFailures + " failed fetches");
+            circuit = Circuit.OPEN;
+            openedAt = System.nanoTime();
+        }
+    }
+
+    /**
+     * The last failure of a fetch which failed in a way worth retrying, counted toward opening
+     * the circuit.
+     */
+    private static final class StoreFailure extends RuntimeException {
+        private final RuntimeException failure;
+
+        StoreFailure(final RuntimeException failure) {
+            super(failure);
+            this.failure = failure;
+        }
+    }
+
+    /**
+     * An attempt found no free thread in time, which says nothing about the store.
+     */
+    private static final class NotStarted extends RuntimeException {
+        NotStarted(final String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * A single call to the delegate, run on the executor so it can be timed out and cancelled.
+     */
+    private final class Attempt {
+        private final CompletableFuture<List<String>> result = new CompletableFuture<>();
+        // When the attempt started running, by System.nanoTime().
+        private final CompletableFuture<Long> started = new CompletableFuture<>();
+        private final Future<?> task;
+        // Guarded by this.
+        private boolean running;
+        private boolean abandoned;
+
+        Attempt(final List<SecretReference> references) {
+            task = executor.submit(() -> run(references));
+        }
+
+        /**
+         * @return when the attempt started running
+         * @throws NotStarted if it did not start within the attempt timeout
+         */
+        long awaitStart() throws InterruptedException, ExecutionException {
+            try {
+                return started.get(attemptTimeoutNanos, TimeUnit.NANOSECONDS);
+            } catch (final TimeoutException e) {
+                throw new NotStarted("No thread was free to fetch secrets within "
+                        + TimeUnit.NANOSECONDS.toMillis(attemptTimeoutNanos) + " ms, "
+                        + abandonedAttempts.get() + " attempts given up on are still running");
+            }
+        }
+
+        private void run(final List<SecretReference> references) {
+            synchronized (this) {
+                running = true;
+            }
+            final long start = System.nanoTime();
+            started.complete(start);
+            try {
+                final List<String> secrets = delegate.resolveAll(references);
+                recordLatency(System.nanoTime() - start);
+                result.complete(secrets);
+            } catch (final RuntimeException | Error e) {
+                result.completeExceptionally(e);
+            } finally {
+                synchronized (this) {
+                    running = false;
+                    if (abandoned) {
+                        abandonedAttempts.decrementAndGet();
+                    }
+                }
+            }
+        }
+
+        void cancel() {
+            task.cancel(true);
+            synchronized (this) {
+                if (running && !abandoned) {
+                    abandoned = true;
+                    abandonedAttempts.incrementAndGet();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.github.secondbase.secrets;
+
+/**
+ * Notified when a secret fetched earlier has been replaced by a new one, for example when a
+ * dynamic secret is read again before its lease runs out.
+ */
+@FunctionalInterface
+public interface SecretChangeListener {
+    /**
+     * Called on the thread which fetched the new secret.
+     * @param reference the reference to the secret
+     * @param secret the new secret
+     */
+    void secretChanged(SecretReference reference, String secret);
+}
@@ -0,0 +1,68 @@
+package com.github.secondbase.secrets;
+
+/**
+ * Told how secret resolution goes, for example to export metrics. All methods do nothing by
+ * default. One observer is installed for the whole process, and is called by every
+ * {@link SecretHandlerRegistry} and {@link CachingSecretResolver}, from the threads resolving
+ * secrets, so it must be thread safe and fast.
+ */
+public abstract class SecretFetchObserver {
+    private static final SecretFetchObserver NONE = new SecretFetchObserver() { };
+
+    private static volatile SecretFetchObserver installed = NONE;
+
+    /**
+     * Install the observer of all secret resolution, replacing any installed before.
+     * @param observer the observer, or null to remove it
+     */
+    public static void install(final SecretFetchObserver observer) {
+        installed = observer == null ? NONE : observer;
+    }
+
+    /**
+     * @return the installed observer, one doing nothing if none is installed
+     */
+    public static SecretFetchObserver installed() {
+        return installed;
+    }
+
+    /**
+     * Secrets of a scheme were resolved.
+     * @param scheme the scheme of the references, as in secret:scheme:body
+     * @param count the number of secrets resolved together
+     * @param nanos the time taken
+     */
+    public void resolved(final String scheme, final int count, final long nanos) {
+    }
+
+    /**
+     * Secrets of a scheme could not be resolved.
+     * @param scheme the scheme of the references
+     * @param count the number of secrets attempted together
+     * @param nanos the time taken until the failure
+     */
+    public void failed(final String scheme, final int count, final long nanos) {
+    }
+
+    /**
+     * A cached secret was used.
+     * @param scheme the scheme of the reference
+     */
+    public void cacheHit(final String scheme) {
+    }
+
+    /**
+     * A secret had to be fetched since it was not cached, or had expired.
+     * @param scheme the scheme of the reference
+     */
+    public void cacheMiss(final String scheme) {
+    }
+
+    /**
+     * A cached secret was replaced by a fresh one in the background.
+     * @param scheme the scheme of the reference
+     * @param lagNanos the time from when the secret was due to be refreshed until it was
+     */
+    public void refreshed(final String scheme, final long lagNanos) {
+    }
+}
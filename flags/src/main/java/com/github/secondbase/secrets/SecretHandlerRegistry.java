@@ -0,0 +1,153 @@
+package com.github.secondbase.secrets;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * SecretHandler which scans every argument once for a {@link SecretReference} and dispatches it
+ * to the resolver registered for its scheme. All references of a scheme are handed to its
+ * resolver together, so it can batch them. References of unregistered schemes are left as is,
+ * for other handlers to fetch.
+ *
+ * Asynchronous resolvers are all started before any blocking resolver is called, so their
+ * fetches overlap with each other and with the blocking ones. Their secrets are closed once
+ * substituted, or when they complete if fetching another secret failed.
+ *
+ * The time taken to resolve the secrets of each scheme is reported to the installed
+ * {@link SecretFetchObserver}.
+ *
+ * new Flags(new SecretHandler[]{
+ *     new SecretHandlerRegistry()
+ *         .register(S3SecretHandler.SCHEME, new S3SecretHandler())
+ *         .register(VaultSecretHandler.SCHEME, new VaultSecretHandler())
+ * });
+ */
+public final class SecretHandlerRegistry implements SecretHandler {
+    private final Map<String, SecretResolver> resolvers = new HashMap<>();
+    private final Map<String, AsyncSecretResolver> asyncResolvers = new HashMap<>();
+
+    /**
+     * Register the resolver for a scheme, replacing any previously registered.
+     * @param scheme the scheme, as in secret:scheme:body
+     * @param resolver fetches secrets of the scheme
+     * @return this
+     */
+    public SecretHandlerRegistry register(final String scheme, final SecretResolver resolver) {
+        asyncResolvers.remove(scheme);
+        resolvers.put(scheme, resolver);
+        return this;
+    }
+
+    /**
+     * Register an asynchronous resolver for a scheme, replacing any previously registered.
+     * @param scheme the scheme, as in secret:scheme:body
+     * @param resolver fetches secrets of the scheme
+     * @return this
+     */
+    public SecretHandlerRegistry registerAsync(
+            final String scheme,
+            final AsyncSecretResolver resolver) {
+        resolvers.remove(scheme);
+        asyncResolvers.put(scheme, resolver);
+        return this;
+    }
+
+    @Override
+    public String[] fetch(final String[] args) {
+        final String[] ret = args.clone();
+        final Map<String, List<SecretReference>> referencesByScheme = new LinkedHashMap<>();
+        final Map<String, List<Integer>> indexesByScheme = new HashMap<>();
+        final List<Integer> asyncIndexes = new ArrayList<>();
+        final List<SecretReference> asyncReferences = new ArrayList<>();
+        final List<CompletableFuture<SecretValue>> asyncSecrets = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                final Optional<SecretReference> reference = SecretReference.find(args[i]);
+                if (!reference.isPresent()) {
+                    continue;
+                }
+                final String scheme = reference.get().scheme();
+                if (asyncResolvers.containsKey(scheme)) {
+                    asyncIndexes.add(i);
+                    asyncReferences.add(reference.get());
+                    asyncSecrets.add(resolveAsync(scheme, reference.get()));
+                } else if (resolvers.containsKey(scheme)) {
+                    referencesByScheme.computeIfAbsent(scheme, s -> new ArrayList<>())
+                            .add(reference.get());
+                    indexesByScheme.computeIfAbsent(scheme, s -> new ArrayList<>()).add(i);
+                }
+            }
+
+            for (final Map.Entry<String, List<SecretReference>> scheme
+                    : referencesByScheme.entrySet()) {
+                final List<SecretReference> references = scheme.getValue();
+                final List<Integer> indexes = indexesByScheme.get(scheme.getKey());
+                final List<String> secrets = resolve(scheme.getKey(), references);
+                if (secrets.size() != references.size()) {
+                    throw new IllegalStateException(
+                            "Secret resolvers must return one secret for each reference given.");
+                }
+                for (int i = 0; i < references.size(); i++) {
+                    ret[indexes.get(i)] = references.get(i).substitute(secrets.get(i));
+                }
+            }
+
+            for (int i = 0; i < asyncSecrets.size(); i++) {
+                // Arguments are Strings, so the secret is copied onto the heap here.
+                ret[asyncIndexes.get(i)] = asyncReferences.get(i)
+                        .substitute(await(asyncSecrets.get(i)).asCharBuffer().toString());
+            }
+        } finally {
+            // Wipe every secret fetched, also those still being fetched if a fetch failed.
+            for (final CompletableFuture<SecretValue> secret : asyncSecrets) {
+                secret.thenAccept(SecretValue::close);
+            }
+        }
+        return ret;
+    }
+
+    private List<String> resolve(final String scheme, final List<SecretReference> references) {
+        final SecretFetchObserver observer = SecretFetchObserver.installed();
+        final long start = System.nanoTime();
+        final List<String> secrets;
+        try {
+            secrets = resolvers.get(scheme).resolveAll(references);
+        } catch (final RuntimeException e) {
+            observer.failed(scheme, references.size(), System.nanoTime() - start);
+            throw e;
+        }
+        observer.resolved(scheme, references.size(), System.nanoTime() - start);
+        return secrets;
+    }
+
+    private CompletableFuture<SecretValue> resolveAsync(
+            final String scheme,
+            final SecretReference reference) {
+        final SecretFetchObserver observer = SecretFetchObserver.installed();
+        final long start = System.nanoTime();
+        return asyncResolvers.get(scheme).resolveAsync(reference).whenComplete((secret, e) -> {
+            if (e == null) {
+                observer.resolved(scheme, 1, System.nanoTime() - start);
+            } else {
+                observer.failed(scheme, 1, System.nanoTime() - start);
+            }
+        });
+    }
+
+    private static SecretValue await(final CompletableFuture<SecretValue> secret) {
+        try {
+            return secret.join();
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
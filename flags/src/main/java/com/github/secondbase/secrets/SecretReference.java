@@ -0,0 +1,116 @@
+package com.github.secondbase.secrets;
+
+import java.util.Optional;
+
+/**
+ * A reference to a secret inside an argument, on the form secret:scheme:body. The reference runs
+ * from "secret:" to the end of the argument, so an argument holds at most one. The body is
+ * interpreted by the handler registered for the scheme, for example bucket:key for "s3".
+ */
+public final class SecretReference {
+    /**
+     * Prefix of all secret references.
+     */
+    public static final String PREFIX = "secret:";
+
+    private final String argument;
+    private final int start;
+    private final String scheme;
+    private final String body;
+
+    private SecretReference(
+            final String argument,
+            final int start,
+            final String scheme,
+            final String body) {
+        this.argument = argument;
+        this.start = start;
+        this.scheme = scheme;
+        this.body = body;
+    }
+
+    /**
+     * Find the first secret reference in an argument. The argument is scanned once from left to
+     * right, without regular expressions.
+     *
+     * @param argument the argument to scan, may be null
+     * @return the reference, or empty if the argument has none
+     */
+    public static Optional<SecretReference> find(final String argument) {
+        if (argument == null) {
+            return Optional.empty();
+        }
+        int start = argument.indexOf(PREFIX);
+        while (start >= 0) {
+            final int schemeStart = start + PREFIX.length();
+            int schemeEnd = schemeStart;
+            while (schemeEnd < argument.length() && isSchemeChar(argument.charAt(schemeEnd))) {
+                schemeEnd++;
+            }
+            if (schemeEnd > schemeStart
+                    && schemeEnd < argument.length()
+                    && argument.charAt(schemeEnd) == ':') {
+                return Optional.of(new SecretReference(
+                        argument,
+                        start,
+                        argument.substring(schemeStart, schemeEnd),
+                        argument.substring(schemeEnd + 1)));
+            }
+            start = argument.indexOf(PREFIX, schemeStart);
+        }
+        return Optional.empty();
+    }
+
+    private static boolean isSchemeChar(final char c) {
+        return (c >= 'a' && c <= 'z')
+                || (c >= 'A' && c <= 'Z')
+                || (c >= '0' && c <= '9')
+                || c == '-' || c == '_' || c == '.' || c == '+';
+    }
+
+    /**
+     * @return the scheme, selecting the handler of the reference
+     */
+    public String scheme() {
+        return scheme;
+    }
+
+    /**
+     * @return everything after secret:scheme:, interpreted by the handler of the scheme
+     */
+    public String body() {
+        return body;
+    }
+
+    /**
+     * @return the argument the reference was found in
+     */
+    public String argument() {
+        return argument;
+    }
+
+    /**
+     * @return the position of the reference in the argument
+     */
+    public int start() {
+        return start;
+    }
+
+    /**
+     * Replace the reference in its argument. The value is inserted literally.
+     *
+     * @param value the fetched secret
+     * @return the argument with the reference replaced by the value
+     */
+    public String substitute(final String value) {
+        if (start == 0) {
+            return value;
+        }
+        return argument.substring(0, start) + value;
+    }
+
+    @Override
+    public String toString() {
+        return argument.substring(start);
+    }
+}
@@ -0,0 +1,35 @@
+package com.github.secondbase.secrets;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fetches the secrets referred to by references of one scheme. Registered by scheme in a
+ * {@link SecretHandlerRegistry}.
+ */
+@FunctionalInterface
+public interface SecretResolver {
+    /**
+     * Fetch a secret.
+     * @param reference the reference to the secret
+     * @return the secret, never null
+     * @throws SecretHandlerException When the secret could not be understood or fetched
+     */
+    String resolve(SecretReference reference) throws SecretHandlerException;
+
+    /**
+     * Fetch several secrets at once. Resolvers which can fetch secrets in fewer requests
+     * together than one by one, for example several keys stored at one path, override this.
+     * @param references the references to the secrets
+     * @return the secrets, in the same order as the references
+     * @throws SecretHandlerException When a secret could not be understood or fetched
+     */
+    default List<String> resolveAll(final List<SecretReference> references)
+            throws SecretHandlerException {
+        final List<String> secrets = new ArrayList<>(references.size());
+        for (final SecretReference reference : references) {
+            secrets.add(resolve(reference));
+        }
+        return secrets;
+    }
+}
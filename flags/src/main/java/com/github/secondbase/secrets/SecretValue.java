@@ -0,0 +1,163 @@
+package com.github.secondbase.secrets;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+
+/**
+ * A secret kept outside the Java heap, so it does not show up in heap dumps, which can be wiped
+ * once it is no longer needed.
+ *
+ * The characters are stored in a direct buffer and are only copied onto the heap when the caller
+ * asks for it, into an array the caller owns and can wipe. {@link #toString()} does not reveal
+ * the secret. After {@link #close()} the buffer is zeroed and any further read fails.
+ *
+ * Flags binds fields of this type like String fields:
+ *
+ * {@literal @}Flag(name="db-password")
+ * private static volatile SecretValue dbPassword;
+ *
+ * The secret is still fetched as a String, which is left to the garbage collector once it has
+ * been copied off the heap, but it is no longer kept in flag fields or argument arrays.
+ */
+public final class SecretValue implements Closeable {
+    private final CharBuffer chars;
+    private volatile boolean closed;
+
+    private SecretValue(final CharBuffer chars) {
+        this.chars = chars;
+    }
+
+    /**
+     * Copy characters off the heap. The caller should wipe its own copy afterwards.
+     * @param secret the characters of the secret
+     * @return the secret, kept off the heap
+     */
+    public static SecretValue of(final CharSequence secret) {
+        final CharBuffer chars = ByteBuffer.allocateDirect(secret.length() * 2).asCharBuffer();
+        for (int i = 0; i < secret.length(); i++) {
+            chars.put(i, secret.charAt(i));
+        }
+        return new SecretValue(chars);
+    }
+
+    /**
+     * Copy characters off the heap. The caller should wipe the array afterwards.
+     * @param secret the characters of the secret
+     * @return the secret, kept off the heap
+     */
+    public static SecretValue of(final char[] secret) {
+        return of(CharBuffer.wrap(secret));
+    }
+
+    /**
+     * Decode bytes straight into off-heap memory, without copying the characters onto the heap.
+     * The caller should wipe its bytes afterwards.
+     * @param secret the encoded secret, read from its position to its limit
+     * @param charset the encoding of the secret
+     * @return the secret, kept off the heap
+     * @throws CharacterCodingException if the bytes are not valid in the charset
+     */
+    public static SecretValue decode(final ByteBuffer secret, final Charset charset)
+            throws CharacterCodingException {
+        final CharsetDecoder decoder = charset.newDecoder();
+        final int maxChars
+                = (int) Math.ceil(secret.remaining() * (double) decoder.maxCharsPerByte());
+        final CharBuffer chars = ByteBuffer.allocateDirect(maxChars * 2).asCharBuffer();
+        CoderResult result = decoder.decode(secret.duplicate(), chars, true);
+        if (!result.isError()) {
+            result = decoder.flush(chars);
+        }
+        if (result.isError()) {
+            for (int i = 0; i < chars.position(); i++) {
+                chars.put(i, '\0');
+            }
+            result.throwException();
+        }
+        chars.flip();
+        return new SecretValue(chars.slice());
+    }
+
+    /**
+     * @return the number of characters in the secret
+     */
+    public int length() {
+        checkOpen();
+        return chars.capacity();
+    }
+
+    /**
+     * @param index of the character
+     * @return the character at the index
+     */
+    public char charAt(final int index) {
+        checkOpen();
+        return chars.get(index);
+    }
+
+    /**
+     * Copy the secret into an array owned by the caller, for APIs taking passwords as char[].
+     * Nothing is allocated. The caller should wipe the array once done with it.
+     * @param destination an array of at least {@link #length()} characters
+     * @return the number of characters copied
+     * @throws IndexOutOfBoundsException if the array is too short
+     */
+    public int copyTo(final char[] destination) {
+        checkOpen();
+        final int length = chars.capacity();
+        if (destination.length < length) {
+            throw new IndexOutOfBoundsException(
+                    "Secret has " + length + " characters, array holds " + destination.length);
+        }
+        for (int i = 0; i < length; i++) {
+            destination[i] = chars.get(i);
+        }
+        return length;
+    }
+
+    /**
+     * A read-only view of the off-heap characters. The view shares the storage of this secret,
+     * so nothing is copied, and it reads zeros once the secret is closed.
+     * @return a new view, positioned at the first character
+     */
+    public CharBuffer asCharBuffer() {
+        checkOpen();
+        return chars.asReadOnlyBuffer();
+    }
+
+    /**
+     * @return {@code true} once the secret has been wiped
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Overwrite the secret with zeros. Reading it afterwards throws IllegalStateException.
+     */
+    @Override
+    public synchronized void close() {
+        for (int i = 0; i < chars.capacity(); i++) {
+            chars.put(i, '\0');
+        }
+        closed = true;
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Secret has been closed");
+        }
+    }
+
+    /**
+     * @return a placeholder, never the secret
+     */
+    @Override
+    public String toString() {
+        return "SecretValue[****]";
+    }
+}
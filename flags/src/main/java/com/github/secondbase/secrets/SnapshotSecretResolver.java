@@ -0,0 +1,351 @@
+package com.github.secondbase.secrets;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the secrets fetched by another resolver in an encrypted file, so a restarted service
+ * gets its secrets at once even when the secret stores are slow or unavailable.
+ *
+ * The first request for a secret found in the snapshot returns it without calling the delegate,
+ * and fetches it again in the background. Secrets which changed are written to the snapshot and
+ * given to the change listeners. Every other request is passed to the delegate, so rotated
+ * secrets are seen as usual, and fetched secrets are written to the snapshot. If the delegate
+ * fails, secrets found in the snapshot are returned instead. A snapshot which can not be read or
+ * decrypted is ignored.
+ *
+ * The snapshot is encrypted with AES-GCM, with a key given as base64 in an environment
+ * variable, and only the owner may read the file.
+ *
+ * new SecretHandlerRegistry()
+ *     .register(VaultSecretHandler.SCHEME, new SnapshotSecretResolver(
+ *         new VaultSecretHandler(),
+ *         Paths.get("/var/lib/myservice/secrets.snapshot"),
+ *         SnapshotSecretResolver.keyFromEnvironment("SECRET_SNAPSHOT_KEY")));
+ */
+public final class SnapshotSecretResolver implements SecretResolver {
+    private static final Logger LOG = LoggerFactory.getLogger(SnapshotSecretResolver.class);
+    private static final String CIPHER = "AES/GCM/NoPadding";
+    private static final int IV_BYTES = 12;
+    private static final int TAG_BITS = 128;
+    private static final int VERSION = 1;
+
+    private final SecretResolver delegate;
+    private final Path file;
+    private final SecretKey key;
+    private final Executor revalidationExecutor;
+    private final SecureRandom random = new SecureRandom();
+    private final List<SecretChangeListener> listeners = new CopyOnWriteArrayList<>();
+    // Secrets by reference, as read from the snapshot and fetched since. Guarded by this.
+    private final Map<String, String> secrets;
+    // References served from the snapshot and not yet fetched again. Guarded by this.
+    private final Set<String> unvalidated;
+
+    /**
+     * Read the snapshot, if any, and fetch secrets found in it again on a daemon thread.
+     * @param delegate the resolver to fetch secrets with
+     * @param file the snapshot file, created when the first secret is fetched
+     * @param key the AES key the snapshot is encrypted with
+     */
+    public SnapshotSecretResolver(
+            final SecretResolver delegate,
+            final Path file,
+            final SecretKey key) {
+        this(delegate, file, key, r -> {
+            final Thread thread = new Thread(r, "secret-snapshot-revalidation");
+            thread.setDaemon(true);
+            thread.start();
+        });
+    }
+
+    SnapshotSecretResolver(
+            final SecretResolver delegate,
+            final Path file,
+            final SecretKey key,
+            final Executor revalidationExecutor) {
+        this.delegate = delegate;
+        this.file = file;
+        this.key = key;
+        this.revalidationExecutor = revalidationExecutor;
+        this.secrets = load();
+        this.unvalidated = new HashSet<>(secrets.keySet());
+    }
+
+    /**
+     * Read a snapshot key from an environment variable.
+     * @param variable the name of the variable, holding a base64 encoded AES key
+     * @return the key
+     * @throws IllegalStateException if the variable is not set or does not hold an AES key
+     */
+    public static SecretKey keyFromEnvironment(final String variable) {
+        final String encoded = System.getenv(variable);
+        if (encoded == null || encoded.isEmpty()) {
+            throw new IllegalStateException("Environment variable " + variable + " is not set");
+        }
+        final byte[] key;
+        try {
+            key = Base64.getDecoder().decode(encoded.trim());
+        } catch (final IllegalArgumentException e) {
+            throw new IllegalStateException(variable + " does not hold base64", e);
+        }
+        if (key.length != 16 && key.length != 24 && key.length != 32) {
+            throw new IllegalStateException(variable + " must hold a 128, 192 or 256 bit key");
+        }
+        return new SecretKeySpec(key, "AES");
+    }
+
+    /**
+     * Register a listener to be notified of secrets which changed since the snapshot was taken.
+     * @param listener the listener
+     * @return this
+     */
+    public SnapshotSecretResolver addChangeListener(final SecretChangeListener listener) {
+        listeners.add(listener);
+        return this;
+    }
+
+    @Override
+    public String resolve(final SecretReference reference) {
+        return resolveAll(Collections.singletonList(reference)).get(0);
+    }
+
+    /**
+     * Return the secrets in the snapshot not yet fetched again, and fetch the others with one
+     * call to the delegate, falling back on the snapshot if it fails.
+     */
+    @Override
+    public List<String> resolveAll(final List<SecretReference> references) {
+        final List<SecretReference> fetch = new ArrayList<>();
+        final List<SecretReference> stale = new ArrayList<>();
+        final Set<String> staleKeys = new HashSet<>();
+        synchronized (this) {
+            for (final SecretReference reference : references) {
+                final String key = reference.toString();
+                if (unvalidated.remove(key)) {
+                    stale.add(reference);
+                    staleKeys.add(key);
+                } else if (!staleKeys.contains(key)) {
+                    fetch.add(reference);
+                }
+            }
+        }
+        if (!stale.isEmpty()) {
+            revalidationExecutor.execute(() -> revalidate(stale));
+        }
+        if (!fetch.isEmpty()) {
+            try {
+                store(fetch, delegate.resolveAll(fetch));
+            } catch (final RuntimeException e) {
+                synchronized (this) {
+                    for (final SecretReference reference : fetch) {
+                        if (!secrets.containsKey(reference.toString())) {
+                            throw e;
+                        }
+                    }
+                }
+                LOG.warn("Could not fetch secrets, using the secrets of the snapshot", e);
+            }
+        }
+
+        final List<String> ret = new ArrayList<>(references.size());
+        synchronized (this) {
+            for (final SecretReference reference : references) {
+                ret.add(secrets.get(reference.toString()));
+            }
+        }
+        return ret;
+    }
+
+    private void revalidate(final List<SecretReference> references) {
+        final List<String> fetched;
+        try {
+            fetched = delegate.resolveAll(references);
+        } catch (final RuntimeException e) {
+            LOG.warn("Could not fetch secrets again, using the secrets of the snapshot", e);
+            return;
+        }
+        final List<SecretReference> changed = store(references, fetched);
+        for (final SecretReference reference : changed) {
+            final String secret = fetched.get(references.indexOf(reference));
+            for (final SecretChangeListener listener : listeners) {
+                try {
+                    listener.secretChanged(reference, secret);
+                } catch (final RuntimeException e) {
+                    LOG.error("Secret change listener failed for " + reference, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Put fetched secrets in the snapshot and write it if any changed.
+     * @return the references whose secrets changed
+     */
+    private List<SecretReference> store(
+            final List<SecretReference> references,
+            final List<String> fetched) {
+        final List<SecretReference> changed = new ArrayList<>();
+        final byte[] snapshot;
+        synchronized (this) {
+            for (int i = 0; i < references.size(); i++) {
+                final String previous = secrets.put(references.get(i).toString(), fetched.get(i));
+                if (!fetched.get(i).equals(previous)) {
+                    changed.add(references.get(i));
+                }
+            }
+            if (changed.isEmpty()) {
+                return changed;
+            }
+            snapshot = serialize(secrets);
+        }
+        try {
+            write(snapshot);
+        } catch (final IOException | GeneralSecurityException e) {
+            LOG.warn("Could not write secret snapshot " + file, e);
+        } finally {
+            Arrays.fill(snapshot, (byte) 0);
+        }
+        return changed;
+    }
+
+    private Map<String, String> load() {
+        if (!Files.exists(file)) {
+            return new HashMap<>();
+        }
+        byte[] plain = null;
+        try {
+            final byte[] encrypted = Files.readAllBytes(file);
+            final Cipher cipher = Cipher.getInstance(CIPHER);
+            cipher.init(Cipher.DECRYPT_MODE, key,
+                    new GCMParameterSpec(TAG_BITS, encrypted, 0, IV_BYTES));
+            plain = cipher.doFinal(encrypted, IV_BYTES, encrypted.length - IV_BYTES);
+            final Map<String, String> loaded = deserialize(plain);
+            LOG.info("Read " + loaded.size() + " secrets from snapshot " + file);
+            return loaded;
+        } catch (final IOException | GeneralSecurityException | RuntimeException e) {
+            LOG.warn("Could not read secret snapshot " + file + ", ignoring it", e);
+            return new HashMap<>();
+        } finally {
+            if (plain != null) {
+                Arrays.fill(plain, (byte) 0);
+            }
+        }
+    }
+
+    /**
+     * Encrypt the snapshot to a temporary file only the owner can read, and move it in place.
+     */
+    private void write(final byte[] snapshot) throws IOException, GeneralSecurityException {
+        final byte[] iv = new byte[IV_BYTES];
+        random.nextBytes(iv);
+        final Cipher cipher = Cipher.getInstance(CIPHER);
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+        final byte[] encrypted = cipher.doFinal(snapshot);
+
+        final Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        final Path temporary;
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            temporary = Files.createTempFile(directory, ".secrets", null,
+                    PosixFilePermissions.asFileAttribute(
+                            PosixFilePermissions.fromString("rw-------")));
+        } else {
+            temporary = Files.createTempFile(directory, ".secrets", null);
+        }
+        try {
+            try (OutputStream out = Files.newOutputStream(temporary)) {
+                out.write(iv);
+                out.write(encrypted);
+            }
+            Files.move(temporary, file,
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Write the secrets straight into a buffer of their exact size, left for the caller to zero.
+     * The strings encoded on the way are zeroed once copied.
+     */
+    private static byte[] serialize(final Map<String, String> secrets) {
+        final List<byte[]> encoded = new ArrayList<>(secrets.size() * 2);
+        try {
+            int size = 2 * Integer.BYTES;
+            for (final Map.Entry<String, String> secret : secrets.entrySet()) {
+                size += encode(encoded, secret.getKey());
+                size += encode(encoded, secret.getValue());
+            }
+            final ByteBuffer snapshot = ByteBuffer.allocate(size);
+            snapshot.putInt(VERSION).putInt(secrets.size());
+            for (final byte[] bytes : encoded) {
+                snapshot.putInt(bytes.length).put(bytes);
+            }
+            return snapshot.array();
+        } finally {
+            for (final byte[] bytes : encoded) {
+                Arrays.fill(bytes, (byte) 0);
+            }
+        }
+    }
+
+    /**
+     * @return the bytes the encoded string takes in a snapshot
+     */
+    private static int encode(final List<byte[]> encoded, final String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        encoded.add(bytes);
+        return Integer.BYTES + bytes.length;
+    }
+
+    private static Map<String, String> deserialize(final byte[] snapshot) throws IOException {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(snapshot));
+        if (in.readInt() != VERSION) {
+            throw new IOException("Unknown snapshot version");
+        }
+        final int count = in.readInt();
+        final Map<String, String> secrets = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            secrets.put(readString(in), readString(in));
+        }
+        return secrets;
+    }
+
+    private static String readString(final DataInputStream in) throws IOException {
+        final byte[] bytes = new byte[in.readInt()];
+        try {
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        } finally {
+            Arrays.fill(bytes, (byte) 0);
+        }
+    }
+}
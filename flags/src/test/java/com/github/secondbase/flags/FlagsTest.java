@@ -2,9 +2,22 @@ package com.github.secondbase.flags;
 
 import com.github.secondbase.secrets.SecretHandler;
 import com.github.secondbase.secrets.SecretHandlerException;
+import com.github.secondbase.secrets.SecretHandlerRegistry;
+import com.github.secondbase.secrets.SecretReference;
+import com.github.secondbase.secrets.SecretValue;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.annotation.PostConstruct;
 import org.junit.Assert;
 import org.junit.Rule;
@@ -13,12 +26,14 @@ import org.junit.rules.ExpectedException;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.isA;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Test class for Flags.
@@ -519,6 +534,29 @@ public class FlagsTest {
         assertEquals(secretValue, testFlags.secret);
     }
 
+    @Test
+    public void testSecretValueFlag() {
+        final SecretHandler secretHandler = args -> {
+            args[1] = "secretValue";
+            return args;
+        };
+
+        final class TestFlags {
+            @Flag(name = "secret")
+            private SecretValue secret;
+        }
+
+        final TestFlags testFlags = new TestFlags();
+        new Flags(new SecretHandler[]{secretHandler})
+                .loadOpts(testFlags)
+                .parse(new String[]{"--secret", "secret:test:value"});
+
+        final char[] chars = new char[testFlags.secret.length()];
+        testFlags.secret.copyTo(chars);
+        assertEquals("secretValue", new String(chars));
+        assertFalse(testFlags.secret.toString().contains("secretValue"));
+    }
+
     @Test
     public void testSecretInPropertiesFile() throws Exception {
         final String secretValue = "secretValue";
@@ -547,4 +585,445 @@ public class FlagsTest {
 
         assertEquals(secretValue, testFlags.secret);
     }
+
+    @Test
+    public void testSecretForIntegerFlag() {
+        final int[] calls = {0};
+        final SecretHandler secretHandler = args -> {
+            calls[0]++;
+            for (int i = 0; i < args.length; i++) {
+                if ("secret:test:port".equals(args[i])) {
+                    args[i] = "8080";
+                }
+                if ("secret:test:extra".equals(args[i])) {
+                    args[i] = "fetched";
+                }
+            }
+            return args;
+        };
+
+        final class TestFlags {
+            @Flag(name = "port")
+            private int port;
+
+            @Flag(name = "host")
+            private String host;
+        }
+
+        final TestFlags testFlags = new TestFlags();
+        final Flags flags = new Flags(new SecretHandler[]{secretHandler})
+                .loadOpts(testFlags)
+                .parse(new String[]{
+                        "--port", "secret:test:port", "--host=localhost",
+                        "extra", "secret:test:extra"});
+
+        assertEquals(8080, testFlags.port);
+        assertEquals("localhost", testFlags.host);
+        assertEquals(1, calls[0]);
+        assertEquals(Arrays.asList("extra", "fetched"), flags.getNonOptionArguments());
+    }
+
+    @Test
+    public void testSecretHandlersGetNoNullArguments() {
+        final SecretHandler secretHandler = args -> {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("secret:test:port")) {
+                    args[i] = "8080";
+                }
+            }
+            return args;
+        };
+
+        final class TestFlags {
+            @Flag(name = "port")
+            private int port;
+
+            @Flag(name = "verbose")
+            private boolean verbose;
+        }
+
+        final TestFlags testFlags = new TestFlags();
+        new Flags(new SecretHandler[]{secretHandler})
+                .loadOpts(testFlags)
+                .parse(new String[]{"--verbose", "--port", "secret:test:port"});
+
+        assertEquals(8080, testFlags.port);
+        assertTrue(testFlags.verbose);
+    }
+
+    @Test
+    public void testPrefetchSecrets() {
+        final List<String> fetched = Collections.synchronizedList(new ArrayList<>());
+        final SecretHandler secretHandler = args -> {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i] != null && args[i].endsWith("secret:test:port")) {
+                    fetched.add(args[i]);
+                    args[i] = args[i].replace("secret:test:port", "8080");
+                }
+            }
+            return args;
+        };
+
+        final class TestFlags {
+            @Flag(name = "port")
+            private int port;
+
+            @Flag(name = "admin-port")
+            private int adminPort;
+        }
+
+        final String[] args = {"--port", "secret:test:port", "--admin-port=secret:test:port"};
+        final TestFlags testFlags = new TestFlags();
+        new Flags(new SecretHandler[]{secretHandler})
+                .prefetchSecrets(args)
+                .loadOpts(testFlags)
+                .parse(args);
+
+        assertEquals(8080, testFlags.port);
+        assertEquals(8080, testFlags.adminPort);
+        // Both were fetched by the prefetch, and parse fetched nothing more.
+        assertEquals(2, fetched.size());
+    }
+
+    @Test
+    public void testAsyncSecretResolver() {
+        final SecretHandler registry = new SecretHandlerRegistry()
+                .registerAsync("async", reference ->
+                        CompletableFuture.completedFuture(SecretValue.of("a-" + reference.body())))
+                .register("sync", reference -> "s-" + reference.body());
+
+        assertArrayEquals(
+                new String[]{"--one", "a-1", "--two=s-2", "secret:other:3"},
+                registry.fetch(new String[]{
+                        "--one", "secret:async:1", "--two=secret:sync:2", "secret:other:3"}));
+    }
+
+    @Test
+    public void testAsyncSecretsClosedWhenFetchFails() {
+        final List<SecretValue> fetched = new ArrayList<>();
+        final CompletableFuture<SecretValue> pending = new CompletableFuture<>();
+        final SecretHandler registry = new SecretHandlerRegistry()
+                .registerAsync("async", reference -> {
+                    if ("pending".equals(reference.body())) {
+                        return pending;
+                    }
+                    final SecretValue secret = SecretValue.of("a-" + reference.body());
+                    fetched.add(secret);
+                    return CompletableFuture.completedFuture(secret);
+                })
+                .register("sync", reference -> {
+                    throw new SecretHandlerException("unavailable");
+                });
+
+        try {
+            registry.fetch(new String[]{
+                    "secret:async:1", "secret:async:pending", "secret:sync:2"});
+            fail("Expected SecretHandlerException");
+        } catch (final SecretHandlerException e) {
+            assertEquals("unavailable", e.getMessage());
+        }
+        assertTrue(fetched.get(0).isClosed());
+
+        final SecretValue late = SecretValue.of("late");
+        pending.complete(late);
+        assertTrue(late.isClosed());
+    }
+
+    @Test
+    public void testCommandLineOverridesPropertiesFile() throws Exception {
+        final File propertiesFile = File.createTempFile("test", "properties");
+        final FileOutputStream fio = new FileOutputStream(propertiesFile);
+        fio.write("integer=1\nname=fromFile\n".getBytes());
+        fio.close();
+
+        new Flags()
+                .loadOpts(FlagsPropertiesFile.class)
+                .parse(new String[]{"--properties-file", propertiesFile.getAbsolutePath(),
+                        "--integer", "2"});
+        assertEquals(2, FlagsPropertiesFile.integer);
+        assertEquals("fromFile", FlagsPropertiesFile.name);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidValueInPropertiesFile() throws Exception {
+        final File propertiesFile = File.createTempFile("test", "properties");
+        final FileOutputStream fio = new FileOutputStream(propertiesFile);
+        fio.write("integer=notanumber\n".getBytes());
+        fio.close();
+
+        new Flags()
+                .loadOpts(FlagsPropertiesFile.class)
+                .parse(new String[]{"--properties-file", propertiesFile.getAbsolutePath()});
+    }
+
+    @Test
+    public void testReloadPropertiesFile() throws Exception {
+        final File propertiesFile = File.createTempFile("test", "properties");
+        FileOutputStream fio = new FileOutputStream(propertiesFile);
+        fio.write("integer=1\nname=before\n".getBytes());
+        fio.close();
+
+        final List<String> changed = new ArrayList<>();
+        final Flags flags = new Flags()
+                .loadOpts(FlagsPropertiesFile.class)
+                .addChangeListener((flag, oldValue, newValue) ->
+                        changed.add(flag.name() + ":" + oldValue + "->" + newValue))
+                .parse(new String[]{"--properties-file", propertiesFile.getAbsolutePath(),
+                        "--integer", "2"});
+
+        fio = new FileOutputStream(propertiesFile);
+        fio.write("integer=3\nname=after\n".getBytes());
+        fio.close();
+        flags.reload();
+
+        // The command line wins over the properties file, also on reload.
+        assertEquals(2, FlagsPropertiesFile.integer);
+        assertEquals("after", FlagsPropertiesFile.name);
+        assertEquals(Collections.singletonList("name:before->after"), changed);
+
+        flags.reload();
+        assertEquals(1, changed.size());
+    }
+
+    @Test
+    public void testReplacedSecretValuesAreClosed() throws Exception {
+        final File propertiesFile = File.createTempFile("test", "properties");
+        FileOutputStream fio = new FileOutputStream(propertiesFile);
+        fio.write("secret=one\n".getBytes());
+        fio.close();
+
+        final class TestFlags {
+            @Flag(name = "secret")
+            private volatile SecretValue secret;
+        }
+
+        final TestFlags testFlags = new TestFlags();
+        final List<Boolean> closedInListener = new ArrayList<>();
+        final String[] args = {"--properties-file", propertiesFile.getAbsolutePath()};
+        final Flags flags = new Flags()
+                .loadOpts(testFlags)
+                .addChangeListener((flag, oldValue, newValue) ->
+                        closedInListener.add(((SecretValue) oldValue).isClosed()))
+                .parse(args);
+        FlagsSnapshot pinned = flags.snapshot();
+        final SecretValue first = testFlags.secret;
+
+        fio = new FileOutputStream(propertiesFile);
+        fio.write("secret=two\n".getBytes());
+        fio.close();
+        flags.reload();
+        final SecretValue second = testFlags.secret;
+
+        // The replaced secret stays readable from the snapshot pinned before the reload.
+        assertEquals(Collections.singletonList(false), closedInListener);
+        flags.parse(args);
+        assertEquals('o', pinned.get("secret", SecretValue.class).charAt(0));
+        assertFalse(first.isClosed());
+
+        // Once no snapshot holding them can be read, replaced secrets are closed.
+        pinned = null;
+        for (int i = 0; i < 100 && !(first.isClosed() && second.isClosed()); i++) {
+            System.gc();
+            Thread.sleep(10);
+            flags.parse(args);
+        }
+        assertTrue(first.isClosed());
+        assertTrue(second.isClosed());
+        assertFalse(testFlags.secret.isClosed());
+        assertFalse(flags.snapshot().get("secret", SecretValue.class).isClosed());
+    }
+
+    @Test
+    public void testReloadInvalidPropertiesFileChangesNothing() throws Exception {
+        final File propertiesFile = File.createTempFile("test", "properties");
+        FileOutputStream fio = new FileOutputStream(propertiesFile);
+        fio.write("integer=1\nname=before\n".getBytes());
+        fio.close();
+
+        final Flags flags = new Flags()
+                .loadOpts(FlagsPropertiesFile.class)
+                .parse(new String[]{"--properties-file", propertiesFile.getAbsolutePath()});
+
+        fio = new FileOutputStream(propertiesFile);
+        fio.write("integer=notanumber\nname=after\n".getBytes());
+        fio.close();
+        try {
+            flags.reload();
+            Assert.fail("Expected IllegalArgumentException");
+        } catch (final IllegalArgumentException e) {
+            assertEquals(1, FlagsPropertiesFile.integer);
+            assertEquals("before", FlagsPropertiesFile.name);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReloadBeforeParse() {
+        new Flags().loadOpts(FlagsPropertiesFile.class).reload();
+    }
+
+    @Test
+    public void testPropertiesFileWatcher() throws Exception {
+        final File propertiesFile = File.createTempFile("test", "properties");
+        FileOutputStream fio = new FileOutputStream(propertiesFile);
+        fio.write("name=before\n".getBytes());
+        fio.close();
+
+        final CountDownLatch reloaded = new CountDownLatch(1);
+        final Flags flags = new Flags()
+                .loadOpts(FlagsPropertiesFile.class)
+                .addChangeListener((flag, oldValue, newValue) -> reloaded.countDown())
+                .parse(new String[]{"--properties-file", propertiesFile.getAbsolutePath()});
+
+        try (PropertiesFileWatcher watcher = new PropertiesFileWatcher(flags).start()) {
+            fio = new FileOutputStream(propertiesFile);
+            fio.write("name=after\n".getBytes());
+            fio.close();
+            // The polling watch service of some platforms only checks every few seconds.
+            assertTrue(reloaded.await(30, TimeUnit.SECONDS));
+            assertEquals("after", FlagsPropertiesFile.name);
+        }
+    }
+
+    @Test
+    public void testFlagValueHandles() {
+        final IntFlag integer = FlagsValueHandles.integer;
+        new Flags()
+                .loadOpts(FlagsValueHandles.class)
+                .parse(new String[]{"--handle-string", "s", "--handle-int", "10",
+                        "--handle-long", "20", "--handle-boolean",
+                        "--handle-option", "OPTION2"});
+        assertEquals("s", FlagsValueHandles.string.get());
+        assertEquals(10, FlagsValueHandles.integer.getInt());
+        assertEquals(20L, FlagsValueHandles.longNum.getLong());
+        assertTrue(FlagsValueHandles.bool.getBoolean());
+        assertEquals(FlagsValueHandles.SimpleEnum.OPTION2, FlagsValueHandles.option.get());
+        // The handle is set, not replaced.
+        assertTrue(integer == FlagsValueHandles.integer);
+    }
+
+    @Test
+    public void testPrimitiveHandleRejectsNull() {
+        exception.expect(IllegalArgumentException.class);
+        exception.expectMessage("IntFlag can not hold null");
+        new IntFlag(1).set(null);
+    }
+
+    @Test
+    public void testNullFlagValueHandle() {
+        exception.expect(IllegalArgumentException.class);
+        exception.expectMessage("must hold a FlagValue");
+        new Flags().loadOpts(new Object() {
+            @Flag(name="null-handle")
+            IntFlag handle = null;
+        });
+    }
+
+    @Test
+    public void testSnapshot() throws Exception {
+        final File propertiesFile = File.createTempFile("test", "properties");
+        FileOutputStream fio = new FileOutputStream(propertiesFile);
+        fio.write("integer=1\nname=before\n".getBytes());
+        fio.close();
+
+        final Flags flags = new Flags().loadOpts(FlagsPropertiesFile.class);
+        assertTrue(flags.snapshot().names().isEmpty());
+        flags.parse(new String[]{"--properties-file", propertiesFile.getAbsolutePath()});
+        final FlagsSnapshot first = flags.snapshot();
+        assertEquals(1, first.generation());
+        assertEquals(1, first.getInt("integer"));
+        assertEquals("before", first.getString("name"));
+        assertTrue(flags.snapshot() == first);
+
+        fio = new FileOutputStream(propertiesFile);
+        fio.write("integer=2\nname=after\n".getBytes());
+        fio.close();
+        flags.reload();
+
+        final FlagsSnapshot second = flags.snapshot();
+        assertEquals(2, second.generation());
+        assertEquals(2, second.getInt("integer"));
+        assertEquals("after", second.getString("name"));
+        // Pinned snapshots are not affected by the reload.
+        assertEquals(1, first.getInt("integer"));
+        assertEquals("before", first.getString("name"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSnapshotUnknownFlag() {
+        new Flags()
+                .loadOpts(FlagsPropertiesFile.class)
+                .parse(new String[]{})
+                .snapshot()
+                .get("unknown");
+    }
+
+    @Test
+    public void testConcurrentSecretFetching() {
+        final AtomicInteger fetches = new AtomicInteger();
+        final List<List<String>> batches = Collections.synchronizedList(new ArrayList<>());
+        final SecretHandler secretHandler = args -> {
+            batches.add(Arrays.asList(args));
+            final String[] ret = new String[args.length];
+            for (int i = 0; i < args.length; i++) {
+                final Optional<SecretReference> reference = SecretReference.find(args[i]);
+                if (reference.isPresent()) {
+                    fetches.incrementAndGet();
+                    ret[i] = reference.get().body();
+                } else {
+                    ret[i] = args[i];
+                }
+            }
+            return ret;
+        };
+
+        final String[] fetched = new Flags(new SecretHandler[]{secretHandler})
+                .setSecretFetchParallelism(4)
+                .fetchSecrets(new String[]{
+                        "--a", "secret:test:1", "--b", "plain", "--c", "secret:test:1",
+                        "--d", "secret:test:2", "--e", "secret:other:3"});
+
+        assertArrayEquals(new String[]{
+                "--a", "1", "--b", "plain", "--c", "1", "--d", "2", "--e", "3"}, fetched);
+        // Each distinct reference is fetched once, in one batch per scheme.
+        assertEquals(3, fetches.get());
+        assertEquals(2, batches.size());
+        assertTrue(batches.contains(Arrays.asList("secret:test:1", "secret:test:2")));
+        assertTrue(batches.contains(Collections.singletonList("secret:other:3")));
+    }
+
+    @Test
+    public void testSecretFetchTimeout() {
+        final SecretHandler secretHandler = args -> {
+            try {
+                Thread.sleep(10000);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return args;
+        };
+
+        final long start = System.nanoTime();
+        try {
+            new Flags(new SecretHandler[]{secretHandler})
+                    .setSecretFetchTimeout(100, TimeUnit.MILLISECONDS)
+                    .fetchSecrets(new String[]{"--a", "secret:test:slow"});
+            Assert.fail("Expected SecretHandlerException");
+        } catch (final SecretHandlerException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    }
+
+    @Test
+    public void testConcurrentSecretFetchingRethrowsHandlerException() {
+        final SecretHandler secretHandler = args -> {
+            throw new SecretHandlerException("Could not fetch secret from: " + args[0]);
+        };
+
+        exception.expect(SecretHandlerException.class);
+        exception.expectMessage("secret:test:missing");
+        new Flags(new SecretHandler[]{secretHandler})
+                .setSecretFetchParallelism(2)
+                .fetchSecrets(new String[]{"--a", "secret:test:missing"});
+    }
 }
@@ -0,0 +1,28 @@
+package com.github.secondbase.flags;
+
+/**
+ * Class containing FlagValue handles for testing.
+ *
+ * @author acidmoose
+ *
+ */
+public class FlagsValueHandles {
+
+    public enum SimpleEnum {OPTION1, OPTION2};
+
+    @Flag(name="handle-string")
+    public static final FlagValue<String> string = new FlagValue<>(String.class, "NA");
+
+    @Flag(name="handle-int")
+    public static final IntFlag integer = new IntFlag(1);
+
+    @Flag(name="handle-long")
+    public static final LongFlag longNum = new LongFlag(2L);
+
+    @Flag(name="handle-boolean")
+    public static final BooleanFlag bool = new BooleanFlag(false);
+
+    @Flag(name="handle-option", options=SimpleEnum.class)
+    public static final FlagValue<SimpleEnum> option
+            = new FlagValue<>(SimpleEnum.class, SimpleEnum.OPTION1);
+}
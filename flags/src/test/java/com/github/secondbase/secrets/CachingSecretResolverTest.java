@@ -0,0 +1,194 @@
+package com.github.secondbase.secrets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+/**
+ * Test expiry, coalescing and background refresh of cached secrets.
+ */
+public class CachingSecretResolverTest {
+    private static final SecretReference REFERENCE = SecretReference.find("secret:test:a").get();
+
+    private final AtomicLong now = new AtomicLong();
+    private final AtomicInteger fetches = new AtomicInteger();
+    private final List<Runnable> refreshes = new ArrayList<>();
+
+    private CachingSecretResolver cache(final SecretResolver delegate) {
+        return new CachingSecretResolver(
+                delegate, reference -> Duration.ofSeconds(10), 0.5, refreshes::add, now::get);
+    }
+
+    private final SecretResolver counting = reference ->
+            reference.body() + fetches.incrementAndGet();
+
+    @Test
+    public void cachesUntilExpiry() {
+        final CachingSecretResolver cache = cache(counting);
+        assertEquals("a1", cache.resolve(REFERENCE));
+        now.set(TimeUnit.SECONDS.toNanos(4));
+        assertEquals("a1", cache.resolve(REFERENCE));
+        now.set(TimeUnit.SECONDS.toNanos(10));
+        assertEquals("a2", cache.resolve(REFERENCE));
+        assertEquals(2, fetches.get());
+    }
+
+    @Test
+    public void refreshesInBackgroundBeforeExpiry() {
+        final CachingSecretResolver cache = cache(counting);
+        assertEquals("a1", cache.resolve(REFERENCE));
+
+        now.set(TimeUnit.SECONDS.toNanos(6));
+        // The cached secret is returned while the refresh is pending, and only one is started.
+        assertEquals("a1", cache.resolve(REFERENCE));
+        assertEquals("a1", cache.resolve(REFERENCE));
+        assertEquals(1, refreshes.size());
+
+        refreshes.get(0).run();
+        assertEquals("a2", cache.resolve(REFERENCE));
+        now.set(TimeUnit.SECONDS.toNanos(12));
+        assertEquals("a2", cache.resolve(REFERENCE));
+        assertEquals(2, fetches.get());
+    }
+
+    @Test
+    public void failedRefreshKeepsCachedSecret() {
+        final CachingSecretResolver cache = cache(reference -> {
+            if (fetches.incrementAndGet() > 1) {
+                throw new SecretHandlerException("unavailable");
+            }
+            return "a";
+        });
+        assertEquals("a", cache.resolve(REFERENCE));
+        now.set(TimeUnit.SECONDS.toNanos(6));
+        assertEquals("a", cache.resolve(REFERENCE));
+        refreshes.get(0).run();
+        assertEquals("a", cache.resolve(REFERENCE));
+        // Refreshing is attempted again after a failure.
+        assertEquals(2, refreshes.size());
+    }
+
+    @Test
+    public void failuresAreNotCached() {
+        final CachingSecretResolver cache = cache(reference -> {
+            if (fetches.incrementAndGet() == 1) {
+                throw new SecretHandlerException("unavailable");
+            }
+            return "a";
+        });
+        try {
+            cache.resolve(REFERENCE);
+            fail("Expected SecretHandlerException");
+        } catch (final SecretHandlerException e) {
+            assertEquals("unavailable", e.getMessage());
+        }
+        assertEquals("a", cache.resolve(REFERENCE));
+    }
+
+    @Test
+    public void concurrentRequestsShareOneFetch() throws Exception {
+        final CountDownLatch fetching = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CachingSecretResolver cache = cache(reference -> {
+            fetches.incrementAndGet();
+            fetching.countDown();
+            try {
+                release.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "a";
+        });
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<String>> results = new ArrayList<>();
+            results.add(executor.submit(() -> cache.resolve(REFERENCE)));
+            fetching.await();
+            for (int i = 0; i < 3; i++) {
+                results.add(executor.submit(() -> cache.resolve(REFERENCE)));
+            }
+            Thread.sleep(100);
+            release.countDown();
+            for (final Future<String> result : results) {
+                assertEquals("a", result.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, fetches.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void incompleteFetchesFailEveryEntry() {
+        final SecretReference b = SecretReference.find("secret:test:b").get();
+        final CachingSecretResolver cache = cache(new SecretResolver() {
+            @Override
+            public String resolve(final SecretReference reference) {
+                return reference.body();
+            }
+
+            @Override
+            public List<String> resolveAll(final List<SecretReference> references) {
+                switch (fetches.incrementAndGet()) {
+                    case 1: return Collections.singletonList("a");
+                    case 2: throw new LinkageError("broken");
+                    default: return SecretResolver.super.resolveAll(references);
+                }
+            }
+        });
+        try {
+            cache.resolveAll(Arrays.asList(REFERENCE, b));
+            fail("Expected SecretHandlerException");
+        } catch (final SecretHandlerException e) {
+            assertEquals("Resolver returned 1 secrets for 2 references", e.getMessage());
+        }
+        try {
+            cache.resolveAll(Arrays.asList(REFERENCE, b));
+            fail("Expected LinkageError");
+        } catch (final LinkageError e) {
+            assertEquals("broken", e.getMessage());
+        }
+        // Neither failure left an entry behind for later callers to wait on.
+        assertEquals(Arrays.asList("a", "b"), cache.resolveAll(Arrays.asList(REFERENCE, b)));
+    }
+
+    @Test
+    public void fetchesMissingSecretsInOneBatch() {
+        final List<List<SecretReference>> batches = new ArrayList<>();
+        final CachingSecretResolver cache = cache(new SecretResolver() {
+            @Override
+            public String resolve(final SecretReference reference) {
+                throw new AssertionError("Expected a batch");
+            }
+
+            @Override
+            public List<String> resolveAll(final List<SecretReference> references) {
+                batches.add(references);
+                final List<String> secrets = new ArrayList<>();
+                for (final SecretReference reference : references) {
+                    secrets.add(reference.body());
+                }
+                return secrets;
+            }
+        });
+        final SecretReference b = SecretReference.find("secret:test:b").get();
+        assertEquals("a", cache.resolve(REFERENCE));
+        assertEquals(Arrays.asList("a", "b", "b"), cache.resolveAll(Arrays.asList(REFERENCE, b, b)));
+        assertEquals(2, batches.size());
+        assertEquals(Collections.singletonList(b), batches.get(1));
+    }
+}
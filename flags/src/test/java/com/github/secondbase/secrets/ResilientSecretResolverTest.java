@@ -0,0 +1,219 @@
+package com.github.secondbase.secrets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Test retries, timeouts, hedging and the circuit breaker of resilient secret fetches.
+ */
+public class ResilientSecretResolverTest {
+    private static final SecretReference REFERENCE = SecretReference.find("secret:test:a").get();
+
+    private final AtomicInteger calls = new AtomicInteger();
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @After
+    public void releaseStuckAttempts() {
+        release.countDown();
+    }
+
+    /**
+     * Block like a store client ignoring interrupts until the test is over.
+     */
+    private String stuck() {
+        calls.incrementAndGet();
+        boolean released = false;
+        while (!released) {
+            try {
+                released = release.await(10, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                // Ignored, like the HTTP clients do.
+            }
+        }
+        return "a";
+    }
+
+    private static void sleep(final long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    public void retriesFailedAttempts() {
+        final ResilientSecretResolver resolver = new ResilientSecretResolver(reference -> {
+            if (calls.incrementAndGet() < 3) {
+                throw new SecretHandlerException(
+                        "unavailable", new IOException("Connection refused"));
+            }
+            return "a";
+        }).setRetries(3, 1, 5, TimeUnit.MILLISECONDS);
+
+        assertEquals("a", resolver.resolve(REFERENCE));
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    public void timesOutSlowAttempts() {
+        final ResilientSecretResolver resolver = new ResilientSecretResolver(reference -> {
+            calls.incrementAndGet();
+            sleep(5000);
+            return "a";
+        }).setAttemptTimeout(50, TimeUnit.MILLISECONDS).setRetries(2, 1, 1, TimeUnit.MILLISECONDS);
+
+        try {
+            resolver.resolve(REFERENCE);
+            fail("Expected SecretHandlerException");
+        } catch (final SecretHandlerException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void hedgesSlowAttempt() {
+        final ResilientSecretResolver resolver = new ResilientSecretResolver(reference -> {
+            if (calls.incrementAndGet() == 1) {
+                sleep(5000);
+            }
+            return "a";
+        }).setHedgeDelay(20, TimeUnit.MILLISECONDS);
+
+        final long start = System.nanoTime();
+        assertEquals("a", resolver.resolve(REFERENCE));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void openCircuitServesLastFetchedSecret() {
+        final ResilientSecretResolver resolver = new ResilientSecretResolver(reference -> {
+            if (calls.incrementAndGet() > 1) {
+                throw new SecretHandlerException(
+                        "unavailable", new IOException("Connection refused"));
+            }
+            return "a";
+        }).setRetries(1, 0, 0, TimeUnit.MILLISECONDS)
+                .setCircuitBreaker(2, 1, TimeUnit.HOURS);
+
+        assertEquals("a", resolver.resolve(REFERENCE));
+        assertEquals("a", resolver.resolve(REFERENCE));
+        assertEquals("a", resolver.resolve(REFERENCE));
+        assertEquals(3, calls.get());
+        // The circuit is open, so the delegate is no longer called.
+        assertEquals("a", resolver.resolve(REFERENCE));
+        assertEquals(3, calls.get());
+
+        try {
+            resolver.resolve(SecretReference.find("secret:test:b").get());
+            fail("Expected SecretHandlerException");
+        } catch (final SecretHandlerException e) {
+            assertTrue(e.getMessage().startsWith("Circuit open"));
+        }
+    }
+
+    @Test
+    public void boundsAttemptsIgnoringInterrupts() {
+        final ResilientSecretResolver resolver = new ResilientSecretResolver(reference -> stuck())
+                .setAttemptTimeout(20, TimeUnit.MILLISECONDS)
+                .setRetries(1, 0, 0, TimeUnit.MILLISECONDS)
+                .setMaxConcurrentAttempts(2);
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                resolver.resolve(REFERENCE);
+                fail("Expected SecretHandlerException");
+            } catch (final SecretHandlerException e) {
+                assertTrue(e.getCause() instanceof TimeoutException);
+            }
+        }
+        // The third attempt waits for a thread, which the stuck attempts never give back.
+        try {
+            resolver.resolve(REFERENCE);
+            fail("Expected SecretHandlerException");
+        } catch (final SecretHandlerException e) {
+            assertTrue(e.getMessage().startsWith("No thread was free"));
+        }
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void queuedAttemptsDoNotOpenCircuit() throws Exception {
+        final ResilientSecretResolver resolver = new ResilientSecretResolver(reference -> {
+            calls.incrementAndGet();
+            sleep(20);
+            return "a";
+        }).setRetries(1, 0, 0, TimeUnit.MILLISECONDS)
+                .setCircuitBreaker(1, 1, TimeUnit.HOURS)
+                .setMaxConcurrentAttempts(1);
+
+        final ExecutorService callers = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<String>> secrets = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                secrets.add(callers.submit(() -> resolver.resolve(REFERENCE)));
+            }
+            for (final Future<String> secret : secrets) {
+                assertEquals("a", secret.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+        assertEquals(4, calls.get());
+    }
+
+    @Test
+    public void permanentFailuresAreNotRetriedOrCounted() {
+        final ResilientSecretResolver resolver = new ResilientSecretResolver(reference -> {
+            calls.incrementAndGet();
+            throw new SecretHandlerException("No secret found for: " + reference);
+        }).setRetries(3, 0, 0, TimeUnit.MILLISECONDS)
+                .setCircuitBreaker(2, 1, TimeUnit.HOURS);
+
+        for (int i = 0; i < 4; i++) {
+            try {
+                resolver.resolve(REFERENCE);
+                fail("Expected SecretHandlerException");
+            } catch (final SecretHandlerException e) {
+                assertTrue(e.getMessage().startsWith("No secret found"));
+            }
+        }
+        // Every fetch reached the delegate once: no retries, and the circuit stayed closed.
+        assertEquals(4, calls.get());
+    }
+
+    @Test
+    public void skipsHedgeWhileAttemptsAreStuck() {
+        final ResilientSecretResolver resolver = new ResilientSecretResolver(reference -> stuck())
+                .setAttemptTimeout(100, TimeUnit.MILLISECONDS)
+                .setRetries(1, 0, 0, TimeUnit.MILLISECONDS)
+                .setHedgeDelay(10, TimeUnit.MILLISECONDS);
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                resolver.resolve(REFERENCE);
+                fail("Expected SecretHandlerException");
+            } catch (final SecretHandlerException e) {
+                assertTrue(e.getCause() instanceof TimeoutException);
+            }
+        }
+        // The first fetch hedged, the second did not since both attempts were still stuck.
+        assertEquals(3, calls.get());
+    }
+}
@@ -0,0 +1,48 @@
+package com.github.secondbase.secrets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+
+/**
+ * Test secret reference scanning and dispatch by scheme.
+ */
+public class SecretReferenceTest {
+
+    @Test
+    public void find() {
+        final SecretReference reference
+                = SecretReference.find("--key=secret:s3:bucket:path/to:key").get();
+        assertEquals("s3", reference.scheme());
+        assertEquals("bucket:path/to:key", reference.body());
+        assertEquals(6, reference.start());
+        assertEquals("secret:s3:bucket:path/to:key", reference.toString());
+        assertEquals("--key=value", reference.substitute("value"));
+
+        // The first "secret:" followed by a scheme starts the reference.
+        assertEquals("secret", SecretReference.find("secret:secret:vault:a:b").get().scheme());
+        assertEquals("a:b", SecretReference.find("secret::secret:vault:a:b").get().body());
+
+        assertFalse(SecretReference.find(null).isPresent());
+        assertFalse(SecretReference.find("").isPresent());
+        assertFalse(SecretReference.find("secret:").isPresent());
+        assertFalse(SecretReference.find("secret:s3").isPresent());
+        assertFalse(SecretReference.find("secret::bucket:key").isPresent());
+        assertFalse(SecretReference.find("s3:bucket:key").isPresent());
+    }
+
+    @Test
+    public void registryDispatchesBySchemeAndSubstitutesLiterally() {
+        final SecretHandlerRegistry registry = new SecretHandlerRegistry()
+                .register("a", reference -> "$1\\" + reference.body())
+                .register("b", reference -> "b-" + reference.body());
+
+        assertArrayEquals(
+                new String[]{"--x", "$1\\$(3", "--y=b-value", "secret:c:unregistered", null},
+                registry.fetch(new String[]{
+                        "--x", "secret:a:$(3", "--y=secret:b:value", "secret:c:unregistered",
+                        null}));
+    }
+}
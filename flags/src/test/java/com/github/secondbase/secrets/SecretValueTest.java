@@ -0,0 +1,42 @@
+package com.github.secondbase.secrets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.CharBuffer;
+import org.junit.Test;
+
+/**
+ * Test reading and wiping secrets kept off the heap.
+ */
+public class SecretValueTest {
+
+    @Test
+    public void readsCharacters() {
+        final SecretValue secret = SecretValue.of("pässword");
+        assertEquals(8, secret.length());
+        assertEquals('ä', secret.charAt(1));
+        assertEquals("pässword", secret.asCharBuffer().toString());
+
+        final char[] chars = new char[10];
+        assertEquals(8, secret.copyTo(chars));
+        assertEquals("pässword", new String(chars, 0, 8));
+        assertEquals("SecretValue[****]", secret.toString());
+    }
+
+    @Test
+    public void closeWipesSecret() {
+        final SecretValue secret = SecretValue.of(new char[]{'a', 'b'});
+        final CharBuffer view = secret.asCharBuffer();
+        secret.close();
+        assertTrue(secret.isClosed());
+        assertEquals("\0\0", view.toString());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closedSecretCanNotBeRead() {
+        final SecretValue secret = SecretValue.of("a");
+        secret.close();
+        secret.charAt(0);
+    }
+}
@@ -0,0 +1,104 @@
+package com.github.secondbase.secrets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test serving secrets from an encrypted snapshot and fetching them again in the background.
+ */
+public class SnapshotSecretResolverTest {
+    private static final SecretReference REFERENCE = SecretReference.find("secret:test:a").get();
+    private static final SecretKey KEY = new SecretKeySpec(new byte[16], "AES");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicInteger fetches = new AtomicInteger();
+    private final List<Runnable> revalidations = new ArrayList<>();
+
+    private SnapshotSecretResolver snapshot(final Path file, final SecretResolver delegate) {
+        return new SnapshotSecretResolver(delegate, file, KEY, revalidations::add);
+    }
+
+    @Test
+    public void servesSnapshotAndRevalidatesInBackground() throws Exception {
+        final Path file = folder.getRoot().toPath().resolve("secrets.snapshot");
+        assertEquals("a1", snapshot(file, reference -> "a" + fetches.incrementAndGet())
+                .resolve(REFERENCE));
+        assertTrue(Files.exists(file));
+        assertFalse(new String(Files.readAllBytes(file), StandardCharsets.ISO_8859_1)
+                .contains("a1"));
+
+        // After a restart the secret is served from the snapshot while the store is down.
+        final SnapshotSecretResolver restarted = snapshot(file, reference -> {
+            throw new SecretHandlerException("unavailable");
+        });
+        assertEquals("a1", restarted.resolve(REFERENCE));
+        revalidations.get(0).run();
+        assertEquals("a1", restarted.resolve(REFERENCE));
+
+        // Once the store is back, a changed secret replaces the one in the snapshot.
+        final List<String> changes = new ArrayList<>();
+        final SnapshotSecretResolver recovered = snapshot(file, reference -> "a2")
+                .addChangeListener((reference, secret) -> changes.add(secret));
+        assertEquals("a1", recovered.resolve(REFERENCE));
+        revalidations.get(1).run();
+        assertEquals("a2", recovered.resolve(REFERENCE));
+        assertEquals(1, changes.size());
+        assertEquals("a2", snapshot(file, reference -> "a3").resolve(REFERENCE));
+    }
+
+    @Test
+    public void passesThroughOnceRevalidated() throws Exception {
+        final Path file = folder.getRoot().toPath().resolve("secrets.snapshot");
+        snapshot(file, reference -> "a1").resolve(REFERENCE);
+
+        final String[] current = {"a2"};
+        final SnapshotSecretResolver restarted = snapshot(file, reference -> {
+            fetches.incrementAndGet();
+            if (current[0] == null) {
+                throw new SecretHandlerException("unavailable");
+            }
+            return current[0];
+        });
+        assertEquals("a1", restarted.resolve(REFERENCE));
+        revalidations.get(0).run();
+        assertEquals(1, fetches.get());
+
+        // Rotated secrets are fetched from the delegate, not served from the snapshot.
+        current[0] = "a3";
+        assertEquals("a3", restarted.resolve(REFERENCE));
+        assertEquals(2, fetches.get());
+        assertEquals(1, revalidations.size());
+
+        // While the delegate fails, the snapshot is the fallback.
+        current[0] = null;
+        assertEquals("a3", restarted.resolve(REFERENCE));
+        assertEquals("a3", snapshot(file, reference -> "a4").resolve(REFERENCE));
+    }
+
+    @Test
+    public void ignoresSnapshotEncryptedWithOtherKey() throws Exception {
+        final Path file = folder.getRoot().toPath().resolve("secrets.snapshot");
+        snapshot(file, reference -> "a1").resolve(REFERENCE);
+
+        final SnapshotSecretResolver otherKey = new SnapshotSecretResolver(
+                reference -> "b1", file, new SecretKeySpec(new byte[32], "AES"),
+                revalidations::add);
+        assertEquals("b1", otherKey.resolve(REFERENCE));
+        assertTrue(revalidations.isEmpty());
+    }
+}
@@ -0,0 +1,75 @@
+package com.github.secondbase.jvm;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Histogram;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Records the duration of every garbage collection as it is reported by the collectors' JMX
+ * notifications, rather than polling totals, so individual long pauses show up in the histogram.
+ * Durations are the time the collection took, which for concurrent collectors is not all pause.
+ */
+final class GcPauseListener implements NotificationListener {
+    private static final double MILLIS_PER_SECOND = 1000;
+
+    private final Histogram pauses;
+    private final List<NotificationEmitter> emitters = new ArrayList<>();
+
+    GcPauseListener(final CollectorRegistry registry) {
+        pauses = Histogram.build()
+                .name("jvm_gc_pause_seconds")
+                .help("Time spent in garbage collections, by collector, action and cause.")
+                .labelNames("gc", "action", "cause")
+                .buckets(.001, .005, .01, .025, .05, .1, .25, .5, 1, 2.5, 5, 10)
+                .register(registry);
+    }
+
+    Histogram histogram() {
+        return pauses;
+    }
+
+    /**
+     * Start listening to the notifications of every garbage collector which sends them.
+     */
+    synchronized void start() {
+        for (final GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc instanceof NotificationEmitter) {
+                final NotificationEmitter emitter = (NotificationEmitter) gc;
+                emitter.addNotificationListener(this, null, null);
+                emitters.add(emitter);
+            }
+        }
+    }
+
+    synchronized void stop() {
+        for (final NotificationEmitter emitter : emitters) {
+            try {
+                emitter.removeNotificationListener(this);
+            } catch (final ListenerNotFoundException e) {
+                // Already removed.
+            }
+        }
+        emitters.clear();
+    }
+
+    @Override
+    public void handleNotification(final Notification notification, final Object handback) {
+        if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION
+                .equals(notification.getType())) {
+            return;
+        }
+        final GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from(
+                (CompositeData) notification.getUserData());
+        pauses.labels(info.getGcName(), info.getGcAction(), info.getGcCause())
+                .observe(info.getGcInfo().getDuration() / MILLIS_PER_SECOND);
+    }
+}
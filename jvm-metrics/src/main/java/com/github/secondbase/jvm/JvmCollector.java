@@ -0,0 +1,344 @@
+package com.github.secondbase.jvm;
+
+import io.prometheus.client.Collector;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads the state of the JVM from its management beans on every scrape: memory areas and pools,
+ * direct and mapped buffer pools, threads by state, bytes allocated, class loading and JIT
+ * compilation time.
+ *
+ * Threads are counted by state from the live threads themselves, without taking thread dumps.
+ * The bytes allocated are summed from the counters of the threads alive at each scrape, so what
+ * a thread allocates after the last scrape before it ends is not counted. The arrays used to
+ * enumerate threads, and the samples of each family, are kept between scrapes; a family's
+ * samples are only built again when one of its values changes.
+ */
+final class JvmCollector extends Collector {
+    private static final double MILLIS_PER_SECOND = 1000;
+    private static final Thread.State[] STATES = Thread.State.values();
+    private static final List<String> NO_LABELS = Collections.emptyList();
+
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final List<MemoryPoolMXBean> memoryPools = ManagementFactory.getMemoryPoolMXBeans();
+    private final List<BufferPoolMXBean> bufferPools =
+            ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class);
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final ClassLoadingMXBean classLoading = ManagementFactory.getClassLoadingMXBean();
+    private final CompilationMXBean compilation = ManagementFactory.getCompilationMXBean();
+    private final boolean perThreadAllocation;
+
+    // Reused between scrapes, guarded by this.
+    private final Family memoryUsed;
+    private final Family memoryCommitted;
+    private final Family poolUsed;
+    private final Family poolCommitted;
+    private final Family poolMax;
+    private final Family bufferUsed;
+    private final Family bufferCapacity;
+    private final Family bufferCount;
+    private final Family threadsCurrent;
+    private final Family threadsDaemon;
+    private final Family threadsPeak;
+    private final Family threadStates;
+    private final Family allocated;
+    private final Family classesLoaded;
+    private final Family classesLoadedTotal;
+    private final Family classesUnloaded;
+    private final Family compilationTime;
+    private Thread[] liveThreads = new Thread[64];
+    private final int[] stateCounts = new int[STATES.length];
+    private long[] threadIds = new long[0];
+    private long[] previousIds = new long[0];
+    private long[] previousBytes = new long[0];
+    private long allocatedTotal;
+
+    JvmCollector(final boolean perThreadAllocation) {
+        this.perThreadAllocation = perThreadAllocation;
+        memoryUsed = new Family("jvm_memory_bytes_used", Type.GAUGE,
+                "Bytes used by the heap and by memory outside it.", "area", "heap", "nonheap");
+        memoryCommitted = new Family("jvm_memory_bytes_committed", Type.GAUGE,
+                "Bytes committed to the heap and to memory outside it.",
+                "area", "heap", "nonheap");
+
+        final String[] memoryPoolNames = new String[memoryPools.size()];
+        for (int i = 0; i < memoryPoolNames.length; i++) {
+            memoryPoolNames[i] = memoryPools.get(i).getName();
+        }
+        poolUsed = new Family("jvm_memory_pool_bytes_used", Type.GAUGE,
+                "Bytes used in each memory pool.", "pool", memoryPoolNames);
+        poolCommitted = new Family("jvm_memory_pool_bytes_committed", Type.GAUGE,
+                "Bytes committed to each memory pool.", "pool", memoryPoolNames);
+        poolMax = new Family("jvm_memory_pool_bytes_max", Type.GAUGE,
+                "The most bytes each memory pool may use, -1 if unbounded.",
+                "pool", memoryPoolNames);
+
+        final String[] bufferPoolNames = new String[bufferPools.size()];
+        for (int i = 0; i < bufferPoolNames.length; i++) {
+            bufferPoolNames[i] = bufferPools.get(i).getName();
+        }
+        bufferUsed = new Family("jvm_buffer_pool_used_bytes", Type.GAUGE,
+                "Bytes used by the direct and mapped buffers of each pool.",
+                "pool", bufferPoolNames);
+        bufferCapacity = new Family("jvm_buffer_pool_capacity_bytes", Type.GAUGE,
+                "Total capacity of the buffers of each pool.", "pool", bufferPoolNames);
+        bufferCount = new Family("jvm_buffer_pool_used_buffers", Type.GAUGE,
+                "Buffers in each pool.", "pool", bufferPoolNames);
+
+        threadsCurrent = new Family("jvm_threads_current", Type.GAUGE,
+                "Live threads, daemon or not.");
+        threadsDaemon = new Family("jvm_threads_daemon", Type.GAUGE,
+                "Live daemon threads.");
+        threadsPeak = new Family("jvm_threads_peak", Type.GAUGE,
+                "The most live threads since the JVM started.");
+        final String[] stateNames = new String[STATES.length];
+        for (final Thread.State state : STATES) {
+            stateNames[state.ordinal()] = state.name();
+        }
+        threadStates = new Family("jvm_threads_state", Type.GAUGE,
+                "Live threads in each state.", "state", stateNames);
+        allocated = new Family("jvm_allocated_bytes_total", Type.COUNTER,
+                "Bytes allocated by threads alive at scrapes.");
+
+        classesLoaded = new Family("jvm_classes_loaded", Type.GAUGE,
+                "Classes currently loaded.");
+        classesLoadedTotal = new Family("jvm_classes_loaded_total", Type.COUNTER,
+                "Classes loaded since the JVM started.");
+        classesUnloaded = new Family("jvm_classes_unloaded_total", Type.COUNTER,
+                "Classes unloaded since the JVM started.");
+        compilationTime = new Family("jvm_compilation_time_seconds_total", Type.COUNTER,
+                "Time spent compiling by the JIT compiler.");
+    }
+
+    @Override
+    public synchronized List<MetricFamilySamples> collect() {
+        final List<MetricFamilySamples> families = new ArrayList<>(20);
+        collectMemory(families);
+        collectBufferPools(families);
+        collectThreads(families);
+        families.add(classesLoaded.set(0, classLoading.getLoadedClassCount()).samples());
+        families.add(classesLoadedTotal.set(0, classLoading.getTotalLoadedClassCount()).samples());
+        families.add(classesUnloaded.set(0, classLoading.getUnloadedClassCount()).samples());
+        if (compilation != null && compilation.isCompilationTimeMonitoringSupported()) {
+            families.add(compilationTime.set(
+                    0, compilation.getTotalCompilationTime() / MILLIS_PER_SECOND).samples());
+        }
+        return families;
+    }
+
+    private void collectMemory(final List<MetricFamilySamples> families) {
+        final MemoryUsage heap = memory.getHeapMemoryUsage();
+        final MemoryUsage nonHeap = memory.getNonHeapMemoryUsage();
+        families.add(memoryUsed.set(0, heap.getUsed()).set(1, nonHeap.getUsed()).samples());
+        families.add(memoryCommitted
+                .set(0, heap.getCommitted()).set(1, nonHeap.getCommitted()).samples());
+
+        for (int i = 0; i < memoryPools.size(); i++) {
+            final MemoryUsage usage = memoryPools.get(i).getUsage();
+            // An invalid pool has no usage, and is left out.
+            poolUsed.set(i, usage == null ? Double.NaN : usage.getUsed());
+            poolCommitted.set(i, usage == null ? Double.NaN : usage.getCommitted());
+            poolMax.set(i, usage == null ? Double.NaN : usage.getMax());
+        }
+        families.add(poolUsed.samples());
+        families.add(poolCommitted.samples());
+        families.add(poolMax.samples());
+    }
+
+    private void collectBufferPools(final List<MetricFamilySamples> families) {
+        for (int i = 0; i < bufferPools.size(); i++) {
+            final BufferPoolMXBean bufferPool = bufferPools.get(i);
+            bufferUsed.set(i, bufferPool.getMemoryUsed());
+            bufferCapacity.set(i, bufferPool.getTotalCapacity());
+            bufferCount.set(i, bufferPool.getCount());
+        }
+        families.add(bufferUsed.samples());
+        families.add(bufferCapacity.samples());
+        families.add(bufferCount.samples());
+    }
+
+    private void collectThreads(final List<MetricFamilySamples> families) {
+        families.add(threadsCurrent.set(0, threads.getThreadCount()).samples());
+        families.add(threadsDaemon.set(0, threads.getDaemonThreadCount()).samples());
+        families.add(threadsPeak.set(0, threads.getPeakThreadCount()).samples());
+
+        final int count = enumerateThreads();
+        Arrays.fill(stateCounts, 0);
+        for (int i = 0; i < count; i++) {
+            stateCounts[liveThreads[i].getState().ordinal()]++;
+        }
+        for (int i = 0; i < stateCounts.length; i++) {
+            threadStates.set(i, stateCounts[i]);
+        }
+        families.add(threadStates.samples());
+
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            collectAllocation(families, (com.sun.management.ThreadMXBean) threads, count);
+        }
+        Arrays.fill(liveThreads, 0, count, null);
+    }
+
+    /**
+     * Enumerate the live threads into the reused array, growing it when they do not fit.
+     * @return the number of threads enumerated
+     */
+    private int enumerateThreads() {
+        ThreadGroup root = Thread.currentThread().getThreadGroup();
+        while (root.getParent() != null) {
+            root = root.getParent();
+        }
+        int count = root.enumerate(liveThreads, true);
+        while (count == liveThreads.length) {
+            liveThreads = new Thread[liveThreads.length * 2];
+            count = root.enumerate(liveThreads, true);
+        }
+        return count;
+    }
+
+    private void collectAllocation(
+            final List<MetricFamilySamples> families,
+            final com.sun.management.ThreadMXBean allocation,
+            final int count) {
+        if (!allocation.isThreadAllocatedMemorySupported()
+                || !allocation.isThreadAllocatedMemoryEnabled()) {
+            return;
+        }
+        if (threadIds.length != count) {
+            threadIds = new long[count];
+        }
+        for (int i = 0; i < count; i++) {
+            threadIds[i] = liveThreads[i].getId();
+        }
+        final long[] bytes = allocation.getThreadAllocatedBytes(threadIds);
+
+        // Add what each thread allocated since the last scrape, looking up its previous count
+        // among the previous threads sorted by id.
+        for (int i = 0; i < count; i++) {
+            if (bytes[i] < 0) {
+                continue;
+            }
+            final int previous = Arrays.binarySearch(previousIds, threadIds[i]);
+            allocatedTotal += previous >= 0 ? bytes[i] - previousBytes[previous] : bytes[i];
+        }
+        families.add(allocated.set(0, allocatedTotal).samples());
+
+        // Threads come and go, so these samples are built on every scrape.
+        if (perThreadAllocation) {
+            final List<String> thread = Collections.singletonList("thread");
+            final List<MetricFamilySamples.Sample> perThread = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                if (bytes[i] >= 0) {
+                    perThread.add(new MetricFamilySamples.Sample("jvm_thread_allocated_bytes",
+                            thread, Collections.singletonList(liveThreads[i].getName()),
+                            bytes[i]));
+                }
+            }
+            families.add(new MetricFamilySamples("jvm_thread_allocated_bytes", Type.GAUGE,
+                    "Bytes allocated by each live thread since it started.", perThread));
+        }
+
+        rememberAllocation(bytes, count);
+    }
+
+    /**
+     * Keep the counts of this scrape sorted by thread id, reusing the arrays of the last one.
+     */
+    private void rememberAllocation(final long[] bytes, final int count) {
+        if (previousIds.length != count) {
+            previousIds = new long[count];
+            previousBytes = new long[count];
+        }
+        // Thread ids are mostly enumerated in increasing order, so insertion sort is cheap.
+        for (int i = 0; i < count; i++) {
+            int j = i;
+            while (j > 0 && previousIds[j - 1] > threadIds[i]) {
+                previousIds[j] = previousIds[j - 1];
+                previousBytes[j] = previousBytes[j - 1];
+                j--;
+            }
+            previousIds[j] = threadIds[i];
+            previousBytes[j] = Math.max(0, bytes[i]);
+        }
+    }
+
+    /**
+     * The samples of a metric family with at most one label, whose values are known up front.
+     * The samples handed out are never changed, so a scrape still writing them out is not
+     * affected by the next one; they are replaced when a value changes.
+     */
+    private static final class Family {
+        private final String name;
+        private final Type type;
+        private final String help;
+        private final List<String> labelNames;
+        private final List<List<String>> labelValues;
+        private final double[] values;
+        private MetricFamilySamples samples;
+
+        /**
+         * @param labelValues the value of the label of each sample
+         */
+        Family(
+                final String name,
+                final Type type,
+                final String help,
+                final String labelName,
+                final String... labelValues) {
+            this.name = name;
+            this.type = type;
+            this.help = help;
+            this.labelNames = Collections.singletonList(labelName);
+            this.labelValues = new ArrayList<>(labelValues.length);
+            for (final String labelValue : labelValues) {
+                this.labelValues.add(Collections.singletonList(labelValue));
+            }
+            this.values = new double[labelValues.length];
+        }
+
+        Family(final String name, final Type type, final String help) {
+            this.name = name;
+            this.type = type;
+            this.help = help;
+            this.labelNames = NO_LABELS;
+            this.labelValues = Collections.singletonList(NO_LABELS);
+            this.values = new double[1];
+        }
+
+        /**
+         * @param value the value of the sample, NaN to leave it out
+         */
+        Family set(final int index, final double value) {
+            if (Double.compare(values[index], value) != 0) {
+                values[index] = value;
+                samples = null;
+            }
+            return this;
+        }
+
+        MetricFamilySamples samples() {
+            if (samples == null) {
+                final List<MetricFamilySamples.Sample> list = new ArrayList<>(values.length);
+                for (int i = 0; i < values.length; i++) {
+                    if (!Double.isNaN(values[i])) {
+                        list.add(new MetricFamilySamples.Sample(
+                                name, labelNames, labelValues.get(i), values[i]));
+                    }
+                }
+                samples = new MetricFamilySamples(
+                        name, type, help, Collections.unmodifiableList(list));
+            }
+            return samples;
+        }
+    }
+}
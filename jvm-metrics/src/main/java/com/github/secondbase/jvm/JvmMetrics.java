@@ -0,0 +1,76 @@
+package com.github.secondbase.jvm;
+
+import com.github.secondbase.core.SecondBase;
+import com.github.secondbase.core.config.SecondBaseModule;
+import io.prometheus.client.CollectorRegistry;
+
+/**
+ * Registers metrics of the running JVM in a Prometheus registry: garbage collection pauses,
+ * memory and buffer pools, threads by state, bytes allocated, class loading and JIT compilation.
+ *
+ * GC pauses are recorded as they happen from the collectors' notifications. Everything else is
+ * read from the management beans when the registry is scraped, which needs no threads of its own
+ * and allocates little more than the samples themselves.
+ *
+ * final SecondBaseModule[] modules = {new JvmMetrics(), new PrometheusWebConsole(), ...};
+ */
+public final class JvmMetrics implements SecondBaseModule, AutoCloseable {
+    private final CollectorRegistry registry;
+    private JvmCollector collector;
+    private GcPauseListener gcPauses;
+
+    /**
+     * Register the metrics in the default registry.
+     */
+    public JvmMetrics() {
+        this(CollectorRegistry.defaultRegistry);
+    }
+
+    /**
+     * Register the metrics in the given registry.
+     * @param registry the registry to register the metrics in
+     */
+    public JvmMetrics(final CollectorRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public void load(final SecondBase secondBase) {
+        secondBase.getFlags().loadOpts(JvmMetricsConfiguration.class);
+    }
+
+    @Override
+    public void init() {
+        if (JvmMetricsConfiguration.enabled) {
+            start();
+        }
+    }
+
+    /**
+     * Register the metrics and start listening to garbage collections. Does nothing if started.
+     */
+    public synchronized void start() {
+        if (collector != null) {
+            return;
+        }
+        collector = new JvmCollector(JvmMetricsConfiguration.perThreadAllocation);
+        registry.register(collector);
+        gcPauses = new GcPauseListener(registry);
+        gcPauses.start();
+    }
+
+    /**
+     * Stop listening to garbage collections and remove the metrics from the registry.
+     */
+    @Override
+    public synchronized void close() {
+        if (collector == null) {
+            return;
+        }
+        gcPauses.stop();
+        registry.unregister(gcPauses.histogram());
+        registry.unregister(collector);
+        collector = null;
+        gcPauses = null;
+    }
+}
@@ -0,0 +1,25 @@
+package com.github.secondbase.jvm;
+
+import com.github.secondbase.flags.Flag;
+
+/**
+ * Configuration parameters for the JVM metrics module.
+ */
+public final class JvmMetricsConfiguration {
+
+    private JvmMetricsConfiguration() {
+    }
+
+    @Flag(
+            name = "jvm-metrics",
+            description = "Register metrics of the JVM, such as GC pauses, memory and threads. "
+                    + "Their names are those of simpleclient_hotspot, so do not turn this on "
+                    + "alongside its DefaultExports.")
+    public static boolean enabled = false;
+
+    @Flag(
+            name = "jvm-metrics-thread-allocation",
+            description = "Export the bytes allocated by each live thread, labelled by thread "
+                    + "name. The total allocated by all threads is always exported.")
+    public static boolean perThreadAllocation = false;
+}
@@ -0,0 +1,76 @@
+package com.github.secondbase.jvm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import io.prometheus.client.Collector.MetricFamilySamples;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Test that the samples of unchanged metrics are kept between scrapes.
+ */
+public class JvmCollectorTest {
+
+    @Test
+    public void keepsSamplesWhileValuesDoNotChange() {
+        final JvmCollector collector = new JvmCollector(false);
+        final MetricFamilySamples peak = family(collector.collect(), "jvm_threads_peak");
+        assertSame(peak, family(collector.collect(), "jvm_threads_peak"));
+        assertEquals(Thread.State.values().length,
+                family(collector.collect(), "jvm_threads_state").samples.size());
+    }
+
+    @Test
+    public void rebuildsSamplesWhenValuesChange() throws InterruptedException {
+        final JvmCollector collector = new JvmCollector(false);
+        final MetricFamilySamples before = family(collector.collect(), "jvm_threads_current");
+
+        final Thread thread = new Thread(() -> {
+            try {
+                Thread.sleep(10_000);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        thread.start();
+        try {
+            final MetricFamilySamples after = family(collector.collect(), "jvm_threads_current");
+            assertNotSame(before, after);
+            assertTrue(after.samples.get(0).value > before.samples.get(0).value);
+        } finally {
+            thread.interrupt();
+            thread.join();
+        }
+    }
+
+    @Test
+    public void exportsAllocationByThreadWhenAsked() {
+        final List<MetricFamilySamples> families = new JvmCollector(true).collect();
+        if (family(families, "jvm_allocated_bytes_total") == null) {
+            // Allocation is not measured by this JVM.
+            return;
+        }
+        final MetricFamilySamples perThread = family(families, "jvm_thread_allocated_bytes");
+        assertNotNull(perThread);
+        boolean found = false;
+        for (final MetricFamilySamples.Sample sample : perThread.samples) {
+            found |= sample.labelValues.get(0).equals(Thread.currentThread().getName());
+        }
+        assertTrue(found);
+    }
+
+    private static MetricFamilySamples family(
+            final List<MetricFamilySamples> families,
+            final String name) {
+        for (final MetricFamilySamples family : families) {
+            if (family.name.equals(name)) {
+                return family;
+            }
+        }
+        return null;
+    }
+}
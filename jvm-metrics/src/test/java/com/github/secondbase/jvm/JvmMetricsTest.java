@@ -0,0 +1,88 @@
+package com.github.secondbase.jvm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import io.prometheus.client.Collector.MetricFamilySamples;
+import io.prometheus.client.CollectorRegistry;
+import java.util.Collections;
+import org.junit.Test;
+
+public class JvmMetricsTest {
+
+    @Test
+    public void collectJvmMetrics() throws Exception {
+        final CollectorRegistry registry = new CollectorRegistry();
+        final JvmMetrics metrics = new JvmMetrics(registry);
+        metrics.start();
+        metrics.start();
+
+        assertTrue(registry.getSampleValue("jvm_memory_bytes_used",
+                new String[]{"area"}, new String[]{"heap"}) > 0);
+        assertTrue(registry.getSampleValue("jvm_threads_current") > 0);
+        assertTrue(registry.getSampleValue("jvm_threads_state",
+                new String[]{"state"}, new String[]{"RUNNABLE"}) >= 1);
+        assertTrue(registry.getSampleValue("jvm_classes_loaded") > 0);
+        assertNotNull(registry.getSampleValue("jvm_buffer_pool_used_bytes",
+                new String[]{"pool"}, new String[]{"direct"}));
+
+        final Double allocated = registry.getSampleValue("jvm_allocated_bytes_total");
+        if (allocated != null) {
+            final byte[][] garbage = new byte[64][];
+            for (int i = 0; i < garbage.length; i++) {
+                garbage[i] = new byte[16 * 1024];
+            }
+            assertEquals(64, garbage.length);
+            assertTrue(registry.getSampleValue("jvm_allocated_bytes_total")
+                    >= allocated + 64 * 16 * 1024);
+        }
+
+        System.gc();
+        final long deadline = System.currentTimeMillis() + 5000;
+        double collections = 0;
+        while (System.currentTimeMillis() < deadline) {
+            collections = sum(registry, "jvm_gc_pause_seconds_count");
+            if (collections > 0) {
+                break;
+            }
+            Thread.sleep(10);
+        }
+        assertTrue(collections > 0);
+
+        metrics.close();
+        assertNull(registry.getSampleValue("jvm_threads_current"));
+    }
+
+    @Test
+    public void registersNothingUnlessEnabled() {
+        final CollectorRegistry registry = new CollectorRegistry();
+        final JvmMetrics metrics = new JvmMetrics(registry);
+        metrics.init();
+        assertNull(registry.getSampleValue("jvm_threads_current"));
+
+        JvmMetricsConfiguration.enabled = true;
+        try {
+            metrics.init();
+            assertNotNull(registry.getSampleValue("jvm_threads_current"));
+        } finally {
+            JvmMetricsConfiguration.enabled = false;
+            metrics.close();
+        }
+    }
+
+    private static double sum(final CollectorRegistry registry, final String name) {
+        double sum = 0;
+        for (final MetricFamilySamples family
+                : Collections.list(registry.metricFamilySamples())) {
+            for (final MetricFamilySamples.Sample sample
+                    : family.samples) {
+                if (sample.name.equals(name)) {
+                    sum += sample.value;
+                }
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,198 @@
+package com.github.secondbase.webconsole;
+
+import io.prometheus.client.Collector;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects a group of collectors concurrently on a bounded pool, so one slow collector does not
+ * hold up the others. Each collector must finish within the timeout, counted from the start of
+ * the scrape; the metrics of collectors which fail or time out are left out of the scrape. A
+ * collector still running from an earlier scrape is not started again until it finishes.
+ *
+ * Every scrape also exposes how each collector went:
+ *
+ * scrape_collector_duration_seconds{collector="..."}  time taken from the start of the scrape
+ *                                                     which started it, or until given up on
+ * scrape_collector_success{collector="..."}           1 if the collector succeeded, else 0
+ *
+ * new ConcurrentCollectors()
+ *     .add("database", new DatabaseCollector())
+ *     .add("queue", new QueueCollector())
+ *     .setTimeout(2, TimeUnit.SECONDS)
+ *     .register();
+ */
+public final class ConcurrentCollectors extends Collector {
+    private static final Logger LOG = LoggerFactory.getLogger(ConcurrentCollectors.class);
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final List<String> LABEL = Collections.singletonList("collector");
+
+    private final LongSupplier nanoClock;
+    private final Map<String, Collector> collectors = new LinkedHashMap<>();
+    // The run of each collector started by the last scrape. Guarded by this.
+    private final Map<String, CollectorRun> running = new LinkedHashMap<>();
+    private int threads = 4;
+    private long timeoutNanos = TimeUnit.SECONDS.toNanos(5);
+    // Created on the first scrape. Guarded by this.
+    private ExecutorService executor;
+
+    public ConcurrentCollectors() {
+        this(System::nanoTime);
+    }
+
+    ConcurrentCollectors(final LongSupplier nanoClock) {
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Add a collector to the group.
+     * @param name the name of the collector, the value of the collector label
+     * @param collector the collector, which must not be registered anywhere else
+     * @return this
+     */
+    public synchronized ConcurrentCollectors add(final String name, final Collector collector) {
+        if (collectors.containsKey(name)) {
+            throw new IllegalArgumentException("Collector already added: " + name);
+        }
+        collectors.put(name, collector);
+        return this;
+    }
+
+    /**
+     * @param threads the number of collectors run at once, 4 by default
+     * @return this
+     */
+    public synchronized ConcurrentCollectors setThreads(final int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Threads must be at least 1: " + threads);
+        }
+        if (executor != null) {
+            throw new IllegalStateException("Threads must be set before the first scrape");
+        }
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * @param timeout the time each collector has to finish, 5 seconds by default
+     * @param unit the unit of the timeout
+     * @return this
+     */
+    public synchronized ConcurrentCollectors setTimeout(final long timeout, final TimeUnit unit) {
+        this.timeoutNanos = unit.toNanos(timeout);
+        return this;
+    }
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+        final long deadline;
+        final Map<String, CollectorRun> runs;
+        synchronized (this) {
+            final long start = nanoClock.getAsLong();
+            deadline = start + timeoutNanos;
+            if (executor == null) {
+                final AtomicInteger count = new AtomicInteger();
+                executor = Executors.newFixedThreadPool(threads, r -> {
+                    final Thread thread = new Thread(
+                            r, "metrics-collector-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            for (final Map.Entry<String, Collector> collector : collectors.entrySet()) {
+                final CollectorRun previous = running.get(collector.getKey());
+                if (previous == null || previous.hasStopped()) {
+                    running.put(collector.getKey(), new CollectorRun(collector.getValue(), start));
+                }
+            }
+            runs = new LinkedHashMap<>(running);
+        }
+
+        final List<MetricFamilySamples> families = new ArrayList<>();
+        final List<MetricFamilySamples.Sample> durations = new ArrayList<>();
+        final List<MetricFamilySamples.Sample> successes = new ArrayList<>();
+        for (final Map.Entry<String, CollectorRun> entry : runs.entrySet()) {
+            final String name = entry.getKey();
+            final CollectorRun run = entry.getValue();
+            boolean success = false;
+            try {
+                families.addAll(run.future
+                        .get(deadline - nanoClock.getAsLong(), TimeUnit.NANOSECONDS));
+                success = true;
+            } catch (final TimeoutException e) {
+                LOG.warn("Collector " + name + " did not finish in time, leaving it out");
+                run.future.cancel(true);
+            } catch (final ExecutionException | CancellationException e) {
+                LOG.warn("Collector " + name + " failed, leaving it out", e);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                run.future.cancel(true);
+            }
+            final List<String> value = Collections.singletonList(name);
+            durations.add(new MetricFamilySamples.Sample("scrape_collector_duration_seconds",
+                    LABEL, value, run.elapsedNanos() / NANOS_PER_SECOND));
+            successes.add(new MetricFamilySamples.Sample("scrape_collector_success",
+                    LABEL, value, success ? 1 : 0));
+        }
+        families.add(new MetricFamilySamples("scrape_collector_duration_seconds", Type.GAUGE,
+                "Time taken by each collector during the last scrape.", durations));
+        families.add(new MetricFamilySamples("scrape_collector_success", Type.GAUGE,
+                "Whether each collector succeeded during the last scrape.", successes));
+        return families;
+    }
+
+    /**
+     * A collector being collected on the pool, timed from the start of the scrape which started
+     * it, as its timeout is.
+     */
+    private final class CollectorRun {
+        private final Future<List<MetricFamilySamples>> future;
+        private final long startedAt;
+        private volatile long finishedAt;
+        private volatile boolean finished;
+        private final AtomicBoolean started = new AtomicBoolean();
+
+        // Only called holding the lock of the enclosing instance.
+        CollectorRun(final Collector collector, final long startedAt) {
+            this.startedAt = startedAt;
+            future = executor.submit(() -> {
+                if (!started.compareAndSet(false, true)) {
+                    return Collections.emptyList();
+                }
+                try {
+                    return collector.collect();
+                } finally {
+                    finishedAt = nanoClock.getAsLong();
+                    finished = true;
+                }
+            });
+        }
+
+        /**
+         * A cancelled run is done at once while its collector may keep running, ignoring
+         * the interrupt, so it has only stopped once the collector returns or if it never started.
+         */
+        boolean hasStopped() {
+            return finished || future.isDone() && started.compareAndSet(false, true);
+        }
+
+        long elapsedNanos() {
+            return (finished ? finishedAt : nanoClock.getAsLong()) - startedAt;
+        }
+    }
+}
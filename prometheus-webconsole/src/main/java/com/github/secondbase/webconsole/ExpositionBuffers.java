@@ -0,0 +1,79 @@
+package com.github.secondbase.webconsole;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * A few byte buffers reused between scrapes, so rendering metrics does not allocate a buffer the
+ * size of the exposition on every scrape. A buffer grows to fit the largest exposition rendered
+ * into it and keeps its size, unless it grew beyond what is worth holding on to.
+ */
+final class ExpositionBuffers {
+    private static final int INITIAL_BYTES = 64 * 1024;
+    private static final int MAX_POOLED = 4;
+    private static final int MAX_POOLED_BYTES = 16 * 1024 * 1024;
+
+    private final Deque<ByteArrayOutputStream> pool = new ConcurrentLinkedDeque<>();
+
+    /**
+     * @return an empty buffer, to be given back with {@link #release(ByteArrayOutputStream)}
+     */
+    ByteArrayOutputStream take() {
+        final ByteArrayOutputStream buffer = pool.pollFirst();
+        if (buffer == null) {
+            return new ByteArrayOutputStream(INITIAL_BYTES);
+        }
+        buffer.reset();
+        return buffer;
+    }
+
+    void release(final ByteArrayOutputStream buffer) {
+        if (buffer.size() <= MAX_POOLED_BYTES && pool.size() < MAX_POOLED) {
+            pool.offerFirst(buffer);
+        }
+    }
+
+    /**
+     * Write through a buffer, sending it on in chunks of a fixed size.
+     * @param buffer the buffer to gather chunks in
+     * @param out the stream to send chunks to
+     * @param chunkBytes the size of the chunks
+     * @return a stream which sends what is left in the buffer when flushed
+     */
+    static OutputStream chunking(
+            final ByteArrayOutputStream buffer,
+            final OutputStream out,
+            final int chunkBytes) {
+        return new OutputStream() {
+            @Override
+            public void write(final int b) throws IOException {
+                buffer.write(b);
+                if (buffer.size() >= chunkBytes) {
+                    drain();
+                }
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                buffer.write(b, off, len);
+                if (buffer.size() >= chunkBytes) {
+                    drain();
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                drain();
+                out.flush();
+            }
+
+            private void drain() throws IOException {
+                buffer.writeTo(out);
+                buffer.reset();
+            }
+        };
+    }
+}
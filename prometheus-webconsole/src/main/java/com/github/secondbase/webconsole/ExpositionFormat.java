@@ -0,0 +1,111 @@
+package com.github.secondbase.webconsole;
+
+import io.prometheus.client.Collector.MetricFamilySamples;
+import io.prometheus.client.exporter.common.TextFormat;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+import java.util.Locale;
+
+/**
+ * The formats metrics can be exposed in, chosen by the Accept header of each scrape.
+ */
+enum ExpositionFormat {
+    TEXT(TextFormat.CONTENT_TYPE_004) {
+        @Override
+        void write(final OutputStream out, final Enumeration<MetricFamilySamples> families)
+                throws IOException {
+            final Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            TextFormat.write004(writer, families);
+            writer.flush();
+        }
+    },
+    OPENMETRICS(OpenMetricsFormat.CONTENT_TYPE) {
+        @Override
+        void write(final OutputStream out, final Enumeration<MetricFamilySamples> families)
+                throws IOException {
+            final Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            OpenMetricsFormat.write(writer, families);
+            writer.flush();
+        }
+    },
+    PROTOBUF(ProtobufFormat.CONTENT_TYPE) {
+        @Override
+        void write(final OutputStream out, final Enumeration<MetricFamilySamples> families)
+                throws IOException {
+            ProtobufFormat.write(out, families);
+            out.flush();
+        }
+    };
+
+    private final String contentType;
+
+    ExpositionFormat(final String contentType) {
+        this.contentType = contentType;
+    }
+
+    String contentType() {
+        return contentType;
+    }
+
+    abstract void write(OutputStream out, Enumeration<MetricFamilySamples> families)
+            throws IOException;
+
+    /**
+     * Choose the format with the highest quality in an Accept header, the first given on a tie.
+     * @param accept the Accept header of the request, may be null
+     * @return the format to respond with, the 0.0.4 text format if none is accepted
+     */
+    static ExpositionFormat negotiate(final String accept) {
+        if (accept == null) {
+            return TEXT;
+        }
+        ExpositionFormat best = TEXT;
+        double bestQuality = 0;
+        for (final String range : accept.split(",")) {
+            final String[] parts = range.split(";");
+            final String type = parts[0].trim().toLowerCase(Locale.ROOT);
+            double quality = 1;
+            String proto = null;
+            String encoding = null;
+            for (int i = 1; i < parts.length; i++) {
+                final int equals = parts[i].indexOf('=');
+                if (equals < 0) {
+                    continue;
+                }
+                final String name = parts[i].substring(0, equals).trim();
+                final String value = parts[i].substring(equals + 1).trim();
+                if ("q".equals(name)) {
+                    try {
+                        quality = Double.parseDouble(value);
+                    } catch (final NumberFormatException e) {
+                        quality = 0;
+                    }
+                } else if ("proto".equals(name)) {
+                    proto = value;
+                } else if ("encoding".equals(name)) {
+                    encoding = value;
+                }
+            }
+            final ExpositionFormat format;
+            if ("application/openmetrics-text".equals(type)) {
+                format = OPENMETRICS;
+            } else if ("application/vnd.google.protobuf".equals(type)
+                    && ProtobufFormat.MESSAGE.equals(proto) && "delimited".equals(encoding)) {
+                format = PROTOBUF;
+            } else if ("text/plain".equals(type) || "*/*".equals(type)) {
+                format = TEXT;
+            } else {
+                continue;
+            }
+            if (quality > bestQuality) {
+                best = format;
+                bestQuality = quality;
+            }
+        }
+        return best;
+    }
+}
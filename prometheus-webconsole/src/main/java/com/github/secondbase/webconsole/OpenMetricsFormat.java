@@ -0,0 +1,108 @@
+package com.github.secondbase.webconsole;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.Collector.MetricFamilySamples;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Enumeration;
+
+/**
+ * Writes metrics in the OpenMetrics 1.0.0 text format. Counter families are named without their
+ * _total suffix, which their samples carry, untyped metrics are of unknown type and the
+ * exposition ends with # EOF.
+ */
+final class OpenMetricsFormat {
+    static final String CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+    private static final String TOTAL = "_total";
+
+    private OpenMetricsFormat() {
+    }
+
+    static void write(final Writer writer, final Enumeration<MetricFamilySamples> families)
+            throws IOException {
+        while (families.hasMoreElements()) {
+            final MetricFamilySamples family = families.nextElement();
+            final boolean counter = family.type == Collector.Type.COUNTER;
+            final String name = counter && family.name.endsWith(TOTAL)
+                    ? family.name.substring(0, family.name.length() - TOTAL.length())
+                    : family.name;
+            writer.write("# TYPE ");
+            writer.write(name);
+            writer.write(' ');
+            writer.write(typeOf(family.type));
+            writer.write('\n');
+            if (family.help != null && !family.help.isEmpty()) {
+                writer.write("# HELP ");
+                writer.write(name);
+                writer.write(' ');
+                writeEscaped(writer, family.help);
+                writer.write('\n');
+            }
+            for (final MetricFamilySamples.Sample sample : family.samples) {
+                writer.write(counter && sample.name.equals(name) ? name + TOTAL : sample.name);
+                if (!sample.labelNames.isEmpty()) {
+                    writer.write('{');
+                    for (int i = 0; i < sample.labelNames.size(); i++) {
+                        if (i > 0) {
+                            writer.write(',');
+                        }
+                        writer.write(sample.labelNames.get(i));
+                        writer.write("=\"");
+                        writeEscaped(writer, sample.labelValues.get(i));
+                        writer.write('"');
+                    }
+                    writer.write('}');
+                }
+                writer.write(' ');
+                writer.write(format(sample.value));
+                writer.write('\n');
+            }
+        }
+        writer.write("# EOF\n");
+    }
+
+    private static String typeOf(final Collector.Type type) {
+        switch (type) {
+            case COUNTER:
+                return "counter";
+            case GAUGE:
+                return "gauge";
+            case SUMMARY:
+                return "summary";
+            case HISTOGRAM:
+                return "histogram";
+            default:
+                return "unknown";
+        }
+    }
+
+    private static void writeEscaped(final Writer writer, final String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    writer.write("\\\\");
+                    break;
+                case '"':
+                    writer.write("\\\"");
+                    break;
+                case '\n':
+                    writer.write("\\n");
+                    break;
+                default:
+                    writer.write(c);
+            }
+        }
+    }
+
+    static String format(final double value) {
+        if (value == Double.POSITIVE_INFINITY) {
+            return "+Inf";
+        }
+        if (value == Double.NEGATIVE_INFINITY) {
+            return "-Inf";
+        }
+        return Double.toString(value);
+    }
+}
@@ -1,24 +1,118 @@
 package com.github.secondbase.webconsole;
 
+import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
+import io.prometheus.client.Collector.MetricFamilySamples;
 import io.prometheus.client.CollectorRegistry;
-import io.prometheus.client.exporter.common.TextFormat;
 import java.io.ByteArrayOutputStream;
-import java.io.OutputStreamWriter;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import com.github.secondbase.flags.Flags;
 import com.github.secondbase.core.SecondBase;
 import com.github.secondbase.core.config.SecondBaseModule;
 import com.github.secondbase.webconsole.widget.Widget;
 
 /**
- * HttpServer servlet for default Prometheus collector registry.
+ * HttpServer servlet for default Prometheus collector registry. Secret fetch metrics are
+ * registered in it as soon as the module is created, so secrets fetched while SecondBase starts
+ * are measured as well.
+ *
+ * Modules can register their metrics in a registry of their own, from
+ * {@link #namedRegistry(String)}, and serve it with its own widget at the metrics endpoint
+ * followed by the name, so expensive metrics can be scraped less often than cheap ones:
+ *
+ * Gauge.build()...register(PrometheusWebConsole.namedRegistry("jvm"));
+ * widgets = {new PrometheusWebConsole(), new PrometheusWebConsole("jvm")}; // /metrics/jvm
+ *
+ * Scrapes can ask for some families only with name[] query parameters, as in
+ * /metrics?name[]=http_requests_total&amp;name[]=jvm_threads. Such scrapes are not cached.
+ *
+ * Collectors in a registry are collected one after another on the request thread. Register slow
+ * collectors through a {@link ConcurrentCollectors} to collect them concurrently with a timeout.
+ *
+ * Metrics are streamed to the scraper in chunks through a buffer reused between scrapes. With
+ * metrics-fixed-length, the whole exposition is rendered into a reused buffer first and sent with
+ * a Content-Length instead.
+ *
+ * With metrics-cache-millis set, a rendered exposition is reused by scrapes for that long, and
+ * concurrent scrapes share one render. Cached responses carry an Age header, in seconds, and an
+ * X-Metrics-Age-Millis header telling how old they are.
+ *
+ * The format is chosen by the Accept header of each scrape: the 0.0.4 text format by default,
+ * OpenMetrics text for application/openmetrics-text, or delimited protocol buffers for
+ * application/vnd.google.protobuf; proto=io.prometheus.client.MetricFamily; encoding=delimited.
  */
 public final class PrometheusWebConsole implements SecondBaseModule, Widget {
 
-    private final CollectorRegistry registry = CollectorRegistry.defaultRegistry;
+    private static final int CHUNK_BYTES = 32 * 1024;
+
+    private static final ConcurrentMap<String, CollectorRegistry> NAMED_REGISTRIES
+            = new ConcurrentHashMap<>();
+    // The flags the configuration is loaded into, as every console shares it. Guarded by itself.
+    private static final Set<Flags> CONFIGURED
+            = Collections.newSetFromMap(new WeakHashMap<>());
+
+    private final String name;
+    private final CollectorRegistry registry;
+    private final ExpositionBuffers buffers = new ExpositionBuffers();
+    private final Map<ExpositionFormat, ScrapeCache> caches
+            = new EnumMap<>(ExpositionFormat.class);
+
+    /**
+     * Serve the default registry at the metrics endpoint.
+     */
+    public PrometheusWebConsole() {
+        this(null, CollectorRegistry.defaultRegistry);
+        SecretMetrics.install(registry);
+    }
+
+    /**
+     * Serve a named registry at the metrics endpoint followed by /name.
+     * @param name the name of the registry, as given to {@link #namedRegistry(String)}
+     */
+    public PrometheusWebConsole(final String name) {
+        this(name, namedRegistry(name));
+    }
+
+    private PrometheusWebConsole(final String name, final CollectorRegistry registry) {
+        this.name = name;
+        this.registry = registry;
+        for (final ExpositionFormat format : ExpositionFormat.values()) {
+            caches.put(format, new ScrapeCache(() -> render(format), System::nanoTime));
+        }
+    }
+
+    /**
+     * Get a registry by name, creating it the first time it is asked for.
+     * @param name the name of the registry, used in the path it is served at
+     * @return the registry
+     */
+    public static CollectorRegistry namedRegistry(final String name) {
+        if (name == null || name.isEmpty() || name.contains("/")) {
+            throw new IllegalArgumentException("Invalid registry name: " + name);
+        }
+        return NAMED_REGISTRIES.computeIfAbsent(name, n -> new CollectorRegistry(true));
+    }
 
     @Override
     public void load(final SecondBase secondBase) {
-        secondBase.getFlags().loadOpts(PrometheusWebConsoleConfiguration.class);
+        final Flags flags = secondBase.getFlags();
+        synchronized (CONFIGURED) {
+            if (CONFIGURED.add(flags)) {
+                flags.loadOpts(PrometheusWebConsoleConfiguration.class);
+            }
+        }
     }
 
     @Override
@@ -28,25 +122,101 @@ public final class PrometheusWebConsole implements SecondBaseModule, Widget {
 
     @Override
     public String getPath() {
-        return PrometheusWebConsoleConfiguration.endpoint;
+        if (name == null) {
+            return PrometheusWebConsoleConfiguration.endpoint;
+        }
+        return PrometheusWebConsoleConfiguration.endpoint.replaceAll("/+$", "") + "/" + name;
     }
 
     @Override
     public HttpHandler getServlet() {
         return exchange -> {
-            final ByteArrayOutputStream response = new ByteArrayOutputStream(1 << 20);
-            final OutputStreamWriter osw = new OutputStreamWriter(response);
-            TextFormat.write004(osw, registry.metricFamilySamples());
-            osw.flush();
-            osw.close();
-            response.flush();
-            response.close();
-
-            exchange.getResponseHeaders().set("Content-Type", TextFormat.CONTENT_TYPE_004);
-            exchange.getResponseHeaders().set("Content-Length", String.valueOf(response.size()));
-            exchange.sendResponseHeaders(200, response.size());
-            response.writeTo(exchange.getResponseBody());
-            exchange.close();
+            final ExpositionFormat format = ExpositionFormat.negotiate(
+                    exchange.getRequestHeaders().getFirst("Accept"));
+            final Set<String> names = requestedNames(exchange.getRequestURI().getRawQuery());
+            if (PrometheusWebConsoleConfiguration.cacheMillis > 0 && names.isEmpty()) {
+                try {
+                    sendCached(exchange, format);
+                } finally {
+                    exchange.close();
+                }
+                return;
+            }
+            final ByteArrayOutputStream buffer = buffers.take();
+            try {
+                exchange.getResponseHeaders().set("Content-Type", format.contentType());
+                if (PrometheusWebConsoleConfiguration.fixedLength) {
+                    format.write(buffer, samples(names));
+                    exchange.getResponseHeaders()
+                            .set("Content-Length", String.valueOf(buffer.size()));
+                    exchange.sendResponseHeaders(200, buffer.size());
+                    buffer.writeTo(exchange.getResponseBody());
+                } else {
+                    // A length of 0 makes the server send the response in chunks.
+                    exchange.sendResponseHeaders(200, 0);
+                    format.write(
+                            ExpositionBuffers.chunking(
+                                    buffer, exchange.getResponseBody(), CHUNK_BYTES),
+                            samples(names));
+                }
+            } finally {
+                buffers.release(buffer);
+                exchange.close();
+            }
         };
     }
+
+    private Enumeration<MetricFamilySamples> samples(final Set<String> names) {
+        return names.isEmpty()
+                ? registry.metricFamilySamples()
+                : registry.filteredMetricFamilySamples(names);
+    }
+
+    /**
+     * @return the families asked for with name[] query parameters, empty for all
+     */
+    static Set<String> requestedNames(final String rawQuery) {
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return Collections.emptySet();
+        }
+        final Set<String> names = new HashSet<>();
+        for (final String parameter : rawQuery.split("&")) {
+            final int equals = parameter.indexOf('=');
+            if (equals < 0) {
+                continue;
+            }
+            try {
+                if ("name[]".equals(URLDecoder.decode(parameter.substring(0, equals), "UTF-8"))) {
+                    names.add(URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+                }
+            } catch (final UnsupportedEncodingException | IllegalArgumentException e) {
+                // A malformed escape, skip the parameter.
+            }
+        }
+        return names;
+    }
+
+    private void sendCached(final HttpExchange exchange, final ExpositionFormat format)
+            throws IOException {
+        final ScrapeCache.Rendered rendered = caches.get(format).get(
+                TimeUnit.MILLISECONDS.toNanos(PrometheusWebConsoleConfiguration.cacheMillis));
+        final long ageMillis = TimeUnit.NANOSECONDS.toMillis(
+                System.nanoTime() - rendered.renderedAt());
+        exchange.getResponseHeaders().set("Content-Type", format.contentType());
+        exchange.getResponseHeaders().set("Content-Length", String.valueOf(rendered.body().length));
+        exchange.getResponseHeaders().set("Age", String.valueOf(ageMillis / 1000));
+        exchange.getResponseHeaders().set("X-Metrics-Age-Millis", String.valueOf(ageMillis));
+        exchange.sendResponseHeaders(200, rendered.body().length);
+        exchange.getResponseBody().write(rendered.body());
+    }
+
+    private byte[] render(final ExpositionFormat format) throws IOException {
+        final ByteArrayOutputStream buffer = buffers.take();
+        try {
+            format.write(buffer, registry.metricFamilySamples());
+            return buffer.toByteArray();
+        } finally {
+            buffers.release(buffer);
+        }
+    }
 }
@@ -14,4 +14,16 @@ public final class PrometheusWebConsoleConfiguration {
             name = "metrics-endpoint",
             description = "The http endpoint to host metrics on.")
     public static String endpoint = "/metrics";
+
+    @Flag(
+            name = "metrics-fixed-length",
+            description = "Render all metrics before sending them, with a Content-Length, "
+                    + "instead of streaming them in chunks.")
+    public static boolean fixedLength = false;
+
+    @Flag(
+            name = "metrics-cache-millis",
+            description = "Reuse rendered metrics for scrapes within this many milliseconds, "
+                    + "rendering once for concurrent scrapes. 0 renders every scrape.")
+    public static long cacheMillis = 0;
 }
@@ -0,0 +1,247 @@
+package com.github.secondbase.webconsole;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.Collector.MetricFamilySamples;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes metrics as length-delimited io.prometheus.client.MetricFamily protocol buffer messages,
+ * encoded by hand from the published metrics.proto so no protobuf runtime is needed.
+ *
+ * The samples of a family are grouped into one metric per set of labels, with the le and
+ * quantile labels of histograms and summaries turned into buckets and quantiles. The +Inf bucket
+ * is left out as its count is the sample count.
+ */
+final class ProtobufFormat {
+    static final String MESSAGE = "io.prometheus.client.MetricFamily";
+    static final String CONTENT_TYPE =
+            "application/vnd.google.protobuf; proto=" + MESSAGE + "; encoding=delimited";
+
+    private static final int VARINT = 0;
+    private static final int FIXED64 = 1;
+    private static final int LENGTH_DELIMITED = 2;
+    // A tag of a field numbered below 16 and the 8 bytes of the double.
+    private static final int DOUBLE_FIELD_BYTES = 9;
+
+    private ProtobufFormat() {
+    }
+
+    static void write(final OutputStream out, final Enumeration<MetricFamilySamples> families)
+            throws IOException {
+        final ByteArrayOutputStream family = new ByteArrayOutputStream(4096);
+        final ByteArrayOutputStream metric = new ByteArrayOutputStream(256);
+        final ByteArrayOutputStream part = new ByteArrayOutputStream(64);
+        while (families.hasMoreElements()) {
+            final MetricFamilySamples samples = families.nextElement();
+            family.reset();
+            writeString(family, 1, samples.name);
+            writeString(family, 2, samples.help);
+            writeTag(family, 3, VARINT);
+            writeVarint(family, typeNumber(samples.type));
+            for (final Metric m : group(samples).values()) {
+                metric.reset();
+                m.writeTo(samples.type, metric, part);
+                writeBytes(family, 4, metric);
+            }
+            writeVarint(out, family.size());
+            family.writeTo(out);
+        }
+    }
+
+    private static int typeNumber(final Collector.Type type) {
+        switch (type) {
+            case COUNTER:
+                return 0;
+            case GAUGE:
+                return 1;
+            case SUMMARY:
+                return 2;
+            case HISTOGRAM:
+                return 4;
+            default:
+                return 3;
+        }
+    }
+
+    private static Map<List<String>, Metric> group(final MetricFamilySamples family) {
+        final Map<List<String>, Metric> metrics = new LinkedHashMap<>();
+        for (final MetricFamilySamples.Sample sample : family.samples) {
+            final List<String> names = new ArrayList<>(sample.labelNames.size());
+            final List<String> values = new ArrayList<>(sample.labelNames.size());
+            String le = null;
+            String quantile = null;
+            for (int i = 0; i < sample.labelNames.size(); i++) {
+                final String name = sample.labelNames.get(i);
+                if (family.type == Collector.Type.HISTOGRAM && "le".equals(name)) {
+                    le = sample.labelValues.get(i);
+                } else if (family.type == Collector.Type.SUMMARY && "quantile".equals(name)) {
+                    quantile = sample.labelValues.get(i);
+                } else {
+                    names.add(name);
+                    values.add(sample.labelValues.get(i));
+                }
+            }
+            final List<String> key = new ArrayList<>(names);
+            key.addAll(values);
+            final Metric metric = metrics.computeIfAbsent(key, k -> new Metric(names, values));
+            final String suffix = sample.name.substring(
+                    Math.min(family.name.length(), sample.name.length()));
+            if ("_count".equals(suffix)) {
+                metric.count = (long) sample.value;
+            } else if ("_sum".equals(suffix)) {
+                metric.sum = sample.value;
+            } else if (le != null) {
+                final double bound = parseBound(le);
+                if (bound != Double.POSITIVE_INFINITY) {
+                    metric.bounds.add(new double[]{bound, sample.value});
+                }
+            } else if (quantile != null) {
+                metric.bounds.add(new double[]{parseBound(quantile), sample.value});
+            } else {
+                metric.value = sample.value;
+            }
+        }
+        return metrics;
+    }
+
+    private static double parseBound(final String value) {
+        if ("+Inf".equals(value)) {
+            return Double.POSITIVE_INFINITY;
+        }
+        if ("-Inf".equals(value)) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        return Double.parseDouble(value);
+    }
+
+    /**
+     * The samples of a family sharing a set of labels.
+     */
+    private static final class Metric {
+        private final List<String> labelNames;
+        private final List<String> labelValues;
+        private double value;
+        private long count;
+        private double sum;
+        // Histogram buckets as {upper bound, cumulative count}, or summary quantiles as
+        // {quantile, value}.
+        private final List<double[]> bounds = new ArrayList<>();
+
+        Metric(final List<String> labelNames, final List<String> labelValues) {
+            this.labelNames = labelNames;
+            this.labelValues = labelValues;
+        }
+
+        void writeTo(
+                final Collector.Type type,
+                final ByteArrayOutputStream out,
+                final ByteArrayOutputStream part) throws IOException {
+            for (int i = 0; i < labelNames.size(); i++) {
+                part.reset();
+                writeString(part, 1, labelNames.get(i));
+                writeString(part, 2, labelValues.get(i));
+                writeBytes(out, 1, part);
+            }
+            part.reset();
+            switch (type) {
+                case COUNTER:
+                    writeDouble(part, 1, value);
+                    writeBytes(out, 3, part);
+                    break;
+                case GAUGE:
+                    writeDouble(part, 1, value);
+                    writeBytes(out, 2, part);
+                    break;
+                case SUMMARY:
+                    writeTag(part, 1, VARINT);
+                    writeVarint(part, count);
+                    writeDouble(part, 2, sum);
+                    for (final double[] quantile : bounds) {
+                        writeTag(part, 3, LENGTH_DELIMITED);
+                        writeVarint(part, 2 * DOUBLE_FIELD_BYTES);
+                        writeDouble(part, 1, quantile[0]);
+                        writeDouble(part, 2, quantile[1]);
+                    }
+                    writeBytes(out, 4, part);
+                    break;
+                case HISTOGRAM:
+                    writeTag(part, 1, VARINT);
+                    writeVarint(part, count);
+                    writeDouble(part, 2, sum);
+                    for (final double[] bucket : bounds) {
+                        writeTag(part, 3, LENGTH_DELIMITED);
+                        writeVarint(part, 1 + varintSize((long) bucket[1]) + DOUBLE_FIELD_BYTES);
+                        writeTag(part, 1, VARINT);
+                        writeVarint(part, (long) bucket[1]);
+                        writeDouble(part, 2, bucket[0]);
+                    }
+                    writeBytes(out, 7, part);
+                    break;
+                default:
+                    writeDouble(part, 1, value);
+                    writeBytes(out, 5, part);
+            }
+        }
+    }
+
+    private static void writeTag(final OutputStream out, final int field, final int wireType)
+            throws IOException {
+        writeVarint(out, field << 3 | wireType);
+    }
+
+    private static void writeVarint(final OutputStream out, final long value) throws IOException {
+        long remaining = value;
+        while ((remaining & ~0x7FL) != 0) {
+            out.write((int) (remaining & 0x7F) | 0x80);
+            remaining >>>= 7;
+        }
+        out.write((int) remaining);
+    }
+
+    private static int varintSize(final long value) {
+        int size = 1;
+        long remaining = value;
+        while ((remaining & ~0x7FL) != 0) {
+            size++;
+            remaining >>>= 7;
+        }
+        return size;
+    }
+
+    private static void writeDouble(final OutputStream out, final int field, final double value)
+            throws IOException {
+        writeTag(out, field, FIXED64);
+        final long bits = Double.doubleToLongBits(value);
+        for (int i = 0; i < 8; i++) {
+            out.write((int) (bits >>> (8 * i)));
+        }
+    }
+
+    private static void writeString(final OutputStream out, final int field, final String value)
+            throws IOException {
+        if (value == null || value.isEmpty()) {
+            return;
+        }
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeTag(out, field, LENGTH_DELIMITED);
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeBytes(
+            final OutputStream out,
+            final int field,
+            final ByteArrayOutputStream message) throws IOException {
+        writeTag(out, field, LENGTH_DELIMITED);
+        writeVarint(out, message.size());
+        message.writeTo(out);
+    }
+}
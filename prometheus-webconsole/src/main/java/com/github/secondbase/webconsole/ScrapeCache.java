@@ -0,0 +1,97 @@
+package com.github.secondbase.webconsole;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.LongSupplier;
+
+/**
+ * The last rendered exposition, reused by scrapes within a time window. Scrapes arriving while
+ * the exposition is being rendered wait for that render instead of starting their own.
+ */
+final class ScrapeCache {
+
+    /**
+     * Renders the exposition.
+     */
+    interface Renderer {
+        byte[] render() throws IOException;
+    }
+
+    /**
+     * A rendered exposition and when it was rendered.
+     */
+    static final class Rendered {
+        private final byte[] body;
+        private final long renderedAt;
+
+        private Rendered(final byte[] body, final long renderedAt) {
+            this.body = body;
+            this.renderedAt = renderedAt;
+        }
+
+        byte[] body() {
+            return body;
+        }
+
+        long renderedAt() {
+            return renderedAt;
+        }
+    }
+
+    private final Renderer renderer;
+    private final LongSupplier nanoClock;
+    private volatile Rendered last;
+    // The render in progress, if any. Guarded by this.
+    private CompletableFuture<Rendered> rendering;
+
+    ScrapeCache(final Renderer renderer, final LongSupplier nanoClock) {
+        this.renderer = renderer;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * @param maxAgeNanos how old a rendered exposition may be and still be used
+     * @return an exposition rendered within the window, rendering one if there is none
+     * @throws IOException if the exposition could not be rendered
+     */
+    Rendered get(final long maxAgeNanos) throws IOException {
+        final CompletableFuture<Rendered> render;
+        final boolean renderHere;
+        synchronized (this) {
+            final Rendered current = last;
+            if (current != null && nanoClock.getAsLong() - current.renderedAt < maxAgeNanos) {
+                return current;
+            }
+            renderHere = rendering == null;
+            if (renderHere) {
+                rendering = new CompletableFuture<>();
+            }
+            render = rendering;
+        }
+        if (renderHere) {
+            try {
+                final long start = nanoClock.getAsLong();
+                final Rendered rendered = new Rendered(renderer.render(), start);
+                last = rendered;
+                render.complete(rendered);
+                return rendered;
+            } catch (final IOException | RuntimeException e) {
+                render.completeExceptionally(e);
+                throw e;
+            } finally {
+                synchronized (this) {
+                    rendering = null;
+                }
+            }
+        }
+        try {
+            return render.join();
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw new IOException("Could not render metrics", e.getCause());
+            }
+            throw e;
+        }
+    }
+}
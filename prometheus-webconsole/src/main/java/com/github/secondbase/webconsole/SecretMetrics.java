@@ -0,0 +1,98 @@
+package com.github.secondbase.webconsole;
+
+import com.github.secondbase.secrets.SecretFetchObserver;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Histogram;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exports how secrets are resolved as Prometheus metrics, labelled by backend (the scheme of the
+ * secret references, such as vault or s3):
+ *
+ * secret_fetch_duration_seconds      time to resolve the secrets of a backend
+ * secret_fetch_errors_total          failed resolutions
+ * secret_cache_hits_total            secrets returned by a CachingSecretResolver
+ * secret_cache_misses_total          secrets a CachingSecretResolver had to fetch
+ * secret_refresh_lag_seconds         time from when a cached secret was due until it was refreshed
+ */
+public final class SecretMetrics extends SecretFetchObserver {
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private static CollectorRegistry installedIn;
+
+    private final Histogram fetchDuration;
+    private final Counter fetchErrors;
+    private final Counter cacheHits;
+    private final Counter cacheMisses;
+    private final Histogram refreshLag;
+
+    private SecretMetrics(final CollectorRegistry registry) {
+        fetchDuration = Histogram.build()
+                .name("secret_fetch_duration_seconds")
+                .help("Time taken to resolve secrets.")
+                .labelNames("backend")
+                .buckets(.001, .005, .01, .025, .05, .1, .25, .5, 1, 2.5, 5, 10, 30)
+                .register(registry);
+        fetchErrors = Counter.build()
+                .name("secret_fetch_errors_total")
+                .help("Secret resolutions which failed.")
+                .labelNames("backend")
+                .register(registry);
+        cacheHits = Counter.build()
+                .name("secret_cache_hits_total")
+                .help("Secrets returned from the cache.")
+                .labelNames("backend")
+                .register(registry);
+        cacheMisses = Counter.build()
+                .name("secret_cache_misses_total")
+                .help("Secrets which were not cached, or had expired.")
+                .labelNames("backend")
+                .register(registry);
+        refreshLag = Histogram.build()
+                .name("secret_refresh_lag_seconds")
+                .help("Time from when a cached secret was due to be refreshed until it was.")
+                .labelNames("backend")
+                .buckets(.01, .1, 1, 10, 60, 300, 900, 3600)
+                .register(registry);
+    }
+
+    /**
+     * Register the secret metrics in a registry and install them as the observer of all secret
+     * resolution. Does nothing if they are already installed in the registry.
+     * @param registry the registry to register the metrics in
+     */
+    public static synchronized void install(final CollectorRegistry registry) {
+        if (installedIn == registry) {
+            return;
+        }
+        SecretFetchObserver.install(new SecretMetrics(registry));
+        installedIn = registry;
+    }
+
+    @Override
+    public void resolved(final String scheme, final int count, final long nanos) {
+        fetchDuration.labels(scheme).observe(nanos / NANOS_PER_SECOND);
+    }
+
+    @Override
+    public void failed(final String scheme, final int count, final long nanos) {
+        fetchDuration.labels(scheme).observe(nanos / NANOS_PER_SECOND);
+        fetchErrors.labels(scheme).inc();
+    }
+
+    @Override
+    public void cacheHit(final String scheme) {
+        cacheHits.labels(scheme).inc();
+    }
+
+    @Override
+    public void cacheMiss(final String scheme) {
+        cacheMisses.labels(scheme).inc();
+    }
+
+    @Override
+    public void refreshed(final String scheme, final long lagNanos) {
+        refreshLag.labels(scheme).observe(Math.max(0, lagNanos) / NANOS_PER_SECOND);
+    }
+}
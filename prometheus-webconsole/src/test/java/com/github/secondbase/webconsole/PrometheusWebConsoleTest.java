@@ -1,17 +1,34 @@
 package com.github.secondbase.webconsole;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
+import io.prometheus.client.Collector;
+import io.prometheus.client.CollectorRegistry;
 import io.prometheus.client.Counter;
 import io.prometheus.client.exporter.common.TextFormat;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.junit.MockitoJUnitRunner;
@@ -36,6 +53,8 @@ public class PrometheusWebConsoleTest {
         when(mockExchange.getResponseBody()).thenReturn(outputStream);
         final Headers headers = new Headers();
         when(mockExchange.getResponseHeaders()).thenReturn(headers);
+        when(mockExchange.getRequestHeaders()).thenReturn(new Headers());
+        when(mockExchange.getRequestURI()).thenReturn(URI.create("/metrics"));
 
         new PrometheusWebConsole().getServlet().handle(mockExchange);
 
@@ -47,4 +66,293 @@ public class PrometheusWebConsoleTest {
         assertTrue(response.contains("one=\"1\""));
         assertTrue(response.contains("two=\"2\""));
     }
+
+    @Test
+    public void fixedLengthMetrics() throws IOException {
+        Counter.build("fixedlengthcounter", "testdescription").register().inc();
+        final HttpExchange mockExchange = mock(HttpExchange.class);
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        when(mockExchange.getResponseBody()).thenReturn(outputStream);
+        final Headers headers = new Headers();
+        when(mockExchange.getResponseHeaders()).thenReturn(headers);
+        when(mockExchange.getRequestHeaders()).thenReturn(new Headers());
+        when(mockExchange.getRequestURI()).thenReturn(URI.create("/metrics"));
+
+        PrometheusWebConsoleConfiguration.fixedLength = true;
+        try {
+            final PrometheusWebConsole console = new PrometheusWebConsole();
+            console.getServlet().handle(mockExchange);
+            console.getServlet().handle(mockExchange);
+        } finally {
+            PrometheusWebConsoleConfiguration.fixedLength = false;
+        }
+
+        final String response = outputStream.toString();
+        assertTrue(response.contains("fixedlengthcounter 1.0"));
+        assertEquals(response.length(), 2 * Integer.parseInt(headers.getFirst("Content-Length")));
+        verify(mockExchange, times(2)).sendResponseHeaders(200, response.length() / 2);
+    }
+
+    @Test
+    public void cachedMetrics() throws IOException {
+        final Counter counter = Counter.build("cachedcounter", "testdescription").register();
+        counter.inc();
+        PrometheusWebConsoleConfiguration.cacheMillis = 60_000;
+        try {
+            final PrometheusWebConsole console = new PrometheusWebConsole();
+            final String first = scrape(console, new Headers());
+            counter.inc();
+            final Headers headers = new Headers();
+            final String second = scrape(console, headers);
+
+            assertTrue(first.contains("cachedcounter 1.0"));
+            assertEquals(first, second);
+            assertEquals("0", headers.getFirst("Age"));
+            assertTrue(Long.parseLong(headers.getFirst("X-Metrics-Age-Millis")) < 60_000);
+        } finally {
+            PrometheusWebConsoleConfiguration.cacheMillis = 0;
+        }
+    }
+
+    @Test
+    public void concurrentScrapesShareOneRender() throws Exception {
+        final AtomicInteger renders = new AtomicInteger();
+        final CountDownLatch rendering = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ScrapeCache cache = new ScrapeCache(() -> {
+            renders.incrementAndGet();
+            rendering.countDown();
+            try {
+                release.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new byte[]{1};
+        }, System::nanoTime);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<ScrapeCache.Rendered>> scrapes = new ArrayList<>();
+            scrapes.add(executor.submit(() -> cache.get(Long.MAX_VALUE)));
+            rendering.await();
+            for (int i = 0; i < 3; i++) {
+                scrapes.add(executor.submit(() -> cache.get(Long.MAX_VALUE)));
+            }
+            Thread.sleep(100);
+            release.countDown();
+            for (final Future<ScrapeCache.Rendered> scrape : scrapes) {
+                assertEquals(1, scrape.get(10, TimeUnit.SECONDS).body().length);
+            }
+            assertEquals(1, renders.get());
+            cache.get(0);
+            assertEquals(2, renders.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void negotiateFormat() {
+        assertEquals(ExpositionFormat.TEXT, ExpositionFormat.negotiate(null));
+        assertEquals(ExpositionFormat.TEXT, ExpositionFormat.negotiate("text/plain"));
+        assertEquals(ExpositionFormat.OPENMETRICS, ExpositionFormat.negotiate(
+                "application/openmetrics-text;version=1.0.0,application/openmetrics-text;"
+                        + "version=0.0.1;q=0.75,text/plain;version=0.0.4;q=0.5,*/*;q=0.1"));
+        assertEquals(ExpositionFormat.PROTOBUF, ExpositionFormat.negotiate(
+                "application/vnd.google.protobuf;proto=io.prometheus.client.MetricFamily;"
+                        + "encoding=delimited;q=0.7,text/plain;version=0.0.4;q=0.3,*/*;q=0.1"));
+        assertEquals(ExpositionFormat.TEXT, ExpositionFormat.negotiate(
+                "application/vnd.google.protobuf;proto=other;encoding=delimited"));
+    }
+
+    @Test
+    public void openMetrics() throws IOException {
+        Counter.build("openmetricscounter", "line one\nline two").register().inc();
+        final Headers headers = new Headers();
+        final String response = scrape(new PrometheusWebConsole(), headers,
+                "application/openmetrics-text; version=1.0.0");
+
+        assertEquals(OpenMetricsFormat.CONTENT_TYPE, headers.getFirst("Content-Type"));
+        assertTrue(response.contains("# TYPE openmetricscounter counter\n"));
+        assertTrue(response.contains("# HELP openmetricscounter line one\\nline two\n"));
+        assertTrue(response.contains("openmetricscounter_total 1.0\n"));
+        assertTrue(response.endsWith("# EOF\n"));
+    }
+
+    @Test
+    public void protobuf() throws IOException {
+        Counter.build("protobufcounter", "testdescription").register().inc();
+        final HttpExchange mockExchange = mock(HttpExchange.class);
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        when(mockExchange.getResponseBody()).thenReturn(outputStream);
+        final Headers headers = new Headers();
+        when(mockExchange.getResponseHeaders()).thenReturn(headers);
+        final Headers request = new Headers();
+        request.add("Accept", "application/vnd.google.protobuf;"
+                + "proto=io.prometheus.client.MetricFamily;encoding=delimited");
+        when(mockExchange.getRequestHeaders()).thenReturn(request);
+        when(mockExchange.getRequestURI()).thenReturn(URI.create("/metrics"));
+
+        new PrometheusWebConsole().getServlet().handle(mockExchange);
+
+        assertEquals(ProtobufFormat.CONTENT_TYPE, headers.getFirst("Content-Type"));
+        final byte[] body = outputStream.toByteArray();
+        // Length-delimited messages must cover the body exactly.
+        final byte[] expected = {
+                0x0a, 15, 'p', 'r', 'o', 't', 'o', 'b', 'u', 'f', 'c', 'o', 'u', 'n', 't', 'e', 'r',
+                0x12, 15, 't', 'e', 's', 't', 'd', 'e', 's', 'c', 'r', 'i', 'p', 't', 'i', 'o', 'n',
+                0x18, 0, 0x22, 11, 0x1a, 9, 0x09, 0, 0, 0, 0, 0, 0, (byte) 0xf0, 0x3f};
+        boolean found = false;
+        int position = 0;
+        while (position < body.length) {
+            int length = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = body[position++];
+                length |= (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            found |= Arrays.equals(expected, Arrays.copyOfRange(body, position, position + length));
+            position += length;
+        }
+        assertEquals(body.length, position);
+        assertTrue(found);
+    }
+
+    @Test
+    public void filterFamiliesByName() throws IOException {
+        Counter.build("wantedcounter", "testdescription").register().inc();
+        Counter.build("unwantedcounter", "testdescription").register().inc();
+        final HttpExchange mockExchange = mock(HttpExchange.class);
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        when(mockExchange.getResponseBody()).thenReturn(outputStream);
+        when(mockExchange.getResponseHeaders()).thenReturn(new Headers());
+        when(mockExchange.getRequestHeaders()).thenReturn(new Headers());
+        when(mockExchange.getRequestURI())
+                .thenReturn(URI.create("/metrics?name%5B%5D=wantedcounter&other=1"));
+
+        new PrometheusWebConsole().getServlet().handle(mockExchange);
+
+        final String response = outputStream.toString();
+        assertTrue(response.contains("wantedcounter 1.0"));
+        assertFalse(response.contains("unwantedcounter"));
+    }
+
+    @Test
+    public void namedRegistry() throws IOException {
+        Counter.build("modulecounter", "testdescription")
+                .register(PrometheusWebConsole.namedRegistry("module"))
+                .inc();
+        final PrometheusWebConsole console = new PrometheusWebConsole("module");
+
+        assertEquals("/metrics/module", console.getPath());
+        final String response = scrape(console, new Headers());
+        assertTrue(response.contains("modulecounter 1.0"));
+        assertFalse(scrape(new PrometheusWebConsole(), new Headers()).contains("modulecounter"));
+    }
+
+    @Test
+    public void collectConcurrentlyWithTimeouts() {
+        final CollectorRegistry registry = new CollectorRegistry();
+        final Counter fast = Counter.build("fastcounter", "testdescription").create();
+        fast.inc();
+        registry.register(new ConcurrentCollectors()
+                .add("fast", fast)
+                .add("slow", new Collector() {
+                    @Override
+                    public List<MetricFamilySamples> collect() {
+                        try {
+                            Thread.sleep(10_000);
+                        } catch (final InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return Collections.emptyList();
+                    }
+                })
+                .add("failing", new Collector() {
+                    @Override
+                    public List<MetricFamilySamples> collect() {
+                        throw new IllegalStateException("unavailable");
+                    }
+                })
+                .setTimeout(200, TimeUnit.MILLISECONDS));
+
+        final long start = System.nanoTime();
+        assertEquals(1.0, registry.getSampleValue("fastcounter"), 0);
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        assertEquals(1.0, success(registry, "fast"), 0);
+        assertEquals(0.0, success(registry, "slow"), 0);
+        assertEquals(0.0, success(registry, "failing"), 0);
+        // Timed from the start of the scrape, as the timeout is.
+        assertTrue(registry.getSampleValue("scrape_collector_duration_seconds",
+                new String[]{"collector"}, new String[]{"slow"}) >= 0.2);
+    }
+
+    @Test
+    public void stuckCollectorIsNotStartedAgain() throws InterruptedException {
+        final AtomicLong clock = new AtomicLong();
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CollectorRegistry registry = new CollectorRegistry();
+        registry.register(new ConcurrentCollectors(clock::get)
+                .add("stuck", new Collector() {
+                    @Override
+                    public List<MetricFamilySamples> collect() {
+                        calls.incrementAndGet();
+                        started.countDown();
+                        boolean released = false;
+                        while (!released) {
+                            try {
+                                released = release.await(10, TimeUnit.SECONDS);
+                            } catch (final InterruptedException e) {
+                                // Ignored, like a blocking client would.
+                            }
+                        }
+                        return Collections.emptyList();
+                    }
+                })
+                .setTimeout(50, TimeUnit.MILLISECONDS));
+        try {
+            assertEquals(0.0, success(registry, "stuck"), 0);
+            started.await();
+            clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+
+            assertEquals(0.0, success(registry, "stuck"), 0);
+            assertEquals(1, calls.get());
+            // Still timed from when the first scrape started it.
+            assertEquals(1.0, registry.getSampleValue("scrape_collector_duration_seconds",
+                    new String[]{"collector"}, new String[]{"stuck"}), 0);
+        } finally {
+            release.countDown();
+        }
+    }
+
+    private static double success(final CollectorRegistry registry, final String collector) {
+        return registry.getSampleValue("scrape_collector_success",
+                new String[]{"collector"}, new String[]{collector});
+    }
+
+    private static String scrape(final PrometheusWebConsole console, final Headers headers)
+            throws IOException {
+        return scrape(console, headers, null);
+    }
+
+    private static String scrape(
+            final PrometheusWebConsole console,
+            final Headers headers,
+            final String accept) throws IOException {
+        final HttpExchange mockExchange = mock(HttpExchange.class);
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        when(mockExchange.getResponseBody()).thenReturn(outputStream);
+        when(mockExchange.getResponseHeaders()).thenReturn(headers);
+        final Headers request = new Headers();
+        if (accept != null) {
+            request.add("Accept", accept);
+        }
+        when(mockExchange.getRequestHeaders()).thenReturn(request);
+        when(mockExchange.getRequestURI()).thenReturn(URI.create(console.getPath()));
+        console.getServlet().handle(mockExchange);
+        return outputStream.toString();
+    }
 }
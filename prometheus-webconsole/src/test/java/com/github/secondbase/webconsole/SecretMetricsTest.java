@@ -0,0 +1,52 @@
+package com.github.secondbase.webconsole;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.github.secondbase.secrets.CachingSecretResolver;
+import com.github.secondbase.secrets.SecretHandlerException;
+import com.github.secondbase.secrets.SecretHandlerRegistry;
+import io.prometheus.client.CollectorRegistry;
+import java.time.Duration;
+import org.junit.Test;
+
+public class SecretMetricsTest {
+
+    @Test
+    public void countSecretFetches() {
+        new PrometheusWebConsole();
+        final double hits = sample("secret_cache_hits_total", "metricstest");
+        final double misses = sample("secret_cache_misses_total", "metricstest");
+        final double fetches = sample("secret_fetch_duration_seconds_count", "metricstest");
+        final double errors = sample("secret_fetch_errors_total", "failingtest");
+
+        final SecretHandlerRegistry handler = new SecretHandlerRegistry()
+                .register("metricstest", new CachingSecretResolver(
+                        reference -> "value", Duration.ofMinutes(10)))
+                .register("failingtest", reference -> {
+                    throw new SecretHandlerException("unavailable");
+                });
+        final String[] args = {"--a", "secret:metricstest:a", "--b", "secret:metricstest:a"};
+        assertArrayEquals(
+                new String[]{"--a", "value", "--b", "value"}, handler.fetch(args.clone()));
+        handler.fetch(args.clone());
+        try {
+            handler.fetch(new String[]{"--c", "secret:failingtest:c"});
+            fail("Expected the fetch to fail");
+        } catch (final SecretHandlerException e) {
+            // expected
+        }
+
+        assertEquals(1, sample("secret_cache_misses_total", "metricstest") - misses, 0);
+        assertEquals(3, sample("secret_cache_hits_total", "metricstest") - hits, 0);
+        assertEquals(2, sample("secret_fetch_duration_seconds_count", "metricstest") - fetches, 0);
+        assertEquals(1, sample("secret_fetch_errors_total", "failingtest") - errors, 0);
+    }
+
+    private static double sample(final String name, final String backend) {
+        final Double value = CollectorRegistry.defaultRegistry.getSampleValue(
+                name, new String[]{"backend"}, new String[]{backend});
+        return value == null ? 0 : value;
+    }
+}
@@ -0,0 +1,277 @@
+package com.github.secondbase.secrets.file;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import com.github.secondbase.secrets.SecretChangeListener;
+import com.github.secondbase.secrets.SecretHandler;
+import com.github.secondbase.secrets.SecretHandlerException;
+import com.github.secondbase.secrets.SecretHandlerRegistry;
+import com.github.secondbase.secrets.SecretReference;
+import com.github.secondbase.secrets.SecretResolver;
+import com.github.secondbase.secrets.SecretValue;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Exchanges args on format secret:file:/path/to/file with the content of the file, decoded as
+ * UTF-8. Files are memory-mapped, so their content is read straight from the page cache of the
+ * mounted file system without any network access.
+ *
+ * Once a change listener is added, the directories of the files read are watched. When a file
+ * is written, or replaced by swapping a "..data" symlink as done for mounted Kubernetes Secrets,
+ * it is read again and the listeners are given the new secret of every reference to it whose
+ * content changed.
+ */
+public final class FileSecretHandler implements SecretHandler, SecretResolver, Closeable {
+
+    /**
+     * The scheme of file secret references, as in secret:file:/path/to/file.
+     */
+    public static final String SCHEME = "file";
+
+    private static final Logger LOG = LoggerFactory.getLogger(FileSecretHandler.class);
+    private static final long SETTLE_MILLIS = 100;
+
+    private final List<SecretChangeListener> listeners = new CopyOnWriteArrayList<>();
+    // The files read, with the references to them and a digest of their content. Guarded by this.
+    private final Map<Path, WatchedFile> files = new LinkedHashMap<>();
+    // Null until a change listener is added. Guarded by this.
+    private WatchService watchService;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+
+    @Override
+    public String[] fetch(final String[] args) {
+        return new SecretHandlerRegistry().register(SCHEME, this).fetch(args);
+    }
+
+    @Override
+    public String resolve(final SecretReference reference) {
+        final ByteBuffer content = read(reference);
+        try {
+            return StandardCharsets.UTF_8.newDecoder().decode(content).toString();
+        } catch (final CharacterCodingException e) {
+            throw new SecretHandlerException("Secret is not UTF-8: " + reference, e);
+        }
+    }
+
+    /**
+     * Read a secret without creating a String holding it. The file is decoded from its mapping
+     * straight into off-heap memory.
+     *
+     * @param reference the reference to the file, as in secret:file:/path/to/file
+     * @return the secret, kept off the heap
+     * @throws SecretHandlerException if the file could not be read or is not UTF-8
+     */
+    public SecretValue resolveValue(final SecretReference reference) {
+        try {
+            return SecretValue.decode(read(reference), StandardCharsets.UTF_8);
+        } catch (final CharacterCodingException e) {
+            throw new SecretHandlerException("Secret is not UTF-8: " + reference, e);
+        }
+    }
+
+    /**
+     * Be notified when a file read by this handler changes. Starts watching the directories of
+     * the files on a daemon thread the first time a listener is added.
+     *
+     * @param listener the listener to notify
+     * @return this
+     * @throws SecretHandlerException if the directories can not be watched
+     */
+    public synchronized FileSecretHandler addChangeListener(final SecretChangeListener listener) {
+        listeners.add(listener);
+        if (watchService == null) {
+            try {
+                watchService = FileSystems.getDefault().newWatchService();
+                for (final Path file : files.keySet()) {
+                    watchDirectory(file.getParent());
+                }
+            } catch (final IOException e) {
+                throw new SecretHandlerException("Could not watch secret files", e);
+            }
+            final Thread thread = new Thread(this::watch, "file-secret-watcher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return this;
+    }
+
+    /**
+     * Stop watching for changes.
+     * @throws IOException if the watch service could not be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    private ByteBuffer read(final SecretReference reference) {
+        if (!SCHEME.equals(reference.scheme()) || reference.body().isEmpty()) {
+            throw new SecretHandlerException(
+                    "Invalid file secret, expected secret:file:/path/to/file: " + reference);
+        }
+        LOG.info("Secret recognised: " + reference);
+        final Path path = Paths.get(reference.body()).toAbsolutePath().normalize();
+        final ByteBuffer content;
+        try {
+            content = map(path);
+        } catch (final IOException e) {
+            throw new SecretHandlerException("Could not read secret from: " + reference, e);
+        }
+        remember(path, reference, content);
+        return content;
+    }
+
+    private static ByteBuffer map(final Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed.
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private synchronized void remember(
+            final Path path,
+            final SecretReference reference,
+            final ByteBuffer content) {
+        WatchedFile file = files.get(path);
+        if (file == null) {
+            file = new WatchedFile();
+            files.put(path, file);
+            if (watchService != null) {
+                try {
+                    watchDirectory(path.getParent());
+                } catch (final IOException e) {
+                    throw new SecretHandlerException("Could not watch secret file " + path, e);
+                }
+            }
+        }
+        file.references.put(reference.toString(), reference);
+        file.digest = digest(content);
+    }
+
+    private void watchDirectory(final Path directory) throws IOException {
+        if (!directories.containsValue(directory)) {
+            directories.put(
+                    directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY), directory);
+        }
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                final List<Path> changed = new ArrayList<>();
+                gatherChanged(watchService.take(), changed);
+                WatchKey key;
+                while ((key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    gatherChanged(key, changed);
+                }
+                for (final Path path : changed) {
+                    reread(path);
+                }
+            }
+        } catch (final InterruptedException | ClosedWatchServiceException e) {
+            LOG.debug("Stopped watching secret files.");
+        }
+    }
+
+    /**
+     * Add the files affected by the events of a key. A swapped "..data" symlink affects every
+     * file in the directory.
+     */
+    private synchronized void gatherChanged(final WatchKey key, final List<Path> changed) {
+        final Path directory = directories.get(key);
+        for (final WatchEvent<?> event : key.pollEvents()) {
+            final boolean all = event.kind() == OVERFLOW
+                    || ((Path) event.context()).toString().startsWith("..");
+            for (final Path path : files.keySet()) {
+                if (!changed.contains(path) && path.getParent().equals(directory)
+                        && (all || path.getFileName().equals(event.context()))) {
+                    changed.add(path);
+                }
+            }
+        }
+        key.reset();
+    }
+
+    private void reread(final Path path) {
+        final ByteBuffer content;
+        try {
+            content = map(path);
+        } catch (final IOException e) {
+            LOG.error("Could not read secret file " + path + " again, keeping current secret", e);
+            return;
+        }
+        final byte[] digest = digest(content);
+        final List<SecretReference> references;
+        synchronized (this) {
+            final WatchedFile file = files.get(path);
+            if (MessageDigest.isEqual(digest, file.digest)) {
+                return;
+            }
+            file.digest = digest;
+            references = new ArrayList<>(file.references.values());
+        }
+        final String secret;
+        try {
+            secret = StandardCharsets.UTF_8.newDecoder().decode(content).toString();
+        } catch (final CharacterCodingException e) {
+            LOG.error("Secret file " + path + " is not UTF-8, keeping current secret", e);
+            return;
+        }
+        LOG.info("Secret file changed: " + path);
+        for (final SecretReference reference : references) {
+            for (final SecretChangeListener listener : listeners) {
+                try {
+                    listener.secretChanged(reference, secret);
+                } catch (final RuntimeException e) {
+                    LOG.error("Secret change listener failed for " + reference, e);
+                }
+            }
+        }
+    }
+
+    private static byte[] digest(final ByteBuffer content) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(content.duplicate());
+            return digest.digest();
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * The references to a file read, and a digest of the content last read.
+     */
+    private static final class WatchedFile {
+        private final Map<String, SecretReference> references = new LinkedHashMap<>();
+        private byte[] digest;
+    }
+}
@@ -0,0 +1,76 @@
+package com.github.secondbase.secrets.file;
+
+import static org.junit.Assert.*;
+
+import com.github.secondbase.secrets.SecretHandlerException;
+import com.github.secondbase.secrets.SecretReference;
+import com.github.secondbase.secrets.SecretValue;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test reading secrets from files and picking up replaced files.
+ */
+public class SecretFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void fetchFileContent() throws Exception {
+        final Path file = folder.newFile("password").toPath();
+        Files.write(file, "pässword\n".getBytes(StandardCharsets.UTF_8));
+
+        final String[] fetched = new FileSecretHandler().fetch(
+                new String[]{"--password", "secret:file:" + file});
+        assertArrayEquals(new String[]{"--password", "pässword\n"}, fetched);
+
+        try (SecretValue value = new FileSecretHandler().resolveValue(
+                SecretReference.find("secret:file:" + file).get())) {
+            assertEquals(9, value.length());
+            assertEquals('ä', value.charAt(1));
+        }
+    }
+
+    @Test(expected = SecretHandlerException.class)
+    public void missingFile() {
+        new FileSecretHandler().fetch(new String[]{"--password", "secret:file:/no/such/file"});
+    }
+
+    /**
+     * Secrets mounted by Kubernetes are symlinks through a "..data" symlink, which is swapped
+     * to point at a new directory when the secret is updated.
+     */
+    @Test
+    public void notifyWhenDataSymlinkIsSwapped() throws Exception {
+        final Path mount = folder.getRoot().toPath();
+        Files.createDirectory(mount.resolve("..v1"));
+        Files.write(mount.resolve("..v1/password"), "first".getBytes(StandardCharsets.UTF_8));
+        Files.createSymbolicLink(mount.resolve("..data"), Paths.get("..v1"));
+        Files.createSymbolicLink(mount.resolve("password"), Paths.get("..data/password"));
+
+        final BlockingQueue<String> changes = new LinkedBlockingQueue<>();
+        try (FileSecretHandler handler = new FileSecretHandler()) {
+            assertEquals("first", handler.resolve(
+                    SecretReference.find("secret:file:" + mount.resolve("password")).get()));
+            handler.addChangeListener((reference, secret) -> changes.add(secret));
+
+            Files.createDirectory(mount.resolve("..v2"));
+            Files.write(mount.resolve("..v2/password"), "second".getBytes(StandardCharsets.UTF_8));
+            Files.createSymbolicLink(mount.resolve("..data_tmp"), Paths.get("..v2"));
+            Files.move(mount.resolve("..data_tmp"), mount.resolve("..data"),
+                    StandardCopyOption.ATOMIC_MOVE);
+
+            assertEquals("second", changes.poll(10, TimeUnit.SECONDS));
+        }
+    }
+}
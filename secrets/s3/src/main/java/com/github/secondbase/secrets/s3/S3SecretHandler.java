@@ -3,31 +3,60 @@ package com.github.secondbase.secrets.s3;
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
-import com.amazonaws.services.s3.model.AmazonS3Exception;
 import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.amazonaws.services.s3.model.S3Object;
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.Optional;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import com.github.secondbase.secrets.AsyncSecretResolver;
 import com.github.secondbase.secrets.SecretHandler;
 import com.github.secondbase.secrets.SecretHandlerException;
+import com.github.secondbase.secrets.SecretHandlerRegistry;
+import com.github.secondbase.secrets.SecretReference;
+import com.github.secondbase.secrets.SecretResolver;
+import com.github.secondbase.secrets.SecretValue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Exchanges args on format secret:s3:bucket:key with the content of s3 url.
+ *
+ * Objects are read as bytes, so newlines and binary content are kept. The ETag and a SHA-256
+ * digest of each object read are remembered, never its content, so callers which keep the
+ * content themselves can poll for changes with {@link #fetchBytesIfChanged(SecretReference)}
+ * without downloading unchanged objects.
  */
-public final class S3SecretHandler implements SecretHandler {
+public final class S3SecretHandler implements SecretHandler, SecretResolver {
+
+    /**
+     * The scheme of S3 secret references, as in secret:s3:bucket:key.
+     */
+    public static final String SCHEME = "s3";
 
     private static final Logger LOG = LoggerFactory.getLogger(S3SecretHandler.class);
     private static AWSCredentialsProvider awsCredentialsProvider;
 
-    private final Pattern p = Pattern.compile(".*(secret:s3:(.+):(.+)).*");
-
     private AmazonS3 s3Client;
+    // The ETag and digest of the last object read for each reference, to detect changes.
+    private final ConcurrentMap<String, ReadObject> lastRead = new ConcurrentHashMap<>();
 
     class SecretPath {
         String bucket;
@@ -40,24 +69,223 @@ public final class S3SecretHandler implements SecretHandler {
         }
     }
 
+    /**
+     * Create a handler which connects to S3 on first use, with the credentials provider set by
+     * {@link #setS3CredentialsProvider(AWSCredentialsProvider)} if any.
+     */
+    public S3SecretHandler() {
+    }
+
+    /**
+     * Create a handler using the given client, for example one configured with a custom
+     * endpoint.
+     *
+     * @param s3Client the client to fetch secrets with
+     */
+    public S3SecretHandler(final AmazonS3 s3Client) {
+        this.s3Client = s3Client;
+    }
+
     @Override
     public String[] fetch(final String[] args) {
-        final String[] ret = new String[args.length];
-        for (int i = 0; i < args.length; i++) {
-            final Optional<SecretPath> s3Path = getS3Path(args[i]);
-            if (s3Path.isPresent()) {
-                LOG.info("Secret recognised: " + args[i]);
-                try {
-                    ret[i] = args[i].replaceAll(
-                            s3Path.get().replaceString, getS3Value(s3Path.get()));
-                    continue;
-                } catch (final IOException e) {
-                    throw new SecretHandlerException("Could not fetch secret from: " + args[i], e);
+        return new SecretHandlerRegistry().register(SCHEME, this).fetch(args);
+    }
+
+    /**
+     * Fetch a secret as text, decoded as UTF-8.
+     */
+    @Override
+    public String resolve(final SecretReference reference) {
+        final byte[] content = fetchBytes(reference);
+        try {
+            return new String(content, StandardCharsets.UTF_8);
+        } finally {
+            Arrays.fill(content, (byte) 0);
+        }
+    }
+
+    /**
+     * Fetch the exact content of an object, for binary secrets such as keystores.
+     *
+     * @param reference the reference to the object, as in secret:s3:bucket:key
+     * @return the content of the object
+     * @throws SecretHandlerException if the reference is invalid or the object could not be read
+     */
+    public byte[] fetchBytes(final SecretReference reference) {
+        return fetchBytes(reference, false).get();
+    }
+
+    /**
+     * Fetch the content of an object only if it changed since it was last read by this handler.
+     * The ETag last read is sent with the request, so S3 answers an unchanged object with 304 Not
+     * Modified instead of its content. An object uploaded again with the same content is not
+     * reported as changed either.
+     *
+     * @param reference the reference to the object, as in secret:s3:bucket:key
+     * @return the content of the object, or empty if it is unchanged
+     * @throws SecretHandlerException if the reference is invalid or the object could not be read
+     */
+    public Optional<byte[]> fetchBytesIfChanged(final SecretReference reference) {
+        return fetchBytes(reference, true);
+    }
+
+    private Optional<byte[]> fetchBytes(
+            final SecretReference reference,
+            final boolean onlyIfChanged) {
+        final SecretPath s3Path = requireS3Path(reference);
+        final String cacheKey = reference.toString();
+        final ReadObject previous = onlyIfChanged ? lastRead.get(cacheKey) : null;
+        final GetObjectRequest request = new GetObjectRequest(s3Path.bucket, s3Path.key);
+        if (previous != null) {
+            request.withNonmatchingETagConstraint(previous.etag);
+        }
+        LOG.info("Fetching secret from s3://" + s3Path.bucket + "/" + s3Path.key);
+        // The client returns null when the ETag constraint is not met.
+        try (S3Object s3object = getS3Client().getObject(request)) {
+            if (s3object == null) {
+                LOG.info("Secret not modified");
+                return Optional.empty();
+            }
+            final byte[] content = readFully(
+                    s3object.getObjectContent(), s3object.getObjectMetadata().getContentLength());
+            LOG.info("Found secret");
+            final byte[] digest = digest(content);
+            final String etag = s3object.getObjectMetadata().getETag();
+            if (etag != null) {
+                lastRead.put(cacheKey, new ReadObject(etag, digest));
+            }
+            if (previous != null && MessageDigest.isEqual(digest, previous.digest)) {
+                LOG.info("Secret not modified");
+                Arrays.fill(content, (byte) 0);
+                return Optional.empty();
+            }
+            return Optional.of(content);
+        } catch (final IOException e) {
+            throw new SecretHandlerException("Could not fetch secret from: " + reference, e);
+        }
+    }
+
+    /**
+     * Stream the content of an object to a new temporary file which only the owner can read
+     * and write, for secrets too large to hold in memory or which must be given to other
+     * libraries as files. The file is deleted when the JVM exits, or earlier by the caller.
+     *
+     * @param reference the reference to the object, as in secret:s3:bucket:key
+     * @return the file holding the content of the object
+     * @throws SecretHandlerException if the reference is invalid or the object could not be read
+     */
+    public Path fetchToFile(final SecretReference reference) {
+        final SecretPath s3Path = requireS3Path(reference);
+        LOG.info("Fetching secret from s3://" + s3Path.bucket + "/" + s3Path.key);
+        try (S3Object s3object = getS3Client().getObject(
+                new GetObjectRequest(s3Path.bucket, s3Path.key))) {
+            final Path file = createPrivateTempFile();
+            file.toFile().deleteOnExit();
+            // Write into the file created, as replacing it would lose its permissions.
+            try (InputStream in = s3object.getObjectContent();
+                 OutputStream out = Files.newOutputStream(
+                         file, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                final byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
                 }
             }
-            ret[i] = args[i];
+            LOG.info("Found secret");
+            return file;
+        } catch (final IOException e) {
+            throw new SecretHandlerException("Could not fetch secret from: " + reference, e);
+        }
+    }
+
+    /**
+     * Adapt this handler to the asynchronous SPI, for registering with
+     * {@link SecretHandlerRegistry#registerAsync(String, AsyncSecretResolver)}. Objects are read
+     * on the executor and decoded as UTF-8 straight into off-heap memory.
+     *
+     * @param executor runs the fetches
+     * @return a resolver fetching objects on the executor
+     */
+    public AsyncSecretResolver async(final Executor executor) {
+        return reference -> CompletableFuture.supplyAsync(() -> {
+            final byte[] content = fetchBytes(reference);
+            try {
+                return SecretValue.decode(ByteBuffer.wrap(content), StandardCharsets.UTF_8);
+            } catch (final CharacterCodingException e) {
+                throw new SecretHandlerException("Secret is not UTF-8: " + reference, e);
+            } finally {
+                Arrays.fill(content, (byte) 0);
+            }
+        }, executor);
+    }
+
+    private SecretPath requireS3Path(final SecretReference reference) {
+        final Optional<SecretPath> s3Path = getS3Path(reference);
+        if (!s3Path.isPresent()) {
+            throw new SecretHandlerException(
+                    "Invalid S3 secret, expected secret:s3:bucket:key: " + reference);
+        }
+        LOG.info("Secret recognised: " + reference);
+        return s3Path.get();
+    }
+
+    private static Path createPrivateTempFile() throws IOException {
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            return Files.createTempFile("s3-secret", null, PosixFilePermissions.asFileAttribute(
+                    PosixFilePermissions.fromString("rw-------")));
+        }
+        final Path file = Files.createTempFile("s3-secret", null);
+        file.toFile().setReadable(false, false);
+        file.toFile().setReadable(true, true);
+        return file;
+    }
+
+    private static byte[] digest(final byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(content);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Read a stream into a buffer of the announced length, or a growing one if the length is
+     * not known. Every buffer but the one returned is zeroed, also when reading fails.
+     */
+    private static byte[] readFully(final InputStream in, final long length) throws IOException {
+        if (length < 0 || length > Integer.MAX_VALUE - 8) {
+            final ZeroingByteArrayOutputStream out = new ZeroingByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            try {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+                return out.toByteArray();
+            } finally {
+                Arrays.fill(buffer, (byte) 0);
+                out.zero();
+            }
+        }
+        final byte[] content = new byte[(int) length];
+        boolean complete = false;
+        try {
+            int offset = 0;
+            while (offset < content.length) {
+                final int read = in.read(content, offset, content.length - offset);
+                if (read == -1) {
+                    throw new EOFException(
+                            "Expected " + length + " bytes, object ended after " + offset);
+                }
+                offset += read;
+            }
+            complete = true;
+            return content;
+        } finally {
+            if (!complete) {
+                Arrays.fill(content, (byte) 0);
+            }
         }
-        return ret;
     }
 
     /**
@@ -72,15 +300,10 @@ public final class S3SecretHandler implements SecretHandler {
     }
 
     /**
-     * Attempt to fetch a secret from S3.
-     *
-     * @param s3path where to fetch it from
-     * @return the content of the file found on S3
-     * @throws IOException on problems streaming the content of the file
-     * @throws AmazonS3Exception on problems communicating with amazon
+     * Get the S3 client, creating it on first use. Synchronized since secrets may be fetched
+     * from several threads at once.
      */
-    private String getS3Value(final SecretPath s3path) throws IOException, AmazonS3Exception {
-        LOG.info("Fetching secret from s3://" + s3path.bucket + "/" + s3path.key);
+    private synchronized AmazonS3 getS3Client() {
         if (s3Client == null) {
             if (awsCredentialsProvider != null) {
                 s3Client = AmazonS3ClientBuilder.standard().withCredentials(awsCredentialsProvider)
@@ -89,31 +312,75 @@ public final class S3SecretHandler implements SecretHandler {
                 s3Client = AmazonS3ClientBuilder.standard().build();
             }
         }
-        final S3Object s3object
-                = s3Client.getObject(new GetObjectRequest(s3path.bucket, s3path.key));
-        final BufferedReader reader
-                = new BufferedReader(new InputStreamReader(s3object.getObjectContent()));
-        final StringBuilder b = new StringBuilder();
-        String line;
-        while((line = reader.readLine()) != null) {
-            b.append(line);
-        }
-        LOG.info("Found secret");
-        reader.close();
-        return b.toString();
+        return s3Client;
     }
 
     /**
      * Returns S3 path based on the syntax: secret:s3:bucket:key if found
      */
     protected Optional<SecretPath> getS3Path(final String path) {
-        if (path == null || path.isEmpty()) {
+        return SecretReference.find(path)
+                .filter(reference -> SCHEME.equals(reference.scheme()))
+                .flatMap(this::getS3Path);
+    }
+
+    /**
+     * Split a reference into bucket and key. Bucket names can not contain colons, so the bucket
+     * ends at the first one and the key may contain more.
+     */
+    private Optional<SecretPath> getS3Path(final SecretReference reference) {
+        final String body = reference.body();
+        final int separator = body.indexOf(':');
+        if (separator <= 0 || separator == body.length() - 1) {
             return Optional.empty();
         }
-        final Matcher m = p.matcher(path);
-        if (!m.matches()) {
-            return Optional.empty();
+        return Optional.of(new SecretPath(
+                body.substring(0, separator),
+                body.substring(separator + 1),
+                reference.toString()));
+    }
+
+    /**
+     * A ByteArrayOutputStream which zeroes each buffer it outgrows, and its last one on request.
+     */
+    private static final class ZeroingByteArrayOutputStream extends ByteArrayOutputStream {
+        @Override
+        public synchronized void write(final int b) {
+            ensureCapacity(1);
+            super.write(b);
+        }
+
+        @Override
+        public synchronized void write(final byte[] b, final int off, final int len) {
+            ensureCapacity(len);
+            super.write(b, off, len);
+        }
+
+        private void ensureCapacity(final int len) {
+            final int needed = count + len;
+            if (needed > buf.length) {
+                final byte[] bigger = Arrays.copyOf(buf, Math.max(needed, buf.length * 2));
+                Arrays.fill(buf, (byte) 0);
+                buf = bigger;
+            }
+        }
+
+        synchronized void zero() {
+            Arrays.fill(buf, (byte) 0);
+            count = 0;
+        }
+    }
+
+    /**
+     * The ETag of an object read from S3 and the SHA-256 digest of its content.
+     */
+    private static final class ReadObject {
+        private final String etag;
+        private final byte[] digest;
+
+        ReadObject(final String etag, final byte[] digest) {
+            this.etag = etag;
+            this.digest = digest;
         }
-        return Optional.of(new SecretPath(m.group(2), m.group(3), m.group(1)));
     }
 }
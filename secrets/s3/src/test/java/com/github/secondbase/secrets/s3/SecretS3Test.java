@@ -2,7 +2,30 @@ package com.github.secondbase.secrets.s3;
 
 import static org.junit.Assert.*;
 
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.client.builder.AwsClientBuilder.EndpointConfiguration;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.github.secondbase.flags.Flags;
+import com.github.secondbase.secrets.SecretHandler;
+import com.github.secondbase.secrets.SecretHandlerRegistry;
+import com.github.secondbase.secrets.SecretReference;
+import com.sun.net.httpserver.HttpServer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.xml.bind.DatatypeConverter;
+import org.junit.After;
 import org.junit.Test;
 import com.github.secondbase.secrets.s3.S3SecretHandler.SecretPath;
 
@@ -10,6 +33,12 @@ import com.github.secondbase.secrets.s3.S3SecretHandler.SecretPath;
  * @author acidmoose
  */
 public class SecretS3Test {
+    private final ExecutorService serverExecutor = Executors.newCachedThreadPool();
+
+    @After
+    public void stopServerExecutor() {
+        serverExecutor.shutdownNow();
+    }
 
     @Test
     public void getS3Path() throws Exception {
@@ -31,6 +60,15 @@ public class SecretS3Test {
             assertEquals(bucket, s3Path.get().bucket);
         }
 
+        {
+            // Bucket names can not contain colons, keys can.
+            final Optional<SecretPath> s3Path = new S3SecretHandler().getS3Path(
+                    "secret:s3:" + bucket + ":with:colons");
+            assertTrue(s3Path.isPresent());
+            assertEquals("with:colons", s3Path.get().key);
+            assertEquals(bucket, s3Path.get().bucket);
+        }
+
         // Invalid flagged secrets or non-secret variables
         assertFalse(new S3SecretHandler().getS3Path("").isPresent());
         assertFalse(new S3SecretHandler().getS3Path("s3:valid:but/not/secret").isPresent());
@@ -39,4 +77,125 @@ public class SecretS3Test {
         assertFalse(new S3SecretHandler().getS3Path("secret:s3::missingbucket").isPresent());
     }
 
-}
\ No newline at end of file
+    /**
+     * Fetch several secrets concurrently from a local stand-in for S3, which serves each object
+     * with its key as content. Flags gives the handler all S3 references in one call, and the
+     * async resolver fetches them concurrently.
+     */
+    @Test
+    public void fetchConcurrentlyFromStandInServer() throws Exception {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(serverExecutor);
+        server.createContext("/", exchange -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(200);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            final String path = exchange.getRequestURI().getPath();
+            final byte[] body = path.substring(path.lastIndexOf('/') + 1)
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "text/plain");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+            inFlight.decrementAndGet();
+        });
+        server.start();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final AmazonS3 s3Client = clientFor(server);
+            final String[] args = new String[8];
+            for (int i = 0; i < 4; i++) {
+                args[2 * i] = "--flag" + i;
+                args[2 * i + 1] = "secret:s3:bucket:folder/value" + i;
+            }
+
+            final String[] fetched = new Flags(new SecretHandler[]{new SecretHandlerRegistry()
+                    .registerAsync(S3SecretHandler.SCHEME,
+                            new S3SecretHandler(s3Client).async(executor))})
+                    .setSecretFetchParallelism(4)
+                    .setSecretFetchTimeout(10, TimeUnit.SECONDS)
+                    .fetchSecrets(args);
+
+            for (int i = 0; i < 4; i++) {
+                assertEquals("--flag" + i, fetched[2 * i]);
+                assertEquals("value" + i, fetched[2 * i + 1]);
+            }
+            assertTrue(maxInFlight.get() > 1);
+        } finally {
+            executor.shutdownNow();
+            server.stop(0);
+        }
+    }
+
+    private static AmazonS3 clientFor(final HttpServer server) {
+        return AmazonS3ClientBuilder.standard()
+                .withEndpointConfiguration(new EndpointConfiguration(
+                        "http://127.0.0.1:" + server.getAddress().getPort(), "us-east-1"))
+                .withPathStyleAccessEnabled(true)
+                .withCredentials(new AWSStaticCredentialsProvider(
+                        new BasicAWSCredentials("access", "secret")))
+                .build();
+    }
+
+    /**
+     * Objects are read byte for byte, and polled for changes with a conditional GET which is
+     * answered with 304 Not Modified while the ETag is unchanged.
+     */
+    @Test
+    public void fetchBytesAndSkipUnchangedObjects() throws Exception {
+        final byte[] content = "-----BEGIN KEY-----\nAAEC\n-----END KEY-----\n\u0000\u00ff"
+                .getBytes(StandardCharsets.ISO_8859_1);
+        final String etag = DatatypeConverter.printHexBinary(
+                MessageDigest.getInstance("MD5").digest(content)).toLowerCase();
+        final AtomicInteger downloads = new AtomicInteger();
+        final AtomicInteger notModified = new AtomicInteger();
+        final HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            exchange.getResponseHeaders().add("ETag", "\"" + etag + "\"");
+            final String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+            if (ifNoneMatch != null && ifNoneMatch.replace("\"", "").equals(etag)) {
+                notModified.incrementAndGet();
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            downloads.incrementAndGet();
+            exchange.getResponseHeaders().add("Content-Type", "application/octet-stream");
+            exchange.sendResponseHeaders(200, content.length);
+            exchange.getResponseBody().write(content);
+            exchange.close();
+        });
+        server.start();
+        try {
+            final S3SecretHandler handler = new S3SecretHandler(clientFor(server));
+            final SecretReference reference = SecretReference.find("secret:s3:bucket:key.pem").get();
+
+            assertArrayEquals(content, handler.fetchBytes(reference));
+            assertFalse(handler.fetchBytesIfChanged(reference).isPresent());
+            assertFalse(handler.fetchBytesIfChanged(reference).isPresent());
+            assertEquals(1, downloads.get());
+            assertEquals(2, notModified.get());
+            // Plain reads always download, as the content is not kept.
+            assertEquals(new String(content, StandardCharsets.UTF_8), handler.resolve(reference));
+            assertEquals(2, downloads.get());
+
+            final Path file = handler.fetchToFile(reference);
+            try {
+                assertArrayEquals(content, Files.readAllBytes(file));
+                if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+                    assertEquals(PosixFilePermissions.fromString("rw-------"),
+                            Files.getPosixFilePermissions(file));
+                }
+            } finally {
+                Files.delete(file);
+            }
+        } finally {
+            server.stop(0);
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.github.secondbase.secrets.vault;
+
+import com.bettercloud.vault.VaultException;
+import com.bettercloud.vault.json.Json;
+import com.bettercloud.vault.json.JsonObject;
+import com.bettercloud.vault.response.LogicalResponse;
+import com.bettercloud.vault.response.VaultResponse;
+import com.github.secondbase.secrets.SecretChangeListener;
+import com.github.secondbase.secrets.SecretReference;
+import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the leases of secrets read from Vault alive.
+ *
+ * A lease is renewed after between 57% and 67% of its duration has passed, the jitter keeping
+ * leases read together from being renewed together. When the lease can not be renewed, because
+ * it is not renewable, renewal failed or Vault granted less than asked for as the lease nears its
+ * maximum time to live, the path is read again and the listeners are told about every secret
+ * which changed. The new lease is then tracked in place of the old one.
+ */
+final class VaultLeaseRenewer implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(VaultLeaseRenewer.class);
+    private static final double RENEW_FRACTION = 2.0 / 3;
+    private static final double JITTER = 0.1;
+    private static final long MIN_RETRY_MILLIS = 1000;
+
+    private final VaultSecretHandler handler;
+    private final ScheduledExecutorService scheduler;
+    private final List<SecretChangeListener> listeners = new CopyOnWriteArrayList<>();
+    // The lease tracked for each path. Guarded by this.
+    private final Map<String, Lease> leases = new HashMap<>();
+
+    VaultLeaseRenewer(final VaultSecretHandler handler) {
+        this.handler = handler;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "vault-lease-renewer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    void addListener(final SecretChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Track the lease of a path just read, replacing any lease tracked for it before.
+     * @param path the path read
+     * @param response the response of the read
+     * @param keys the keys read from the path, by reference
+     */
+    synchronized void track(
+            final String path,
+            final LogicalResponse response,
+            final Map<SecretReference, String> keys) {
+        if (!hasLease(response)) {
+            return;
+        }
+        final Map<SecretReference, String> tracked = new LinkedHashMap<>();
+        final Lease previous = leases.remove(path);
+        if (previous != null) {
+            previous.cancel();
+            tracked.putAll(previous.keys);
+        }
+        tracked.putAll(keys);
+        final Lease lease = new Lease(path, response, tracked);
+        leases.put(path, lease);
+        schedule(lease, renewalDelayMillis(lease.durationSeconds));
+    }
+
+    private static boolean hasLease(final LogicalResponse response) {
+        return response.getLeaseId() != null
+                && !response.getLeaseId().isEmpty()
+                && response.getLeaseDuration() != null
+                && response.getLeaseDuration() > 0;
+    }
+
+    private static long renewalDelayMillis(final long durationSeconds) {
+        final double fraction = RENEW_FRACTION - JITTER * ThreadLocalRandom.current().nextDouble();
+        return (long) (TimeUnit.SECONDS.toMillis(durationSeconds) * fraction);
+    }
+
+    private synchronized void schedule(final Lease lease, final long delayMillis) {
+        if (leases.get(lease.path) != lease || scheduler.isShutdown()) {
+            return;
+        }
+        lease.task = scheduler.schedule(() -> run(lease), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized boolean isTracked(final Lease lease) {
+        return leases.get(lease.path) == lease;
+    }
+
+    private void run(final Lease lease) {
+        if (!isTracked(lease)) {
+            return;
+        }
+        if (lease.renewable && renew(lease)) {
+            schedule(lease, renewalDelayMillis(lease.durationSeconds));
+            return;
+        }
+        reread(lease);
+    }
+
+    /**
+     * @return {@code true} if Vault extended the lease by its full duration
+     */
+    private boolean renew(final Lease lease) {
+        final VaultResponse response;
+        try {
+            response = handler.getVault().leases().renew(lease.leaseId, lease.durationSeconds);
+        } catch (final VaultException e) {
+            LOG.warn("Could not renew lease " + lease.leaseId + ", reading " + lease.path
+                    + " again", e);
+            return false;
+        }
+        final JsonObject body = Json.parse(
+                new String(response.getRestResponse().getBody(), StandardCharsets.UTF_8))
+                .asObject();
+        final long granted = body.getLong("lease_duration", 0);
+        if (granted < lease.durationSeconds) {
+            LOG.info("Lease " + lease.leaseId + " nears its maximum time to live, reading "
+                    + lease.path + " again");
+            return false;
+        }
+        lease.renewable = body.getBoolean("renewable", lease.renewable);
+        LOG.debug("Renewed lease " + lease.leaseId);
+        return true;
+    }
+
+    private void reread(final Lease lease) {
+        final LogicalResponse response;
+        try {
+            response = handler.readPath(lease.path);
+        } catch (final VaultException | RuntimeException e) {
+            final long retryMillis = Math.max(
+                    MIN_RETRY_MILLIS, TimeUnit.SECONDS.toMillis(lease.durationSeconds) / 10);
+            LOG.error("Could not read " + lease.path + " again, retrying in " + retryMillis
+                    + " ms", e);
+            lease.renewable = false;
+            schedule(lease, retryMillis);
+            return;
+        }
+
+        final Lease next;
+        synchronized (this) {
+            if (!isTracked(lease)) {
+                return;
+            }
+            if (hasLease(response)) {
+                next = new Lease(lease.path, response, lease.keys);
+                leases.put(lease.path, next);
+            } else {
+                next = null;
+                leases.remove(lease.path);
+            }
+        }
+        notifyChanges(lease, response.getData());
+        if (next != null) {
+            schedule(next, renewalDelayMillis(next.durationSeconds));
+        }
+    }
+
+    private void notifyChanges(final Lease lease, final Map<String, String> data) {
+        for (final Map.Entry<SecretReference, String> key : lease.keys.entrySet()) {
+            final String secret = data.get(key.getValue());
+            if (secret == null) {
+                LOG.warn("No secret found for: " + key.getKey() + " after reading it again");
+                continue;
+            }
+            if (secret.equals(lease.data.get(key.getValue()))) {
+                continue;
+            }
+            for (final SecretChangeListener listener : listeners) {
+                try {
+                    listener.secretChanged(key.getKey(), secret);
+                } catch (final RuntimeException e) {
+                    LOG.error("Secret change listener failed for " + key.getKey(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop renewing leases. The leases themselves are left to expire.
+     */
+    @Override
+    public synchronized void close() {
+        scheduler.shutdownNow();
+        leases.clear();
+    }
+
+    /**
+     * The lease of a path, and the keys read from it.
+     */
+    private static final class Lease {
+        private final String path;
+        private final String leaseId;
+        private final Map<String, String> data;
+        private final Map<SecretReference, String> keys;
+        // Only changed by the renewer thread.
+        private long durationSeconds;
+        private boolean renewable;
+        private ScheduledFuture<?> task;
+
+        Lease(
+                final String path,
+                final LogicalResponse response,
+                final Map<SecretReference, String> keys) {
+            this.path = path;
+            this.leaseId = response.getLeaseId();
+            this.data = response.getData();
+            this.keys = keys;
+            this.durationSeconds = response.getLeaseDuration();
+            this.renewable = Boolean.TRUE.equals(response.getRenewable());
+        }
+
+        void cancel() {
+            if (task != null) {
+                task.cancel(false);
+            }
+        }
+    }
+}
@@ -3,22 +3,75 @@ package com.github.secondbase.secrets.vault;
 import com.bettercloud.vault.Vault;
 import com.bettercloud.vault.VaultConfig;
 import com.bettercloud.vault.VaultException;
+import com.bettercloud.vault.response.LogicalResponse;
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import com.github.secondbase.secrets.AsyncSecretResolver;
+import com.github.secondbase.secrets.SecretChangeListener;
 import com.github.secondbase.secrets.SecretHandler;
 import com.github.secondbase.secrets.SecretHandlerException;
+import com.github.secondbase.secrets.SecretHandlerRegistry;
+import com.github.secondbase.secrets.SecretReference;
+import com.github.secondbase.secrets.SecretResolver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Exchanges args on format secret:vault:path/to/data:key with content from vault.
+ *
+ * Secrets are treated as static unless lease renewal is enabled, in which case the leases of
+ * dynamic secrets are renewed in the background and the secrets are read again once their leases
+ * can no longer be renewed. See {@link #enableLeaseRenewal()}.
+ *
+ * A prefix can be given with {@link #setPrefetchPrefix(String)} to read every secret below it
+ * with one list per level of the subtree and concurrent reads of its paths before the first
+ * secret is resolved. References below the prefix are then resolved from memory the first time,
+ * and read again afterwards.
  */
-public final class VaultSecretHandler implements SecretHandler {
+public final class VaultSecretHandler implements SecretHandler, SecretResolver, Closeable {
+
+    /**
+     * The scheme of Vault secret references, as in secret:vault:path/to/data:key.
+     */
+    public static final String SCHEME = "vault";
+
+    private static final int PREFETCH_PARALLELISM = 16;
 
     private static final Logger LOG = LoggerFactory.getLogger(VaultSecretHandler.class);
-    private static VaultConfig vaultConfig;
-    private final Pattern p = Pattern.compile("(secret:vault:(.*):(.*))");
+    private static volatile VaultConfig vaultConfig;
+
+    private Vault vault;
+    // The configuration the client was created with, null for the environment.
+    private VaultConfig vaultClientConfig;
+
+    // Reads in progress, by path.
+    private final ConcurrentMap<String, CompletableFuture<LogicalResponse>> pathReads
+            = new ConcurrentHashMap<>();
+    // Prefixes to read before resolving secrets, removed once read.
+    private final List<String> prefetchPrefixes = new CopyOnWriteArrayList<>();
+    // The responses read by prefetching, by path, replaced when a path is read again and removed
+    // once resolved, so later resolves read the path again.
+    private final ConcurrentMap<String, LogicalResponse> prefetched = new ConcurrentHashMap<>();
+    // Null until lease renewal is enabled.
+    private volatile VaultLeaseRenewer leaseRenewer;
 
     class SecretPath {
         String path;
@@ -33,23 +86,132 @@ public final class VaultSecretHandler implements SecretHandler {
 
     @Override
     public String[] fetch(final String[] args) {
-        final String[] ret = new String[args.length];
-        for (int i = 0; i < args.length; i++) {
-            final Optional<SecretPath> vaultPath = getVaultPath(args[i]);
-            if (vaultPath.isPresent()) {
-                LOG.info("Secret recognised: " + args[i]);
+        return new SecretHandlerRegistry().register(SCHEME, this).fetch(args);
+    }
+
+    /**
+     * Read every secret below a path before resolving the next secrets, so references below it
+     * are resolved from memory. The subtree is listed one level at a time and the paths found
+     * are read concurrently. If the prefix can not be listed, secrets are read one path at a
+     * time as usual.
+     *
+     * Every path below the prefix is read, so give a prefix holding static secrets only, not a
+     * mount issuing dynamic secrets.
+     *
+     * @param prefix the path to read the subtree of, such as secret/myservice/
+     * @return this
+     */
+    public VaultSecretHandler setPrefetchPrefix(final String prefix) {
+        if (prefix != null && !prefix.isEmpty() && !prefetchPrefixes.contains(prefix)) {
+            prefetchPrefixes.add(prefix);
+        }
+        return this;
+    }
+
+    @Override
+    public String resolve(final SecretReference reference) {
+        return resolveAll(Collections.singletonList(reference)).get(0);
+    }
+
+    /**
+     * Read each distinct path once, and take the secrets of all keys referring to it from the
+     * data read.
+     */
+    @Override
+    public List<String> resolveAll(final List<SecretReference> references) {
+        prefetch();
+        final Map<String, LogicalResponse> responses = new HashMap<>();
+        final Map<String, Map<SecretReference, String>> keysByPath = new HashMap<>();
+        final List<String> secrets = new ArrayList<>(references.size());
+        for (final SecretReference reference : references) {
+            final Optional<SecretPath> vaultPath = getVaultPath(reference);
+            if (!vaultPath.isPresent()) {
+                throw new SecretHandlerException(
+                        "Invalid Vault secret, expected secret:vault:path:key: " + reference);
+            }
+            LOG.info("Secret recognised: " + reference);
+            LogicalResponse response = responses.get(vaultPath.get().path);
+            if (response == null) {
+                response = prefetched.remove(vaultPath.get().path);
+                if (response != null) {
+                    responses.put(vaultPath.get().path, response);
+                }
+            }
+            if (response == null) {
                 try {
-                    ret[i] = args[i].replaceAll(
-                            vaultPath.get().replaceString,
-                            getVaultSecret(vaultPath.get()));
-                    continue;
+                    response = readPath(vaultPath.get().path);
                 } catch (final VaultException e) {
-                    throw new SecretHandlerException("Could not fetch secret from: " + args[i], e);
+                    throw new SecretHandlerException(
+                            "Could not fetch secret from: " + reference, e);
                 }
+                responses.put(vaultPath.get().path, response);
+            }
+            final String secret = response.getData().get(vaultPath.get().value);
+            if (secret == null) {
+                throw new SecretHandlerException("No secret found for: " + reference);
+            }
+            keysByPath.computeIfAbsent(vaultPath.get().path, path -> new LinkedHashMap<>())
+                    .put(reference, vaultPath.get().value);
+            secrets.add(secret);
+        }
+        final VaultLeaseRenewer renewer = leaseRenewer;
+        if (renewer != null) {
+            for (final Map.Entry<String, LogicalResponse> read : responses.entrySet()) {
+                renewer.track(read.getKey(), read.getValue(), keysByPath.get(read.getKey()));
             }
-            ret[i] = args[i];
         }
-        return ret;
+        return secrets;
+    }
+
+    /**
+     * Adapt this handler to the asynchronous SPI, for registering with
+     * {@link SecretHandlerRegistry#registerAsync(String, AsyncSecretResolver)}. Secrets are read
+     * on the executor. Keys at the same path requested at the same time share one read.
+     *
+     * @param executor runs the reads
+     * @return a resolver reading secrets on the executor
+     */
+    public AsyncSecretResolver async(final Executor executor) {
+        return AsyncSecretResolver.of(this, executor);
+    }
+
+    /**
+     * Renew the leases of secrets fetched from now on in the background. A lease is renewed when
+     * about two thirds of its duration has passed. When it can not be renewed any more, the
+     * secret is read again and the change listeners are notified of the new secret.
+     *
+     * @return this
+     */
+    public synchronized VaultSecretHandler enableLeaseRenewal() {
+        if (leaseRenewer == null) {
+            leaseRenewer = new VaultLeaseRenewer(this);
+        }
+        return this;
+    }
+
+    /**
+     * Be notified when a secret is read again because its lease could not be renewed. Enables
+     * lease renewal.
+     *
+     * @param listener the listener to notify
+     * @return this
+     */
+    public synchronized VaultSecretHandler addChangeListener(
+            final SecretChangeListener listener) {
+        enableLeaseRenewal();
+        leaseRenewer.addListener(listener);
+        return this;
+    }
+
+    /**
+     * Stop renewing leases. The secrets already fetched are left to expire with their leases.
+     */
+    @Override
+    public synchronized void close() {
+        if (leaseRenewer != null) {
+            leaseRenewer.close();
+            leaseRenewer = null;
+        }
     }
 
     /**
@@ -75,34 +237,169 @@ public final class VaultSecretHandler implements SecretHandler {
      * @return a SecretPath if the path is a valid vault path
      */
     protected Optional<SecretPath> getVaultPath(final String path) {
-        if (path == null || path.isEmpty()) {
+        return SecretReference.find(path)
+                .filter(reference -> SCHEME.equals(reference.scheme()))
+                .flatMap(this::getVaultPath);
+    }
+
+    /**
+     * Split a reference into path and key at the last colon.
+     */
+    private Optional<SecretPath> getVaultPath(final SecretReference reference) {
+        final String body = reference.body();
+        final int separator = body.lastIndexOf(':');
+        if (separator < 0) {
             return Optional.empty();
         }
-        final Matcher m = p.matcher(path);
-        if (!m.matches()) {
-            return Optional.empty();
+        return Optional.of(new SecretPath(
+                body.substring(0, separator),
+                body.substring(separator + 1),
+                reference.toString()));
+    }
+
+    /**
+     * Read the data stored at a path. Threads reading the same path at the same time share one
+     * read.
+     *
+     * @param path the logical path to read
+     * @return the response holding the data found in vault, by key, and its lease
+     * @throws VaultException if there were problems reading the path
+     */
+    LogicalResponse readPath(final String path) throws VaultException {
+        final CompletableFuture<LogicalResponse> read = new CompletableFuture<>();
+        final CompletableFuture<LogicalResponse> inFlight = pathReads.putIfAbsent(path, read);
+        if (inFlight != null) {
+            return awaitRead(inFlight);
+        }
+        try {
+            LOG.info("Fetching secrets from Vault");
+            final LogicalResponse response = getVault().logical().read(path);
+            LOG.info("Found secrets");
+            prefetched.replace(path, response);
+            read.complete(response);
+            return response;
+        } catch (final VaultException | RuntimeException e) {
+            read.completeExceptionally(e);
+            throw e;
+        } finally {
+            pathReads.remove(path, read);
         }
-        return Optional.of(new SecretPath(m.group(2), m.group(3), m.group(1)));
     }
 
     /**
-     * Get a value from vault based on a VaultPath
+     * Read the subtrees of the prefixes given and not yet read.
+     */
+    private void prefetch() {
+        if (prefetchPrefixes.isEmpty()) {
+            return;
+        }
+        synchronized (prefetchPrefixes) {
+            for (final String prefix : prefetchPrefixes) {
+                final long start = System.nanoTime();
+                final ExecutorService executor = Executors.newFixedThreadPool(
+                        PREFETCH_PARALLELISM, r -> {
+                            final Thread thread = new Thread(r, "vault-prefetch");
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+                try {
+                    final int read = prefetch(prefix, executor);
+                    LOG.info("Prefetched " + read + " paths below " + prefix + " in "
+                            + (System.nanoTime() - start) / 1_000_000 + " ms");
+                } catch (final VaultException e) {
+                    LOG.warn("Could not prefetch secrets below " + prefix
+                            + ", reading them one path at a time", e);
+                } finally {
+                    executor.shutdownNow();
+                    prefetchPrefixes.remove(prefix);
+                }
+            }
+        }
+    }
+
+    /**
+     * List the subtree of a prefix breadth first, listing the directories of each level and
+     * reading the paths found concurrently.
+     *
+     * @return the number of paths read
+     */
+    private int prefetch(final String prefix, final ExecutorService executor)
+            throws VaultException {
+        final String root = prefix.endsWith("/") ? prefix : prefix + "/";
+        final Map<String, Future<LogicalResponse>> reads = new LinkedHashMap<>();
+        Deque<String> level = new ArrayDeque<>(Collections.singletonList(root));
+        while (!level.isEmpty()) {
+            final Map<String, Future<List<String>>> lists = new LinkedHashMap<>();
+            for (final String directory : level) {
+                lists.put(directory, executor.submit(() -> getVault().logical().list(directory)));
+            }
+            final Deque<String> next = new ArrayDeque<>();
+            for (final Map.Entry<String, Future<List<String>>> list : lists.entrySet()) {
+                for (final String child : await(list.getValue())) {
+                    final String path = list.getKey() + child;
+                    if (child.endsWith("/")) {
+                        next.add(path);
+                    } else {
+                        reads.put(path, executor.submit(() -> readPath(path)));
+                    }
+                }
+            }
+            level = next;
+        }
+        int read = 0;
+        for (final Map.Entry<String, Future<LogicalResponse>> path : reads.entrySet()) {
+            try {
+                prefetched.put(path.getKey(), await(path.getValue()));
+                read++;
+            } catch (final VaultException e) {
+                LOG.debug("Could not prefetch " + path.getKey(), e);
+            }
+        }
+        return read;
+    }
+
+    private static <T> T await(final Future<T> future) throws VaultException {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new VaultException(e);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof VaultException) {
+                throw (VaultException) e.getCause();
+            }
+            throw new VaultException(e.getCause());
+        }
+    }
+
+    private static LogicalResponse awaitRead(
+            final CompletableFuture<LogicalResponse> read) throws VaultException {
+        try {
+            return read.join();
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof VaultException) {
+                throw (VaultException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Get the Vault client, creating it on first use and again if the configuration is changed.
      *
-     * @param vaultPath the details of where to find the value
-     * @return the value found in vault
-     * @throws VaultException if there were problems getting the value
+     * @return the Vault client
+     * @throws VaultException if the configuration could not be read from the environment
      */
-    private String getVaultSecret(final SecretPath vaultPath) throws VaultException {
-        LOG.info("Fetching secret from Vault");
-        final Vault vault = new Vault(
-                (vaultConfig == null) ? new VaultConfig().build() : vaultConfig);
-        final String secret = vault
-                .logical()
-                .read(vaultPath.path)
-                .getData()
-                .get(vaultPath.value);
-        LOG.info("Found secret");
-        return secret;
+    synchronized Vault getVault() throws VaultException {
+        final VaultConfig config = vaultConfig;
+        if (vault == null || vaultClientConfig != config) {
+            vault = new Vault(config == null ? new VaultConfig().build() : config);
+            vaultClientConfig = config;
+        }
+        return vault;
     }
 
 }
@@ -2,7 +2,24 @@ package com.github.secondbase.secrets.vault;
 
 import static org.junit.Assert.*;
 
+import com.bettercloud.vault.VaultConfig;
+import com.bettercloud.vault.VaultException;
+import com.github.secondbase.flags.Flags;
+import com.github.secondbase.secrets.SecretHandler;
+import com.github.secondbase.secrets.SecretHandlerRegistry;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
 import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
 import org.junit.Test;
 import com.github.secondbase.secrets.vault.VaultSecretHandler.SecretPath;
 
@@ -10,6 +27,12 @@ import com.github.secondbase.secrets.vault.VaultSecretHandler.SecretPath;
  * Test vault secret recognition and substitution
  */
 public class SecretVaultTest {
+    private final ExecutorService serverExecutor = Executors.newCachedThreadPool();
+
+    @After
+    public void stopServerExecutor() {
+        serverExecutor.shutdownNow();
+    }
 
     @Test
     public void getVaultPath() throws Exception {
@@ -34,4 +57,216 @@ public class SecretVaultTest {
         assertEquals(key, vaultPath.get().value);
         assertEquals(path, vaultPath.get().path);
     }
-}
\ No newline at end of file
+
+    /**
+     * Start a local stand-in for Vault, which answers reads of any path with "key", "user" and
+     * "password" holding the path, and point VaultSecretHandler at it.
+     */
+    private HttpServer startStandInVault(
+            final AtomicInteger reads,
+            final AtomicInteger maxInFlight,
+            final long delayMillis) throws IOException {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(serverExecutor);
+        server.createContext("/v1/", exchange -> {
+            reads.incrementAndGet();
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(delayMillis);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            final String path = exchange.getRequestURI().getPath().substring("/v1/".length());
+            final byte[] body = ("{\"lease_id\":\"\",\"renewable\":false,\"lease_duration\":0,"
+                    + "\"data\":{\"key\":\"" + path + "\",\"user\":\"" + path + "-user\","
+                    + "\"password\":\"" + path + "-password\"}}")
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+            inFlight.decrementAndGet();
+        });
+        server.start();
+        try {
+            VaultSecretHandler.setVaultConfig(new VaultConfig()
+                    .address("http://127.0.0.1:" + server.getAddress().getPort())
+                    .token("token")
+                    .build());
+        } catch (final VaultException e) {
+            server.stop(0);
+            throw new IOException(e);
+        }
+        return server;
+    }
+
+    /**
+     * Fetch several secrets concurrently from a local stand-in for Vault. Flags gives the handler
+     * all Vault references in one call, and the async resolver fetches them concurrently.
+     */
+    @Test
+    public void fetchConcurrentlyFromStandInServer() throws Exception {
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final HttpServer server = startStandInVault(new AtomicInteger(), maxInFlight, 200);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final String[] args = new String[8];
+            for (int i = 0; i < 4; i++) {
+                args[2 * i] = "--flag" + i;
+                args[2 * i + 1] = "secret:vault:secret/path" + i + ":key";
+            }
+
+            final String[] fetched = new Flags(new SecretHandler[]{new SecretHandlerRegistry()
+                    .registerAsync(VaultSecretHandler.SCHEME,
+                            new VaultSecretHandler().async(executor))})
+                    .setSecretFetchParallelism(4)
+                    .setSecretFetchTimeout(10, TimeUnit.SECONDS)
+                    .fetchSecrets(args);
+
+            for (int i = 0; i < 4; i++) {
+                assertEquals("--flag" + i, fetched[2 * i]);
+                assertEquals("secret/path" + i, fetched[2 * i + 1]);
+            }
+            assertTrue(maxInFlight.get() > 1);
+        } finally {
+            executor.shutdownNow();
+            VaultSecretHandler.setVaultConfig(null);
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Keys stored at the same path are fetched with one read of the path.
+     */
+    @Test
+    public void readEachPathOnce() throws Exception {
+        final AtomicInteger reads = new AtomicInteger();
+        final HttpServer server = startStandInVault(reads, new AtomicInteger(), 0);
+        try {
+            final String[] args = {
+                    "--user", "secret:vault:db/prod:user",
+                    "--password", "secret:vault:db/prod:password",
+                    "--other", "secret:vault:other:key"};
+            final String[] expected = {
+                    "--user", "db/prod-user",
+                    "--password", "db/prod-password",
+                    "--other", "other"};
+            assertArrayEquals(expected, new VaultSecretHandler().fetch(args));
+            assertEquals(2, reads.get());
+
+            // Fetching concurrently, the handler is still given all Vault references at once.
+            assertArrayEquals(expected, new Flags(new SecretHandler[]{new VaultSecretHandler()})
+                    .setSecretFetchParallelism(4)
+                    .fetchSecrets(args));
+            assertEquals(4, reads.get());
+        } finally {
+            VaultSecretHandler.setVaultConfig(null);
+            server.stop(0);
+        }
+    }
+
+    /**
+     * A lease which can no longer be renewed is replaced by reading the secret again, and the
+     * listeners are given the new secret.
+     */
+    @Test
+    public void readAgainWhenLeaseCanNotBeRenewed() throws Exception {
+        final AtomicInteger reads = new AtomicInteger();
+        final AtomicInteger renewals = new AtomicInteger();
+        final HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/v1/", exchange -> {
+            final int read = reads.incrementAndGet();
+            respond(exchange, "{\"lease_id\":\"database/creds/app/" + read + "\","
+                    + "\"renewable\":true,\"lease_duration\":1,"
+                    + "\"data\":{\"password\":\"password-" + read + "\"}}");
+        });
+        // Vault grants less than asked for once the lease nears its maximum time to live.
+        server.createContext("/v1/sys/renew/", exchange -> {
+            renewals.incrementAndGet();
+            respond(exchange, "{\"lease_id\":\"\",\"renewable\":true,\"lease_duration\":0}");
+        });
+        server.start();
+        final BlockingQueue<String> changes = new LinkedBlockingQueue<>();
+        final VaultSecretHandler handler = new VaultSecretHandler()
+                .addChangeListener((reference, secret) -> changes.add(reference + "=" + secret));
+        try {
+            VaultSecretHandler.setVaultConfig(new VaultConfig()
+                    .address("http://127.0.0.1:" + server.getAddress().getPort())
+                    .token("token")
+                    .build());
+            assertArrayEquals(new String[]{"--password", "password-1"},
+                    handler.fetch(new String[]{
+                            "--password", "secret:vault:database/creds/app:password"}));
+
+            assertEquals("secret:vault:database/creds/app:password=password-2",
+                    changes.poll(10, TimeUnit.SECONDS));
+            assertTrue(renewals.get() >= 1);
+        } finally {
+            handler.close();
+            VaultSecretHandler.setVaultConfig(null);
+            server.stop(0);
+        }
+    }
+
+    /**
+     * A prefetched subtree is listed once per level and read once per path, and secrets below it
+     * are then resolved from memory once. Later fetches read the path again.
+     */
+    @Test
+    public void prefetchSubtree() throws Exception {
+        final AtomicInteger lists = new AtomicInteger();
+        final AtomicInteger reads = new AtomicInteger();
+        final HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(serverExecutor);
+        server.createContext("/v1/", exchange -> {
+            final String path = exchange.getRequestURI().getPath().substring("/v1/".length());
+            if ("list=true".equals(exchange.getRequestURI().getQuery())) {
+                lists.incrementAndGet();
+                respond(exchange, path.equals("secret/app/")
+                        ? "{\"data\":{\"keys\":[\"db\",\"nested/\"]}}"
+                        : "{\"data\":{\"keys\":[\"api\"]}}");
+                return;
+            }
+            reads.incrementAndGet();
+            respond(exchange, "{\"data\":{\"key\":\"" + path + "\"}}");
+        });
+        server.start();
+        try {
+            VaultSecretHandler.setVaultConfig(new VaultConfig()
+                    .address("http://127.0.0.1:" + server.getAddress().getPort())
+                    .token("token")
+                    .build());
+            final VaultSecretHandler handler = new VaultSecretHandler()
+                    .setPrefetchPrefix("secret/app");
+            final String[] fetched = new Flags(new SecretHandler[]{handler})
+                    .setSecretFetchParallelism(4)
+                    .fetchSecrets(new String[]{
+                            "--db", "secret:vault:secret/app/db:key",
+                            "--api", "secret:vault:secret/app/nested/api:key"});
+
+            assertArrayEquals(new String[]{
+                    "--db", "secret/app/db",
+                    "--api", "secret/app/nested/api"}, fetched);
+            assertEquals(2, lists.get());
+            assertEquals(2, reads.get());
+
+            assertArrayEquals(new String[]{"--db", "secret/app/db"},
+                    handler.fetch(new String[]{"--db", "secret:vault:secret/app/db:key"}));
+            assertEquals(2, lists.get());
+            assertEquals(3, reads.get());
+        } finally {
+            VaultSecretHandler.setVaultConfig(null);
+            server.stop(0);
+        }
+    }
+
+    private static void respond(final HttpExchange exchange, final String json)
+            throws IOException {
+        final byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+    }
+}
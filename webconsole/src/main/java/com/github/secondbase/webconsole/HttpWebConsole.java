@@ -6,6 +6,12 @@ import com.sun.net.httpserver.HttpServer;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import com.github.secondbase.core.SecondBase;
 import com.github.secondbase.core.SecondBaseException;
 import com.github.secondbase.core.config.SecondBaseModule;
@@ -15,12 +21,24 @@ import org.slf4j.LoggerFactory;
 
 /**
  * A webserver for hosting secondbase servlets using Sun's {@link HttpServer}.
+ *
+ * Requests are handled one at a time on the thread accepting connections, unless
+ * {@link WebConsoleConfiguration} sizes a bounded pool of threads for them so a slow widget does
+ * not hold up /healthz. Once the pool and its queue are full, the thread accepting connections
+ * answers requests to widgets with 503 Service Unavailable, and answers /healthz itself. Another
+ * executor can be given with {@link #setExecutor(Executor)}.
  */
 public final class HttpWebConsole implements SecondBaseModule {
 
     private static final Logger LOG = LoggerFactory.getLogger(HttpWebConsole.class);
+    // Set on the thread accepting connections while it handles a request the pool had no room
+    // for.
+    private static final ThreadLocal<Boolean> OVERLOADED = new ThreadLocal<>();
     private final HttpServer server;
     private final Widget[] widgets;
+    private Executor executor;
+    // The pool created from the configuration, shut down with the server.
+    private ExecutorService ownExecutor;
 
     /**
      * Basic /healthz endpoint, returning 200 OK.
@@ -38,6 +56,27 @@ public final class HttpWebConsole implements SecondBaseModule {
         }
     }
 
+    /**
+     * Answers with 503 instead of running the widget when the request pool is full.
+     */
+    private static final class SheddingHandler implements HttpHandler {
+        private final HttpHandler widget;
+
+        SheddingHandler(final HttpHandler widget) {
+            this.widget = widget;
+        }
+
+        @Override
+        public void handle(final HttpExchange t) throws IOException {
+            if (OVERLOADED.get() == null) {
+                widget.handle(t);
+                return;
+            }
+            t.sendResponseHeaders(503, -1);
+            t.close();
+        }
+    }
+
     /**
      * Set up the webconsole without widgets using port from {@link WebConsoleConfiguration}.
      * @throws IOException if server can't start on a given port
@@ -85,10 +124,28 @@ public final class HttpWebConsole implements SecondBaseModule {
         });
     }
 
+    /**
+     * Handle requests on the given executor instead of a pool sized by the configuration. The
+     * executor is not shut down with the server.
+     * @param executor to handle requests on, must be given before the server is started
+     * @return this
+     */
+    public HttpWebConsole setExecutor(final Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
     public void start() throws IOException {
         if (WebConsoleConfiguration.port == 0) {
             return;
         }
+        if (executor != null) {
+            server.setExecutor(executor);
+        } else if (WebConsoleConfiguration.threads > 0) {
+            ownExecutor = newRequestPool(
+                    WebConsoleConfiguration.threads, WebConsoleConfiguration.queueSize);
+            server.setExecutor(ownExecutor);
+        }
         final int useSystemDefaultBacklog = 0;
         server.bind(
                 new InetSocketAddress(WebConsoleConfiguration.port),
@@ -96,7 +153,7 @@ public final class HttpWebConsole implements SecondBaseModule {
         LOG.info("Starting webconsole on port " + WebConsoleConfiguration.port);
         for (final Widget widget : widgets) {
             LOG.info("Adding webconsole widget " + widget.getPath());
-            server.createContext(widget.getPath(), widget.getServlet());
+            server.createContext(widget.getPath(), new SheddingHandler(widget.getServlet()));
         }
         server.start();
     }
@@ -107,6 +164,35 @@ public final class HttpWebConsole implements SecondBaseModule {
         }
         LOG.info("Shutting down webconsole.");
         server.stop(WebConsoleConfiguration.stopTimeout);
+        if (ownExecutor != null) {
+            ownExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * A pool of daemon threads with a bounded queue. When the queue is full, requests are read on
+     * the calling thread, the server's dispatcher, and answered there without running widgets.
+     */
+    private static ExecutorService newRequestPool(final int threads, final int queueSize) {
+        final AtomicInteger count = new AtomicInteger();
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueSize)),
+                r -> {
+                    final Thread thread = new Thread(r, "webconsole-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (r, executor) -> {
+                    OVERLOADED.set(Boolean.TRUE);
+                    try {
+                        r.run();
+                    } finally {
+                        OVERLOADED.remove();
+                    }
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
     }
 
     public int getPort() {
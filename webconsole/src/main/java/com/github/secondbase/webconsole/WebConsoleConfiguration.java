@@ -21,4 +21,17 @@ public final class WebConsoleConfiguration {
             description = "Time, in seconds, from requesting shutdown on the webconsole until "
             + "the server stops forcefully")
     public static int stopTimeout = 0;
+
+    @Flag(
+            name = "webconsole-threads",
+            description = "Threads handling webconsole requests, so a slow endpoint does not "
+            + "hold up the others. Widgets must then be thread safe. The default 0 handles "
+            + "requests one at a time on the thread accepting them")
+    public static int threads = 0;
+
+    @Flag(
+            name = "webconsole-queue-size",
+            description = "Requests waiting for a webconsole thread before new requests to "
+            + "widgets are answered with 503 Service Unavailable")
+    public static int queueSize = 64;
 }
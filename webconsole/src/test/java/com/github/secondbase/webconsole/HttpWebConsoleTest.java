@@ -0,0 +1,139 @@
+package com.github.secondbase.webconsole;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.github.secondbase.webconsole.widget.Widget;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test that a slow widget does not hold up /healthz, and that requests beyond the pool are shed.
+ */
+public class HttpWebConsoleTest {
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final ExecutorService clients = Executors.newCachedThreadPool();
+    private HttpWebConsole console;
+
+    @Before
+    public void setUp() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            WebConsoleConfiguration.port = socket.getLocalPort();
+        }
+        WebConsoleConfiguration.threads = 1;
+        WebConsoleConfiguration.queueSize = 1;
+        console = new HttpWebConsole(new Widget[]{new Widget() {
+            @Override
+            public String getPath() {
+                return "/slow";
+            }
+
+            @Override
+            public HttpHandler getServlet() {
+                return exchange -> {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    exchange.sendResponseHeaders(200, -1);
+                    exchange.close();
+                };
+            }
+        }});
+        console.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        release.countDown();
+        console.shutdown();
+        clients.shutdownNow();
+        WebConsoleConfiguration.port = 5060;
+        WebConsoleConfiguration.threads = 0;
+        WebConsoleConfiguration.queueSize = 64;
+    }
+
+    @Test
+    public void healthzAnswersWhileWidgetIsSlow() throws Exception {
+        final Future<Integer> running = clients.submit(() -> get("/slow"));
+        started.await();
+
+        // One of these waits in the queue, the other finds it full.
+        final CompletableFuture<Integer> overflow = CompletableFuture.anyOf(
+                CompletableFuture.supplyAsync(() -> getUnchecked("/slow"), clients),
+                CompletableFuture.supplyAsync(() -> getUnchecked("/slow"), clients))
+                .thenApply(Integer.class::cast);
+        assertEquals(503, (int) overflow.get(10, TimeUnit.SECONDS));
+        assertEquals(200, get("/healthz"));
+
+        release.countDown();
+        assertEquals(200, (int) running.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void fullPoolAnswersWidgetRequestsWith503() throws Exception {
+        final Future<Integer> running = clients.submit(() -> get("/slow"));
+        started.await();
+
+        // The pool's one thread is busy, so of two more requests one fills the queue and the
+        // other is answered at once.
+        final List<Future<Integer>> overflow = Arrays.asList(
+                clients.submit(() -> get("/slow")), clients.submit(() -> get("/slow")));
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!overflow.get(0).isDone() && !overflow.get(1).isDone()) {
+            assertTrue("No request was shed", System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+        final int shed = overflow.get(0).isDone() ? 0 : 1;
+        assertEquals(503, (int) overflow.get(shed).get());
+
+        release.countDown();
+        assertEquals(200, (int) running.get(10, TimeUnit.SECONDS));
+        assertEquals(200, (int) overflow.get(1 - shed).get(10, TimeUnit.SECONDS));
+    }
+
+    private static int getUnchecked(final String path) {
+        try {
+            return get(path);
+        } catch (final IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static int get(final String path) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL(
+                "http://127.0.0.1:" + WebConsoleConfiguration.port + path).openConnection();
+        connection.setReadTimeout(10_000);
+        try {
+            final int status = connection.getResponseCode();
+            if (status == 200) {
+                try (InputStream body = connection.getInputStream()) {
+                    while (body.read() >= 0) {
+                        continue;
+                    }
+                }
+            }
+            return status;
+        } finally {
+            connection.disconnect();
+        }
+    }
+}